@@ -0,0 +1,79 @@
+package chip8;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Benchmarks fetch, increment PC, decode and execute over small looping programs
+ * that mimic the opcode mixes found in real games.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ControlUnitBenchmark {
+
+    //Every program is a loop that ends with 1200 (JP 0x200)
+    static final short[] ALU = {
+            0x6005, 0x6103, 0x7001, (short)0x8014, (short)0x8102, (short)0x8213, (short)0x8315,
+            (short)0x8406, (short)0x8507, (short)0x850E, (short)0x8010, 0x1200};
+
+    static final short[] BRANCH = {
+            0x6005, 0x3005, 0x7001, 0x4005, 0x7001, 0x5000, 0x7001, (short)0x9010, 0x7001, 0x1200};
+
+    static final short[] MEMORY = {
+            (short)0xA300, 0x6307, (short)0xF355, (short)0xF365, (short)0xF333, (short)0xF01E,
+            0x600A, (short)0xF029, 0x1200};
+
+    static final short[] GRAPHICS = {
+            (short)0xA000, 0x6010, 0x6108, (short)0xD015, (short)0xD015, 0x6000, (short)0xF029,
+            (short)0xD015, 0x00E0, 0x1200};
+
+    //Typical game loop: read timer, move an object, check bounds, redraw it, poll a key
+    static final short[] MIXED = {
+            (short)0xA300, 0x6A02, 0x6B04, (short)0xDAB5, (short)0xF007, 0x3000, 0x7A01, (short)0xDAB5,
+            0x6105, (short)0xE1A1, 0x7B01, (short)0x8AB4, 0x4A3F, 0x6A00, (short)0xF115, 0x1200};
+
+    @Param({"alu", "branch", "memory", "graphics", "mixed"})
+    public String mix;
+
+    private ControlUnit controlUnit;
+    private RegisterBank registerBank;
+
+    @Setup
+    public void setup(){
+        Memory memory = new Memory();
+        registerBank = new RegisterBank();
+        controlUnit = new ControlUnit(registerBank,memory,new Keyboard());
+
+        short address = 0x200;
+        for(short instruction: program(mix)){
+            memory.set(address,(byte)(instruction >> 8));
+            memory.set((short)(address+1),(byte)instruction);
+            address = (short)(address + 2);
+        }
+    }
+
+    @Benchmark
+    public short fetchDecodeExecute(){
+        controlUnit.fetch();
+        controlUnit.incrementPC();
+        controlUnit.decodeAndExecute();
+        return registerBank.PC;
+    }
+
+    static short[] program(String mix){
+        switch(mix){
+            case "alu": return ALU;
+            case "branch": return BRANCH;
+            case "memory": return MEMORY;
+            case "graphics": return GRAPHICS;
+            case "mixed": return MIXED;
+            default: throw new IllegalArgumentException("Unknown opcode mix: " + mix);
+        }
+    }
+}
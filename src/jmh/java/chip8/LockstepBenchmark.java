@@ -0,0 +1,44 @@
+package chip8;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Benchmarks LockstepEngine over the opcode mixes of ControlUnitBenchmark, with LANES lanes running the same
+ * program. Each operation is one instruction of one lane, so results compare with the ones of ControlUnitBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LockstepBenchmark {
+
+    private static final int LANES = 1024;
+
+    @Param({"alu", "branch", "memory", "graphics", "mixed"})
+    public String mix;
+
+    private LockstepEngine engine;
+
+    @Setup
+    public void setup(){
+        short[] program = ControlUnitBenchmark.program(mix);
+        byte[] rom = new byte[program.length * 2];
+        for(int i = 0; i < program.length; i++){
+            rom[2 * i] = (byte)(program[i] >> 8);
+            rom[2 * i + 1] = (byte)program[i];
+        }
+        engine = new LockstepEngine(rom, LANES, 500, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LANES)
+    public long cycle(){
+        engine.cycle();
+        return engine.getFrame();
+    }
+}
@@ -0,0 +1,227 @@
+package chip8;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * End-to-end benchmark. Replays a fixed input script against every rom of the roms folder, in headless mode and
+ * without waiting to simulate the real speed, and measures emulated instructions/sec, frames/sec and allocated
+ * bytes per frame. Results are compared against a baseline file, and the process exits with status 1 if any rom
+ * regresses beyond the threshold.
+ *
+ * Arguments (all optional):
+ *   --baseline FILE     Baseline to compare with (default benchmarks/baseline.properties).
+ *   --results FILE      Where results are written (default build/reports/macro/results.properties).
+ *   --scripts DIR       Input scripts, ROM.txt or default.txt (default benchmarks/scripts).
+ *   --threshold RATIO   Allowed regression, 0.20 = 20% (default 0.20).
+ *   --frames N          Measured frames per rom and run (default 200000).
+ *   --warmup N          Warmup frames per rom, done for all the roms before measuring any (default 100000).
+ *   --runs N            Measured runs per rom, the median one is reported (default 5).
+ *   --freq HZ           Emulated CPU frequency (default 500).
+ *   --update            Writes the results as the new baseline instead of comparing.
+ */
+public class MacroBenchmark {
+
+    //Extra allocated bytes per frame always allowed, so a baseline of 0 does not fail on noise.
+    private static final double ALLOCATION_SLACK = 16;
+
+    private File baselineFile = new File("benchmarks/baseline.properties");
+    private File resultsFile = new File("build/reports/macro/results.properties");
+    private File scriptsDir = new File("benchmarks/scripts");
+    private double threshold = 0.20;
+    //A new system is started every MACHINE_FRAMES frames (INVADERS overflows the stack after ~28000 frames)
+    private static final int MACHINE_FRAMES = 20000;
+
+    private int frames = 200000;
+    private int warmupFrames = 100000;
+    private int runs = 5;
+    private int cpuFreqHz = 500;
+    private boolean update = false;
+
+    private com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+
+    public static void main(String[] args) throws IOException {
+        MacroBenchmark benchmark = new MacroBenchmark();
+        for(int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if(arg.equals("--update")){
+                benchmark.update = true;
+            }
+            else if(i + 1 < args.length){
+                String value = args[++i];
+                if(arg.equals("--baseline")) benchmark.baselineFile = new File(value);
+                else if(arg.equals("--results")) benchmark.resultsFile = new File(value);
+                else if(arg.equals("--scripts")) benchmark.scriptsDir = new File(value);
+                else if(arg.equals("--threshold")) benchmark.threshold = Double.parseDouble(value);
+                else if(arg.equals("--frames")) benchmark.frames = Integer.parseInt(value);
+                else if(arg.equals("--warmup")) benchmark.warmupFrames = Integer.parseInt(value);
+                else if(arg.equals("--runs")) benchmark.runs = Integer.parseInt(value);
+                else if(arg.equals("--freq")) benchmark.cpuFreqHz = Integer.parseInt(value);
+                else throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            else{
+                throw new IllegalArgumentException("Missing value of argument: " + arg);
+            }
+        }
+        System.exit(benchmark.run() ? 0 : 1);
+    }
+
+
+    /**
+     * Benchmarks every rom and compares (or updates) the baseline.
+     * Returns false if any rom has regressed.
+     */
+    public boolean run() throws IOException {
+        Map<String,Double> results = new TreeMap<String,Double>();
+        String[] roms = new File("roms").list();
+        java.util.Arrays.sort(roms);
+
+        //Let the JIT compile the hot paths with the profile of all the roms before measuring
+        for(String rom: roms){
+            runFrames(rom,loadScript(rom),warmupFrames);
+        }
+
+        System.out.println(String.format("%-10s %14s %12s %14s", "ROM", "instr/sec", "frames/sec", "bytes/frame"));
+        for(String rom: roms){
+            InputScript script = loadScript(rom);
+            double[] result = medianRun(rom,script);
+            results.put(rom + ".instructionsPerSecond", result[0]);
+            results.put(rom + ".framesPerSecond", result[1]);
+            results.put(rom + ".bytesPerFrame", result[2]);
+            System.out.println(String.format("%-10s %14.0f %12.0f %14.1f", rom, result[0], result[1], result[2]));
+        }
+        write(results,resultsFile);
+
+        if(update){
+            write(results,baselineFile);
+            System.out.println("[INFO] Baseline updated: " + baselineFile);
+            return true;
+        }
+        return compare(results,read(baselineFile));
+    }
+
+
+    /**
+     * Measures "runs" runs of "rom" and returns the one with the median frames/sec.
+     */
+    private double[] medianRun(String rom, InputScript script) throws IOException {
+        double[][] results = new double[runs][];
+        for(int i = 0; i < runs; i++){
+            results[i] = runFrames(rom,script,frames);
+        }
+        java.util.Arrays.sort(results, new java.util.Comparator<double[]>() {
+            @Override
+            public int compare(double[] a, double[] b) {
+                return Double.compare(a[1],b[1]);
+            }
+        });
+        return results[runs/2];
+    }
+
+
+    /**
+     * Runs "n" frames of "rom" on new headless systems (one every MACHINE_FRAMES frames).
+     * Only the frames are measured, not the creation of the systems.
+     * Returns {instructions/sec, frames/sec, allocated bytes/frame}.
+     */
+    private double[] runFrames(String rom, InputScript script, int n) throws IOException {
+        long threadId = Thread.currentThread().getId();
+        long nanos = 0;
+        long bytes = 0;
+        long instructions = 0;
+
+        for(int done = 0; done < n; done += MACHINE_FRAMES){
+            Chip8 chip8 = new Chip8(cpuFreqHz,true);
+            chip8.loadGame(rom);
+            chip8.setInput(new ScriptedInput(script));
+            int machineFrames = Math.min(MACHINE_FRAMES, n - done);
+
+            long initCycles = chip8.getCycles();
+            long initBytes = threadBean.getThreadAllocatedBytes(threadId);
+            long initTime = System.nanoTime();
+            for(int frame = 0; frame < machineFrames; frame++){
+                chip8.runFrame();
+            }
+            nanos += System.nanoTime() - initTime;
+            bytes += threadBean.getThreadAllocatedBytes(threadId) - initBytes;
+            instructions += chip8.getCycles() - initCycles; //Frames waiting for a key execute fewer
+        }
+
+        double seconds = nanos / 1000000000.0;
+        return new double[]{instructions / seconds, n / seconds, bytes / (double) n};
+    }
+
+
+    /**
+     * Returns false (and prints why) if any rom of "results" has regressed against "baseline".
+     */
+    private boolean compare(Map<String,Double> results, Map<String,Double> baseline){
+        boolean ok = true;
+        for(Map.Entry<String,Double> entry: results.entrySet()){
+            String key = entry.getKey();
+            Double expected = baseline.get(key);
+            double actual = entry.getValue();
+            if(expected == null){
+                System.out.println("[WARN] No baseline for " + key);
+                continue;
+            }
+            boolean regressed;
+            if(key.endsWith(".bytesPerFrame")){
+                regressed = actual > expected * (1 + threshold) + ALLOCATION_SLACK;
+            }
+            else{
+                regressed = actual < expected * (1 - threshold);
+            }
+            if(regressed){
+                System.out.println(String.format("[ERROR] %s regressed: %.1f (baseline %.1f)", key, actual, expected));
+                ok = false;
+            }
+        }
+        if(ok){
+            System.out.println("[INFO] No regressions against " + baselineFile);
+        }
+        return ok;
+    }
+
+
+    private InputScript loadScript(String rom) throws IOException {
+        File script = new File(scriptsDir, rom + ".txt");
+        if(!script.exists()){
+            script = new File(scriptsDir, "default.txt");
+        }
+        return InputScript.load(script);
+    }
+
+
+    private static Map<String,Double> read(File file) throws IOException {
+        Map<String,Double> values = new TreeMap<String,Double>();
+        for(String line: Files.readLines(file, Charsets.UTF_8)){
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            int separator = line.indexOf('=');
+            values.put(line.substring(0,separator).trim(), Double.parseDouble(line.substring(separator+1).trim()));
+        }
+        return values;
+    }
+
+
+    private static void write(Map<String,Double> values, File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for(Map.Entry<String,Double> entry: values.entrySet()){
+            sb.append(entry.getKey()).append('=').append(String.format("%.1f",entry.getValue())).append('\n');
+        }
+        Files.createParentDirs(file);
+        Files.write(sb.toString(), file, Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,47 @@
+package chip8;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Benchmarks Memory get and set over the program address space.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MemoryBenchmark {
+
+    private Memory memory;
+    private short address;
+
+    @Setup
+    public void setup(){
+        memory = new Memory();
+        address = 0x200;
+    }
+
+    //Next address in 0x200-0xFFF
+    private short nextAddress(){
+        address = (short)(address + 1);
+        if(address > 0xFFF){
+            address = 0x200;
+        }
+        return address;
+    }
+
+    @Benchmark
+    public byte get(){
+        return memory.get(nextAddress());
+    }
+
+    @Benchmark
+    public void set(){
+        short a = nextAddress();
+        memory.set(a,(byte)a);
+    }
+}
@@ -0,0 +1,57 @@
+package chip8;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Benchmarks the screen instructions: Dxyn (aligned and wrapping around the borders) and 00E0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ProcessingUnitBenchmark {
+
+    private Memory memory;
+    private RegisterBank registerBank;
+    private ProcessingUnit pu;
+
+    @Setup
+    public void setup(){
+        memory = new Memory();
+        registerBank = new RegisterBank();
+        pu = new ProcessingUnit(memory,registerBank,new Keyboard());
+
+        //15-byte sprite at 0x300
+        for(int i = 0; i < 15; i++){
+            memory.set((short)(0x300 + i),(byte)(0xA5 ^ i));
+        }
+        registerBank.I = 0x300;
+    }
+
+    @Benchmark
+    public byte drawSprite(){
+        registerBank.V[0] = 8;
+        registerBank.V[1] = 4;
+        pu.draw((byte)0,(byte)1,(byte)15);
+        return registerBank.V[0xF];
+    }
+
+    @Benchmark
+    public byte drawWrappingSprite(){
+        registerBank.V[0] = 60;
+        registerBank.V[1] = 28;
+        pu.draw((byte)0,(byte)1,(byte)15);
+        return registerBank.V[0xF];
+    }
+
+    @Benchmark
+    public boolean cls(){
+        pu.cls();
+        return memory.drawFlag;
+    }
+}
@@ -0,0 +1,42 @@
+package chip8;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Benchmarks the emulation of whole frames (1/60 seconds at 500Hz) of every ROM of the roms folder,
+ * in headless mode and without waiting to simulate the real speed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RomFrameBenchmark {
+
+    @Param({"15PUZZLE", "BLINKY", "BLITZ", "BRIX", "CONNECT4", "GUESS", "HIDDEN", "IBM", "INVADERS",
+            "KALEID", "MAZE", "MERLIN", "MISSILE", "PONG", "PONG2", "PUZZLE", "SYZYGY", "TANK",
+            "TETRIS", "TICTAC", "TRIP", "UFO", "VBRIX", "VERS", "WIPEOFF", "ZERO"})
+    public String rom;
+
+    private Chip8 chip8;
+
+    @Setup
+    public void setup() throws IOException {
+        chip8 = new Chip8(500,true);
+        chip8.loadGame(rom);
+
+        //Keep a key held, so Fx0A never blocks a headless run
+        chip8.getKeyboard().press((byte)0x5);
+    }
+
+    @Benchmark
+    public short frame(){
+        chip8.runFrame();
+        return chip8.getRegisterBank().PC;
+    }
+}
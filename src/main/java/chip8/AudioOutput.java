@@ -0,0 +1,21 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Destination of the sound of a Chip8 system (see Chip8.setAudioOutput).
+ * The emulation thread calls frame once per emulated frame, so outputs work in emulated time.
+ */
+public interface AudioOutput {
+
+    /**
+     * Sends the state of the beeper (on while ST is active) during the current frame.
+     */
+    void frame(boolean on);
+
+    /**
+     * Sends the XO-CHIP audio pattern (F002) and its samples per second (Fx3A), when a rom changes them. Following
+     * frames play the pattern instead of the square wave. Outputs that only play the square wave ignore it.
+     */
+    default void pattern(byte[] pattern, double rateHz){
+    }
+}
@@ -0,0 +1,122 @@
+package chip8;
+
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ *
+ * Input from the AWT keyboard (the one of the emulator window).
+ *
+ * ORIGINAL:
+ * 1 2 3 C
+ * 4 5 6 D
+ * 7 8 9 E
+ * A 0 B F
+ *
+ * MAPPED:
+ * 1 2 3 4
+ * Q W E R
+ * A S D F
+ * Z X C V
+ */
+public class AwtInput implements InputSource {
+
+    //Registers and removes the dispatchers in order, out of the emulation thread: the first use of the focus manager
+    //initializes the AWT toolkit
+    private static final ExecutorService FOCUS_MANAGER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "chip8-awt-input");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private KeyEventDispatcher dispatcher;
+
+    /**
+     * Registers a dispatcher that sets the key as pressed or released when a mapped key is pressed or released.
+     * Each system has its own dispatcher, so there is no state shared between systems. It is registered in the
+     * background: keys pressed before that are not seen.
+     */
+    @Override
+    public void attach(final Keyboard keyboard) {
+        dispatcher = new KeyEventDispatcher() {
+
+            @Override
+            public boolean dispatchKeyEvent(KeyEvent ke) {
+                byte key = keyOf(ke.getKeyCode());
+                if(key >= 0){
+                    switch (ke.getID()) {
+                        case KeyEvent.KEY_PRESSED:
+                            keyboard.press(key);
+                            break;
+
+                        case KeyEvent.KEY_RELEASED:
+                            keyboard.release(key);
+                            break;
+                    }
+                }
+                return false;
+            }
+        };
+        final KeyEventDispatcher added = dispatcher;
+        FOCUS_MANAGER.execute(new Runnable() {
+            @Override
+            public void run() {
+                KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(added);
+            }
+        });
+    }
+
+    @Override
+    public void poll(long frame) {
+        //Events arrive through the dispatcher
+    }
+
+    @Override
+    public void detach() {
+        if(dispatcher != null){
+            final KeyEventDispatcher removed = dispatcher;
+            FOCUS_MANAGER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    KeyboardFocusManager.getCurrentKeyboardFocusManager().removeKeyEventDispatcher(removed);
+                }
+            });
+            dispatcher = null;
+        }
+    }
+
+
+    /**
+     * Returns the system key (0x0 - 0xF) mapped to AWT key code "keycode", or -1 if it is not mapped.
+     */
+    private static byte keyOf(int keycode){
+
+        switch(keycode){
+            case KeyEvent.VK_1: return 0x1;
+            case KeyEvent.VK_2: return 0x2;
+            case KeyEvent.VK_3: return 0x3;
+            case KeyEvent.VK_4: return 0xC;
+            case KeyEvent.VK_Q: return 0x4;
+            case KeyEvent.VK_W: return 0x5;
+            case KeyEvent.VK_E: return 0x6;
+            case KeyEvent.VK_R: return 0xD;
+            case KeyEvent.VK_A: return 0x7;
+            case KeyEvent.VK_S: return 0x8;
+            case KeyEvent.VK_D: return 0x9;
+            case KeyEvent.VK_F: return 0xE;
+            case KeyEvent.VK_Z: return 0xA;
+            case KeyEvent.VK_X: return 0x0;
+            case KeyEvent.VK_C: return 0xB;
+            case KeyEvent.VK_V: return 0xF;
+            default: return -1;
+        }
+
+    }
+}
@@ -0,0 +1,276 @@
+package chip8;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Many headless systems running the same rom, stepped together (i.e. environments to train agents).
+ *
+ * step takes one action per environment (a mask of pressed keys, see Keyboard.setKeys), runs "frameSkip" frames in
+ * every environment and writes into buffers of the caller:
+ *   screens  32 longs per environment (see Memory.getRow)
+ *   rewards  increase of the score (see setScore) during the step
+ *   dones    true if the episode has ended (see setDoneWhen, setMaxFrames and setStallDone)
+ * An environment whose episode ends is reset to the state after loading the rom, and its screen is the first one of
+ * the next episode.
+ * Screens are 64x32 and monochrome, so only CHIP-8 systems can be stepped (-Dchip8.machine=chip8, the default):
+ * SUPER-CHIP and XO-CHIP screens are exported whole by FrameServer and SharedFramebuffer.
+ *
+ * Environments are split in contiguous ranges, one per thread. The calling thread runs the first range, and parked
+ * worker threads the others. Steps don't allocate memory (resets do).
+ */
+public class BatchEnvironment {
+
+    private final Chip8[] systems;
+    private final byte[] initialState;
+    private final long[] previousScore;
+    private final long[] episodeFrames;
+
+    //Score: unsigned big endian number of "scoreLength" bytes at scoreAddress. 0 bytes for no rewards
+    private int scoreAddress;
+    private int scoreLength;
+
+    //End of the episodes: value at an address, number of frames, or state stalled for stallPeriod frames
+    private int doneAddress = -1;
+    private byte doneValue;
+    private long maxFrames;
+    private int stallPeriod;
+
+    //Arguments and results of the current step, written before the generation is incremented
+    private int[] actions;
+    private int frameSkip;
+    private long[] screens;
+    private float[] rewards;
+    private boolean[] dones;
+
+    private final Thread[] workers;
+    private final int[] rangeStarts; //Environments of range r: rangeStarts[r] to rangeStarts[r + 1] - 1
+    private volatile int generation;
+    private final AtomicInteger pendingRanges = new AtomicInteger();
+    private volatile Thread caller;
+    private volatile boolean closed;
+
+
+    /**
+     * Creates "environments" systems running "rom" at "cpuFreqHz", stepped by "threads" threads. Environment i
+     * uses random seed "seed" + i.
+     * @throws IllegalArgumentException if the systems are not CHIP-8 ones (see Machine).
+     */
+    public BatchEnvironment(byte[] rom, int cpuFreqHz, int environments, int threads, long seed){
+        if(environments < 1 || threads < 1){
+            throw new IllegalArgumentException("At least one environment and one thread are needed");
+        }
+        systems = new Chip8[environments];
+        for(int i = 0; i < environments; i++){
+            systems[i] = new Chip8(cpuFreqHz, true);
+            if(systems[i].getMachine() != Machine.CHIP8){
+                throw new IllegalArgumentException("Batch screens are 64x32: " + systems[i].getMachine()
+                        + " systems can't be stepped");
+            }
+            systems[i].loadGame(rom);
+            systems[i].setRandomSeed(seed + i);
+        }
+        initialState = Snapshot.capture(systems[0]);
+        previousScore = new long[environments];
+        episodeFrames = new long[environments];
+
+        threads = Math.min(threads, environments);
+        rangeStarts = new int[threads + 1];
+        for(int r = 0; r <= threads; r++){
+            rangeStarts[r] = (int)((long) environments * r / threads);
+        }
+        workers = new Thread[threads - 1];
+        for(int w = 0; w < workers.length; w++){
+            final int range = w + 1;
+            workers[w] = new Thread("chip8-batch-" + range){
+                public void run(){
+                    work(range);
+                }
+            };
+            workers[w].setDaemon(true);
+            workers[w].start();
+        }
+    }
+
+
+    /**
+     * Rewards are the increase of the unsigned big endian number of "length" bytes (0 for no rewards) at "address".
+     */
+    public void setScore(int address, int length){
+        this.scoreAddress = address;
+        this.scoreLength = length;
+        for(int i = 0; i < systems.length; i++){
+            previousScore[i] = score(systems[i].getMemory());
+        }
+    }
+
+    /**
+     * Episodes end when memory address "address" holds "value" (i.e. no lives left), or never if "address" is -1.
+     */
+    public void setDoneWhen(int address, int value){
+        this.doneAddress = address;
+        this.doneValue = (byte) value;
+    }
+
+    /**
+     * Episodes end after "frames" frames, or never if 0.
+     */
+    public void setMaxFrames(long frames){
+        this.maxFrames = frames;
+    }
+
+    /**
+     * Episodes end when the state repeats every 1 to "maxPeriod" frames without input (see Chip8.setStallDetection),
+     * i.e. a game over screen. 0 disables it.
+     */
+    public void setStallDone(int maxPeriod){
+        this.stallPeriod = maxPeriod;
+        for(Chip8 system: systems){
+            system.setStallDetection(maxPeriod);
+        }
+    }
+
+    /**
+     * Returns the number of environments.
+     */
+    public int size(){
+        return systems.length;
+    }
+
+    /**
+     * Returns the system of environment "i".
+     */
+    public Chip8 getSystem(int i){
+        return systems[i];
+    }
+
+
+    /**
+     * Resets every environment and writes their screens into "screens".
+     */
+    public void reset(long[] screens){
+        for(int i = 0; i < systems.length; i++){
+            reset(i);
+            writeScreen(i, screens);
+        }
+    }
+
+    /**
+     * Presses the keys of "actions"[i] in environment i, runs "frameSkip" frames (less if the episode ends) and
+     * writes the results into "screens" (32 longs per environment), "rewards" and "dones".
+     * Returns when every environment has run.
+     */
+    public void step(int[] actions, int frameSkip, long[] screens, float[] rewards, boolean[] dones){
+        this.actions = actions;
+        this.frameSkip = frameSkip;
+        this.screens = screens;
+        this.rewards = rewards;
+        this.dones = dones;
+        if(workers.length == 0){
+            stepRange(0);
+            return;
+        }
+
+        caller = Thread.currentThread();
+        pendingRanges.set(workers.length);
+        generation++; //Publishes the arguments to the workers
+        for(Thread worker: workers){
+            LockSupport.unpark(worker);
+        }
+        stepRange(0);
+        while(pendingRanges.get() != 0){
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void close(){
+        closed = true;
+        for(Thread worker: workers){
+            LockSupport.unpark(worker);
+        }
+    }
+
+
+    /**
+     * Loop of the worker of range "range": waits for a step, runs its environments and tells the caller.
+     */
+    private void work(int range){
+        int seen = 0;
+        while(true){
+            while(generation == seen){
+                if(closed){
+                    return;
+                }
+                LockSupport.park(this);
+            }
+            seen = generation;
+            stepRange(range);
+            if(pendingRanges.decrementAndGet() == 0){
+                LockSupport.unpark(caller);
+            }
+        }
+    }
+
+    private void stepRange(int range){
+        for(int i = rangeStarts[range]; i < rangeStarts[range + 1]; i++){
+            stepEnvironment(i);
+        }
+    }
+
+    private void stepEnvironment(int i){
+        Chip8 system = systems[i];
+        Memory memory = system.getMemory();
+        system.getKeyboard().setKeys(actions[i]);
+
+        boolean done = false;
+        for(int frame = 0; frame < frameSkip && !done; frame++){
+            system.runFrame();
+            episodeFrames[i]++;
+            done = (doneAddress >= 0 && memory.get((short) doneAddress) == doneValue)
+                    || (maxFrames > 0 && episodeFrames[i] >= maxFrames)
+                    || (stallPeriod > 0 && system.isStalled());
+        }
+
+        if(scoreLength > 0){
+            long score = score(memory);
+            rewards[i] = score - previousScore[i];
+            previousScore[i] = score;
+        }
+        else{
+            rewards[i] = 0;
+        }
+        dones[i] = done;
+        if(done){
+            reset(i);
+        }
+        writeScreen(i, screens);
+    }
+
+    private void reset(int i){
+        Chip8 system = systems[i];
+        Snapshot.restore(system, initialState);
+        system.getKeyboard().setKeys(0);
+        system.setStallDetection(stallPeriod);
+        episodeFrames[i] = 0;
+        previousScore[i] = score(system.getMemory());
+    }
+
+    private long score(Memory memory){
+        long score = 0;
+        for(int b = 0; b < scoreLength; b++){
+            score = score << 8 | (memory.get((short)(scoreAddress + b)) & 0xFF);
+        }
+        return score;
+    }
+
+    private void writeScreen(int i, long[] screens){
+        Memory memory = systems[i].getMemory();
+        for(int y = 0; y < 32; y++){
+            screens[i * 32 + y] = memory.getRow(y);
+        }
+    }
+}
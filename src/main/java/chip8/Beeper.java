@@ -0,0 +1,90 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Square wave synthesizer of the system beeper, rendered one sample at a time.
+ * The wave is a 128-sample pattern, half high and half low by default, that XO-CHIP roms can change (see setPattern).
+ * Turning it on or off ramps the volume over RAMP_SAMPLES samples instead of cutting the wave, so edges
+ * don't click. Samples are signed 16-bit mono at SAMPLE_RATE.
+ */
+public class Beeper {
+
+    public static final int SAMPLE_RATE = 44100;
+    public static final int SAMPLES_PER_FRAME = SAMPLE_RATE / 60; //735 samples for each 1/60 seconds
+    public static final double DEFAULT_FREQUENCY_HZ = 440;
+    public static final int DEFAULT_AMPLITUDE = 6000;
+
+    private static final int RAMP_SAMPLES = 64; //~1.5 ms
+
+    private int phase;          //Position in the wave, the whole int range is one period
+    private int phaseIncrement; //Phase advanced per sample
+    private long patternHigh = -1; //Pattern samples 0 to 63 (bit 63 the first) and 64 to 127. The top 7 bits of
+    private long patternLow;       //the phase are the sample played
+    private int amplitude;
+    private int level;          //Volume ramp, from 0 (silent) to RAMP_SAMPLES (full)
+
+
+    public Beeper(){
+        this(DEFAULT_FREQUENCY_HZ, DEFAULT_AMPLITUDE);
+    }
+
+    public Beeper(double frequencyHz, int amplitude){
+        this.phaseIncrement = (int)(frequencyHz / SAMPLE_RATE * 4294967296.0);
+        this.amplitude = amplitude;
+    }
+
+    /**
+     * Plays "pattern" (16 bytes, 128 1-bit samples, bit 7 of the first byte first) at "rateHz" pattern samples per
+     * second, instead of the square wave.
+     */
+    public void setPattern(byte[] pattern, double rateHz){
+        long high = 0, low = 0;
+        for(int i = 0; i < 8; i++){
+            high = high << 8 | (pattern[i] & 0xFF);
+            low = low << 8 | (pattern[i + 8] & 0xFF);
+        }
+        patternHigh = high;
+        patternLow = low;
+        phaseIncrement = (int)(rateHz / 128 / SAMPLE_RATE * 4294967296.0);
+    }
+
+    /**
+     * Returns true if the beeper is off and its volume ramp has finished.
+     */
+    public boolean isSilent(){
+        return level == 0;
+    }
+
+    /**
+     * Returns the next sample, with the beeper on or off.
+     */
+    public int next(boolean on){
+        if(on){
+            if(level < RAMP_SAMPLES){
+                level++;
+            }
+        }
+        else if(level > 0){
+            level--;
+        }
+        else{
+            return 0;
+        }
+        int bit = phase >>> 25;
+        long pattern = bit < 64 ? patternHigh : patternLow;
+        int sample = pattern << (bit & 63) < 0 ? amplitude : -amplitude;
+        phase += phaseIncrement;
+        return sample * level / RAMP_SAMPLES;
+    }
+
+    /**
+     * Renders "samples" samples as signed 16-bit little endian PCM into "out", starting at "offset".
+     */
+    public void render(byte[] out, int offset, int samples, boolean on){
+        for(int i = 0; i < samples; i++){
+            int sample = next(on);
+            out[offset++] = (byte) sample;
+            out[offset++] = (byte)(sample >> 8);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package chip8;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Mixes the beepers of many systems into one stereo SourceDataLine, played by one thread.
+ * Usage: chip8.setAudioOutput(mixer.channel(gain, pan)) for every system.
+ *
+ * All the beepers are the same square wave (XO-CHIP audio patterns are not mixed, see AudioOutput.pattern), so the mix of a frame is that wave multiplied by the sum of the gains
+ * of the channels that are on. The mixer thread adds the left and right gains of the channels once per frame and
+ * then synthesizes the frame in a single pass, so the cost per sample doesn't grow with the number of systems.
+ * Gain changes are ramped, so channels turning on or off don't click.
+ */
+public class BeeperMixer {
+
+    private static final int RAMP_SAMPLES = 64;
+    private static final int CHANNELS = 2; //Stereo
+
+    private SourceDataLine sdl;
+    private Thread mixThread;
+    private volatile boolean running;
+    private volatile boolean idle; //True while the mixer thread sleeps because every channel is silent
+
+    private final Object channelsLock = new Object();
+    private volatile Channel[] channels = new Channel[0]; //Copy on write
+
+    private int phase;
+    private int phaseIncrement;
+    private int amplitude;
+    private float gainLeft;  //Current gains (ramped towards the sum of the channels)
+    private float gainRight;
+    private byte[] buf = new byte[Beeper.SAMPLES_PER_FRAME * 2 * CHANNELS];
+
+
+    public BeeperMixer() throws LineUnavailableException {
+        this(Beeper.DEFAULT_FREQUENCY_HZ, Beeper.DEFAULT_AMPLITUDE, Sound.DEFAULT_BUFFER_FRAMES);
+    }
+
+    /**
+     * Opens the line, with a buffer of "bufferFrames" frames, and starts the mixer thread.
+     * @throws LineUnavailableException if the line can't be opened.
+     */
+    public BeeperMixer(double frequencyHz, int amplitude, int bufferFrames) throws LineUnavailableException {
+        this.phaseIncrement = (int)(frequencyHz / Beeper.SAMPLE_RATE * 4294967296.0);
+        this.amplitude = amplitude;
+
+        AudioFormat af = new AudioFormat(Beeper.SAMPLE_RATE, 16, CHANNELS, true, false);
+        sdl = AudioSystem.getSourceDataLine(af);
+        sdl.open(af, bufferFrames * buf.length);
+        sdl.start();
+
+        running = true;
+        mixThread = new Thread("chip8-mixer"){
+            public void run(){
+                mix();
+            }
+        };
+        mixThread.setDaemon(true);
+        mixThread.setPriority(Thread.MAX_PRIORITY);
+        mixThread.start();
+    }
+
+
+    /**
+     * Creates a channel for one system. "gain" goes from 0 to 1 and "pan" from -1 (left) to 1 (right).
+     */
+    public Channel channel(float gain, float pan){
+        Channel channel = new Channel();
+        channel.setGain(gain, pan);
+        synchronized(channelsLock){
+            Channel[] updated = Arrays.copyOf(channels, channels.length + 1);
+            updated[channels.length] = channel;
+            channels = updated;
+        }
+        return channel;
+    }
+
+    /**
+     * Stops the mixer thread and closes the line.
+     */
+    public void close(){
+        running = false;
+        LockSupport.unpark(mixThread);
+        try{
+            mixThread.join();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        sdl.close();
+    }
+
+
+    private void remove(Channel channel){
+        synchronized(channelsLock){
+            Channel[] current = channels;
+            for(int i = 0; i < current.length; i++){
+                if(current[i] == channel){
+                    Channel[] updated = new Channel[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    channels = updated;
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Mixer thread: one iteration per frame (1/60 seconds of samples).
+     */
+    private void mix(){
+        while(running){
+
+            //1.- Add the gains of the channels that have been on since the last frame
+            float targetLeft = 0;
+            float targetRight = 0;
+            for(Channel channel: channels){
+                if(channel.isOn()){
+                    targetLeft += channel.left;
+                    targetRight += channel.right;
+                }
+            }
+            targetLeft = Math.min(targetLeft, 1);
+            targetRight = Math.min(targetRight, 1);
+
+            //2.- Sleep while everything is silent
+            if(targetLeft == 0 && targetRight == 0 && gainLeft == 0 && gainRight == 0){
+                idle = true;
+                LockSupport.parkNanos(this, 1000000000L / 60);
+                idle = false;
+                continue;
+            }
+
+            //3.- Synthesize the frame in one pass
+            float stepLeft = (targetLeft - gainLeft) / RAMP_SAMPLES;
+            float stepRight = (targetRight - gainRight) / RAMP_SAMPLES;
+            int offset = 0;
+            for(int i = 0; i < Beeper.SAMPLES_PER_FRAME; i++){
+                if(i < RAMP_SAMPLES){
+                    gainLeft += stepLeft;
+                    gainRight += stepRight;
+                }
+                int wave = phase >= 0 ? amplitude : -amplitude;
+                phase += phaseIncrement;
+                int left = (int)(wave * gainLeft);
+                int right = (int)(wave * gainRight);
+                buf[offset++] = (byte) left;
+                buf[offset++] = (byte)(left >> 8);
+                buf[offset++] = (byte) right;
+                buf[offset++] = (byte)(right >> 8);
+            }
+            gainLeft = targetLeft; //Avoid float drift after the ramp
+            gainRight = targetRight;
+            sdl.write(buf, 0, buf.length); //Blocks while the line buffer is full
+        }
+    }
+
+
+    /**
+     * Channel of one system. Its emulation thread calls frame once per frame.
+     */
+    public class Channel implements AudioOutput {
+
+        private volatile float left;
+        private volatile float right;
+
+        //Incremented by the emulation thread on every frame with the beeper on. The mixer thread sees the channel on
+        //if it changed during the current or the previous mixer frame, so beeps aren't lost by frame jitter.
+        private volatile int onFrames;
+        private int seenOnFrames;
+        private boolean wasOn;
+
+        private Channel(){
+        }
+
+        /**
+         * Changes the gain (0 to 1) and panning (-1 left to 1 right) of the channel.
+         */
+        public void setGain(float gain, float pan){
+            pan = Math.max(-1, Math.min(1, pan));
+            left = gain * (1 - pan) / 2;
+            right = gain * (1 + pan) / 2;
+        }
+
+        @Override
+        public void frame(boolean on) {
+            if(on){
+                onFrames++; //Only written by the emulation thread of the system
+                if(idle){
+                    LockSupport.unpark(mixThread);
+                }
+            }
+        }
+
+        /**
+         * Removes the channel from the mixer.
+         */
+        public void close(){
+            remove(this);
+        }
+
+        //Called by the mixer thread once per frame
+        private boolean isOn(){
+            int current = onFrames;
+            boolean changed = current != seenOnFrames;
+            seenOnFrames = current;
+            boolean on = changed || wasOn;
+            wasOn = changed;
+            return on;
+        }
+    }
+}
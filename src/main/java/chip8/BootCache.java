@@ -0,0 +1,173 @@
+package chip8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * On-disk cache of the state of every rom at the end of its boot, so new systems start playable.
+ *
+ * The boot of a rom is the frames it runs before it reads the keyboard for the first time (Ex9E, ExA1 or Fx0A):
+ * until then, nothing can change what it does. The first time a rom is loaded, it is booted in a headless system
+ * and the state before the frame of that first read is stored (see Snapshot); later loads restore it directly.
+ * Roms that use random numbers during the boot, or that don't read the keyboard in the first MAX_BOOT_FRAMES frames,
+ * are recorded as not cacheable and boot normally.
+ *
+ * Entries are keyed by the hash of the rom, the frequency (cycles per frame change the boot), the machine (see
+ * Machine) and the quirk profile (see Quirks), and stored in a directory per VERSION. Increment VERSION on any change that alters the emulation, so
+ * stale boots are never restored: directories of other versions are deleted when the cache is opened. Only what
+ * this class creates is deleted (directories v<VERSION>-<FORMAT>, and the entries and temporary files in them), as
+ * the root may be any directory given by the user.
+ */
+public class BootCache {
+
+    //Version of the emulation. Increment it on any change of behaviour of the instructions or timers.
+    public static final int VERSION = 1;
+
+    public static final int MAX_BOOT_FRAMES = 600;
+
+    //Names of the directories of the versions and of their entries (and the temporary files of write)
+    private static final Pattern VERSION_DIRECTORY = Pattern.compile("v\\d+-\\d+");
+    private static final Pattern ENTRY = Pattern.compile("[0-9a-f]{16}-[a-z0-9-]+\\.boot(\\d+\\.tmp)?");
+
+    //In memory entry of a rom that can't be cached
+    private static final byte[] NOT_CACHEABLE = new byte[0];
+
+    private final File directory;
+    private final ConcurrentMap<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+
+
+    /**
+     * Opens the cache stored in "root" (i.e. ~/.chip8/boot), creating it if needed.
+     */
+    public BootCache(File root){
+        this.directory = new File(root, "v" + VERSION + "-" + Snapshot.FORMAT);
+        deleteOtherVersions(root);
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            System.err.println("[WARN] Boot cache disabled, can't create " + directory);
+        }
+    }
+
+
+    /**
+     * Restores the boot state of "rom", already loaded in "chip8", booting it first if it is not cached.
+     * Returns the number of frames skipped (0 if the rom is not cacheable).
+     */
+    public long restore(Chip8 chip8, byte[] rom){
+        byte[] snapshot = get(rom, chip8.getCpuFreqHz(), chip8.getMachine(), chip8.getQuirks());
+        if(snapshot == NOT_CACHEABLE){
+            return 0;
+        }
+        Snapshot.restore(chip8, snapshot);
+        return chip8.getFrame();
+    }
+
+
+    /**
+     * Returns the boot state of "rom" at "cpuFreqHz" in "machine" with "quirks" from memory or disk, or boots it and
+     * stores it.
+     */
+    private byte[] get(byte[] rom, int cpuFreqHz, Machine machine, Quirks quirks){
+        String key = String.format("%016x-%d-%s-%s", CompiledEngine.hash(rom, 0, rom.length), cpuFreqHz,
+                machine.name().toLowerCase(), quirks.name().toLowerCase());
+        byte[] snapshot = entries.get(key);
+        if(snapshot == null){
+            File file = new File(directory, key + ".boot");
+            snapshot = read(file);
+            if(snapshot == null){
+                snapshot = boot(rom, cpuFreqHz, machine, quirks);
+                write(file, snapshot);
+            }
+            entries.putIfAbsent(key, snapshot);
+        }
+        return snapshot;
+    }
+
+
+    /**
+     * Runs "rom" in a headless system, without input, until it reads the keyboard. Returns the state before that
+     * frame, or NOT_CACHEABLE.
+     */
+    static byte[] boot(byte[] rom, int cpuFreqHz, Machine machine, Quirks quirks){
+        Chip8 chip8 = new Chip8(cpuFreqHz, true);
+        chip8.setBootCache(null);
+        chip8.setMachine(machine);
+        chip8.setQuirks(quirks);
+        chip8.loadGame(rom);
+        ProcessingUnit pu = chip8.getProcessingUnit();
+        try{
+            for(int frame = 0; frame < MAX_BOOT_FRAMES; frame++){
+                byte[] before = Snapshot.capture(chip8);
+                chip8.runFrame();
+                if(pu.getRandomDraws() > 0){
+                    return NOT_CACHEABLE; //The boot is different on every run
+                }
+                if(pu.getKeyReads() > 0){
+                    return frame > 0 ? before : NOT_CACHEABLE;
+                }
+            }
+        }
+        catch(RuntimeException e){
+            System.err.println("[WARN] Rom failed while booting, not cached: " + e);
+        }
+        return NOT_CACHEABLE;
+    }
+
+
+    private static byte[] read(File file){
+        if(!file.isFile()){
+            return null;
+        }
+        try{
+            byte[] snapshot = Files.readAllBytes(file.toPath());
+            return snapshot.length == 0 ? NOT_CACHEABLE : snapshot;
+        }
+        catch(IOException e){
+            return null; //Booted again
+        }
+    }
+
+    /**
+     * Writes an entry to a temporary file and moves it, so other systems (or processes) never read half an entry.
+     */
+    private void write(File file, byte[] snapshot){
+        try{
+            File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+            Files.write(temporary.toPath(), snapshot);
+            try{
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(AtomicMoveNotSupportedException e){
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch(IOException e){
+            System.err.println("[WARN] Can't write boot cache entry " + file + ": " + e);
+        }
+    }
+
+    private void deleteOtherVersions(File root){
+        File[] versions = root.listFiles();
+        if(versions == null){
+            return;
+        }
+        for(File version: versions){
+            if(version.isDirectory() && VERSION_DIRECTORY.matcher(version.getName()).matches()
+                    && !version.equals(directory)){
+                File[] files = version.listFiles();
+                for(File file: files == null ? new File[0] : files){
+                    if(ENTRY.matcher(file.getName()).matches()){
+                        file.delete();
+                    }
+                }
+                version.delete(); //Only if empty: other files are kept
+            }
+        }
+    }
+}
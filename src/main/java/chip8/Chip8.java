@@ -1,10 +1,9 @@
 package chip8;
 
-import com.google.common.io.Files;
-
 import javax.swing.*;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 /**
  * @author Ismael Rodríguez, ismaro3
@@ -17,14 +16,63 @@ public class Chip8 {
     private int cpuFreqHz;
     private long periodNanos;       //Time for each cycle
     private int cyclesForRefreshing; //Cycles to refresh screen (60 times a second)
+    private int frameCycles;         //Cycles executed since the last refresh
+    private long cycles;             //Cycles executed before the current frame (see getCycles)
+
+    //Changes requested by other threads (i.e. JMX), applied by the emulation thread at the end of a frame
+    private volatile int requestedFreqHz;
+    private volatile boolean statsRequested;
+
+    //Execution counters. Null when stats are disabled.
+    private volatile ExecutionStats stats;
+
+    //Flight Recorder events (see FlightEvents). Enabled flags are updated once per frame.
+    private FlightEvents.Frame frameEvent; //Event of the current frame, null if Frame events are disabled
+    private boolean overrunEvents;
 
     //Components
     private Memory memory;
     private RegisterBank registerBank;
     private ControlUnit controlUnit;
-    private Screen screen;
+    private Engine engine;       //Engine set with setEngine or compiled for the loaded rom. Null for the control unit
+    private byte[] rom;          //Image loaded with loadGame, null if none
+    private Engine activeEngine; //Executes the instructions: the control unit while stats or the profiler are enabled
+    private boolean profiling;
+    private ProcessingUnit processingUnit;
+    private volatile Screen screen; //Null until the window has been created (see prepareGUI)
     private Keyboard keyboard;
-    private Sound sound;
+    private InputSource input;
+    private long bootFrames; //Frames skipped by the boot cache in the last loadGame (see setInput)
+    private AudioOutput audio; //Null for no sound
+    private int sentAudioChanges; //Changes of the XO-CHIP audio pattern or pitch sent to the audio output
+    private VideoOutput video; //Null if the screen is only shown in the window
+
+    private long frame; //Number of emulated frames (1/60 seconds each)
+
+    //Stall detection (see setStallDetection). State hashes at the end of the last frames without input changes nor
+    //random numbers, null if disabled.
+    private long[] frameHashes;
+    private int frameHashCount;
+    private int stallPeriod;      //0 if not stalled
+    private int lastKeys;
+    private int lastPressEvents;
+    private long lastRandomDraws;
+
+    //Machine of the roms loaded (see Machine), -Dchip8.machine=chip8|schip|xochip
+    private static final Machine DEFAULT_MACHINE = Machine.parse(System.getProperty("chip8.machine", "chip8"));
+
+    //Quirk profile of the roms loaded (see Quirks), -Dchip8.quirks=default|vip|schip|xochip
+    private static final Quirks DEFAULT_QUIRKS = Quirks.parse(System.getProperty("chip8.quirks", "default"));
+
+    private static final boolean AOT_ENABLED = !"false".equals(System.getProperty("chip8.aot"));
+
+    //Boot cache of every system (see BootCache), enabled with -Dchip8.bootCache=DIRECTORY
+    private static final BootCache DEFAULT_BOOT_CACHE = System.getProperty("chip8.bootCache") == null ? null :
+            new BootCache(new File(System.getProperty("chip8.bootCache")));
+    private BootCache bootCache = DEFAULT_BOOT_CACHE;
+
+    //Headless systems have no GUI, no sound and no AWT keyboard (used by benchmarks and tests)
+    private boolean headless;
 
 
     /**
@@ -32,9 +80,19 @@ public class Chip8 {
      */
     public Chip8(int cpuFreqHz)
     {
-        this.cpuFreqHz = cpuFreqHz;
-        this.periodNanos = 1000000000/ cpuFreqHz;
-        this.cyclesForRefreshing = cpuFreqHz /60;
+        this(cpuFreqHz,false);
+    }
+
+    /**
+     * Constructor. Initializes the system, running at "cpuFreqHz" cycles per second.
+     * If "headless" is true, no window, sound line or AWT input are created (see setInput and setAudioOutput).
+     */
+    public Chip8(int cpuFreqHz, boolean headless)
+    {
+        checkFrequency(cpuFreqHz);
+        applyFrequency(cpuFreqHz);
+        this.requestedFreqHz = cpuFreqHz;
+        this.headless = headless;
         initialize();
     }
 
@@ -47,23 +105,49 @@ public class Chip8 {
         registerBank = new RegisterBank();
         keyboard = new Keyboard();
         controlUnit = new ControlUnit(registerBank,memory,keyboard);
-        sound = new Sound(true);
-        prepareGUI(memory);
-        System.out.println("[INFO] Chip-8 system initialized.");
+        processingUnit = controlUnit.getProcessingUnit();
+        activeEngine = controlUnit;
+        setMachine(DEFAULT_MACHINE);
+        setQuirks(DEFAULT_QUIRKS);
+        updateFlightEvents();
+        if(!headless){
+            //Sound, window and AWT input are started in the background (see Sound, prepareGUI and AwtInput), so the
+            //emulation starts without waiting for the audio line nor the AWT toolkit
+            audio = new Sound(true);
+            prepareGUI(memory);
+            setInput(new AwtInput());
+            System.out.println("[INFO] Chip-8 system initialized.");
+        }
     }
 
 
     /**
      * Prepares the GUI, creating a Frame where the screen will be displayed.
+     * The frame is created in the event dispatch thread, and the request is sent from a new thread, since the first
+     * one initializes the AWT toolkit. Until the frame exists the screen is not painted; its first paint shows the
+     * current one.
      */
-    private  void prepareGUI(Memory memory){
-        JFrame f = new JFrame("CHIP-8 emulator (ismaro3)");
-        f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        screen =  new Screen(memory);
-        f.add(screen);
-        f.pack();
-        f.setVisible(true);
-
+    private  void prepareGUI(final Memory memory){
+        final Runnable create = new Runnable() {
+            @Override
+            public void run() {
+                JFrame f = new JFrame("CHIP-8 emulator (ismaro3)");
+                f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                Screen created = new Screen(memory);
+                f.add(created);
+                f.pack();
+                f.setVisible(true);
+                screen = created;
+            }
+        };
+        Thread starter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SwingUtilities.invokeLater(create);
+            }
+        }, "chip8-gui");
+        starter.setDaemon(true);
+        starter.start();
     }
 
 
@@ -73,8 +157,31 @@ public class Chip8 {
      * @throws IOException if an error happens.
      */
     public void loadGame(String name) throws IOException {
-        File file = new File("roms/" + name);
-        byte[] bytes = Files.toByteArray(file);
+        loadGame(new File("roms/" + name));
+    }
+
+    /**
+     * Loads the game of file "file" (i.e. a rom given in the command line, see Main).
+     * Puts all its bytes into memory, starting from position 0x200.
+     * @throws IOException if an error happens.
+     */
+    public void loadGame(File file) throws IOException {
+        //Read with java.nio: the Guava Files of this version initializes java.util.logging, which delays the first frame
+        int loadedBytes = loadGame(Files.readAllBytes(file.toPath()));
+        if(!headless){
+            System.out.println("[INFO] ROM \"" + file.getName() + "\" loaded in memory starting at 0x200 ("+loadedBytes+" Bytes).");
+        }
+
+    }
+
+    /**
+     * Puts all the bytes of a ROM image into memory, starting from position 0x200.
+     * If the image has been compiled ahead of time, its compiled engine is used. With a boot cache (see
+     * setBootCache), the system starts at the end of the boot of the rom.
+     * Returns the number of loaded bytes.
+     */
+    public int loadGame(byte[] bytes){
+        rom = bytes;
         short currentAddress = (short)0x200;
         int loadedBytes = 0;
         for(byte b: bytes){
@@ -83,25 +190,41 @@ public class Chip8 {
             currentAddress = (short)(currentAddress +0x1);
 
         }
-        System.out.println("[INFO] ROM \"" + name + "\" loaded in memory starting at 0x200 ("+loadedBytes+" Bytes).");
 
+        //Roms compiled ahead of time (see RomCompiler) run their compiled code, unless -Dchip8.aot=false. Compiled
+        //skips are always 2 bytes, so XO-CHIP roms (where F000 nnnn is 4) are interpreted
+        if(AOT_ENABLED && getMachine() != Machine.XOCHIP){
+            CompiledEngine compiled = CompiledEngine.create(bytes, memory, registerBank, processingUnit);
+            if(compiled != null){
+                setEngine(compiled);
+            }
+        }
+
+        bootFrames = 0;
+        if(bootCache != null){
+            long skipped = bootCache.restore(this, bytes);
+            bootFrames = skipped;
+            if(skipped > 0 && !headless){
+                System.out.println("[INFO] Boot restored from cache (" + skipped + " frames skipped).");
+            }
+        }
+        return loadedBytes;
     }
 
     /**
      * Main emulation loop. Infinite loop where fetch, incrementPC, decode and execute phases are executed on every
      * iteration. Also, 60 times a second, the screen is refreshed, DT and ST are decremented and sound is activated/deactivated.
      * At the end of one iteration, the system waits the proper time to simulate the real speed of the system.
+     * While Fx0A waits for a key, no instruction is executed and the thread sleeps until a key is pressed or until
+     * the next refresh, so timers and screen keep running without using CPU.
      */
     public void startEmulationLoop(){
 
-        int emulatedCycles = 0; //Number of emulated cycles (gets reseted every "cpuFreqHz" cycles).
-
         //Number of emulated cycles (gets reseted every "cyclesForRefreshing" cycles).
         //Used for controlling refreshing rate of screen, DT and ST (must be 60HZ always).
         int refreshCycles = 0;
 
         //Variables used to measure time
-        long passedTime = 0;
         long initTime;
         long endTime;
 
@@ -111,71 +234,555 @@ public class Chip8 {
 
             initTime = System.nanoTime();
 
-            //1.- Fetch (Load instruction from memory according to PC)
-            controlUnit.fetch();
+            if(!processingUnit.resumeIfKeyPressed()){
 
-            //2.- Increment PC before executing, so if a JMP is done, it will be overriden.
-            controlUnit.incrementPC();
+                //Waiting for a key: sleep until a key is pressed or until it is time to refresh.
+                //The slept time counts as emulated cycles.
+                int cyclesToRefresh = cyclesForRefreshing - refreshCycles;
+                processingUnit.awaitKey(initTime + cyclesToRefresh * periodNanos);
+                endTime = System.nanoTime();
+                refreshCycles += (int) Math.min(cyclesToRefresh, (endTime - initTime) / periodNanos);
+                if(stats != null){
+                    stats.addWaitKeyNanos(endTime - initTime);
+                }
+            }
+            else{
 
-            //3.- Decode instruction and execute it
-            controlUnit.decodeAndExecute();
+                //1, 2, 3.- Fetch, increment PC, decode and execute
+                emulateCycle();
+                refreshCycles++;
+            }
 
 
             //Actions done 60 times per second -> every cpuFreqHz/60 cycles
-            if(refreshCycles%(cyclesForRefreshing)==0){
+            if(refreshCycles >= cyclesForRefreshing){
 
                 refreshCycles=0;
-                //4.- Update screen only every 1/60 seconds (Screen freq = 60Hz)
-                if(memory.drawFlag){
-                    screen.paintScreen();
-                    memory.drawFlag=false;
-                }
+                refresh(false);
+            }
 
-                //5.- Decrement DT
-                if(registerBank.DT > 0){
-                    registerBank.DT = (byte)(registerBank.DT - 0x01);
-                }
+            endTime = System.nanoTime();
+
+
+            if(!processingUnit.isWaitingForKey()){
+                waitForCompleteCycle(endTime,initTime); //Wait time to simulate real speed
+            }
+
+
+        }
+    }
 
-                //6.- Decrement ST. If previously on silence -> new sound. If now is 0 -> stop sound
-                if(registerBank.ST > 0){
-                    sound.startSound();
-                    registerBank.ST = (byte)(registerBank.ST - 0x01);
-                    if(registerBank.ST == 0){
-                        sound.stopSound();
-                    }
+    /**
+     * Emulates one frame (1/60 seconds of emulated time) as fast as possible:
+     * executes cpuFreqHz/60 cycles and then the 60Hz actions (screen, DT and ST).
+     * If Fx0A is waiting for a key, the rest of the cycles of the frame are skipped.
+     * Used by headless runs, where there is no need to wait to simulate the real speed.
+     */
+    public void runFrame(){
+        if(stallPeriod == 1){
+            refresh(true); //Parked: running the frame would leave the same state
+            return;
+        }
+        int cycles = 0;
+        while(cycles < cyclesForRefreshing){
+            if(!processingUnit.resumeIfKeyPressed()){
+                if(stats != null){
+                    stats.addWaitKeyNanos((cyclesForRefreshing - cycles) * periodNanos); //Emulated time
                 }
+                break;
             }
+            int executed = activeEngine.run(cyclesForRefreshing - cycles); //Compiled engines run whole blocks
+            cycles += executed;
+            frameCycles += executed;
+        }
+        refresh(false);
+    }
 
-            endTime = System.nanoTime();
-            refreshCycles++;
 
+    /**
+     * Emulates one cycle: fetch, increment PC, decode and execute.
+     */
+    private void emulateCycle(){
 
-            waitForCompleteCycle(endTime,initTime); //Wait time to simulate real speed
+        frameCycles++;
+        activeEngine.step();
+    }
 
-            /** Print ms rate */
-            endTime = System.nanoTime();
-            emulatedCycles++;
-            passedTime += (endTime - initTime);
-            if(emulatedCycles== cpuFreqHz){
-                System.out.println("Time to emulate " + cpuFreqHz + " Hz: " + passedTime/1000000.0 + " ms");
-                emulatedCycles=0;
-                passedTime=0;
+
+    /**
+     * Actions done 60 times per second: screen refresh, DT decrement and ST decrement (and sound).
+     * A "parked" frame (see setStallDetection) leaves DT and ST as they are: the repeated state was taken after they
+     * were decremented and reloaded by the rom, so the frame it skips would leave them unchanged too.
+     */
+    private void refresh(boolean parked){
+
+        //4.- Update screen only every 1/60 seconds (Screen freq = 60Hz)
+        if(memory.drawFlag){
+            Screen screen = this.screen;
+            if(screen != null){
+                screen.paintScreen();
+            }
+            memory.drawFlag=false;
+        }
+        if(video != null){
+            video.frame(frame, memory);
+        }
+
+        //5.- Decrement DT
+        if(registerBank.DT > 0 && !parked){
+            registerBank.DT = (byte)(registerBank.DT - 0x01);
+        }
+
+        //6.- Decrement ST. Sound plays during the frames where ST is active
+        if(audio != null){
+            if(processingUnit.getAudioChanges() != sentAudioChanges){
+                sentAudioChanges = processingUnit.getAudioChanges();
+                audio.pattern(processingUnit.getAudioPattern(), processingUnit.getAudioRate());
             }
+            audio.frame(registerBank.ST > 0);
+        }
+        if(registerBank.ST > 0 && !parked){
+            registerBank.ST = (byte)(registerBank.ST - 0x01);
+        }
+
+        //7.- Input of the next frame
+        frame++;
+        if(input != null){
+            input.poll(frame);
+        }
 
+        //8.- Stats and changes requested by other threads
+        if(stats != null){
+            stats.frameEnd(System.nanoTime());
+        }
+        applyRequests();
+
+        if(frameHashes != null){
+            detectStall();
+        }
+
+        //9.- Flight Recorder events
+        if(frameEvent != null){
+            frameEvent.cycles = frameCycles;
+            frameEvent.commit();
+        }
+        updateFlightEvents();
+        cycles += frameCycles;
+        frameCycles = 0;
+    }
 
+
+    /**
+     * Reads which Flight Recorder events are enabled and begins the event of the next frame.
+     */
+    private void updateFlightEvents(){
+        if(!FlightEvents.isRecorderInitialized()){
+            //Nothing can be recording yet
+            frameEvent = null;
+            overrunEvents = false;
+            controlUnit.getProcessingUnit().setFlightEvents(false, false);
+            return;
+        }
+        if(FlightEvents.Types.FRAME.isEnabled()){
+            frameEvent = new FlightEvents.Frame();
+            frameEvent.begin();
         }
+        else{
+            frameEvent = null;
+        }
+        overrunEvents = FlightEvents.Types.PACING_OVERRUN.isEnabled();
+        controlUnit.getProcessingUnit().setFlightEvents(FlightEvents.Types.DRAW.isEnabled(),
+                FlightEvents.Types.KEY_WAIT_START.isEnabled() || FlightEvents.Types.KEY_WAIT_END.isEnabled());
     }
 
+
+    /**
+     * Applies the frequency and stats changes requested by other threads.
+     * Only volatile reads are done if nothing has changed.
+     */
+    private void applyRequests(){
+        int freqHz = requestedFreqHz;
+        if(freqHz != cpuFreqHz){
+            applyFrequency(freqHz);
+        }
+        boolean statsEnabled = statsRequested;
+        if(statsEnabled != (stats != null)){
+            stats = statsEnabled ? new ExecutionStats() : null;
+            controlUnit.setStats(stats);
+            selectEngine();
+        }
+    }
+
+
+    /**
+     * Records the state hash of the frame that has just ended. If it equals the one of a previous frame, with the same
+     * input and no random numbers since, the system will repeat the same frames until the input changes.
+     */
+    private void detectStall(){
+        int keys = keyboard.getKeys();
+        int pressEvents = keyboard.getPressEvents();
+        long randomDraws = processingUnit.getRandomDraws();
+        if(keys != lastKeys || pressEvents != lastPressEvents || randomDraws != lastRandomDraws){
+            frameHashCount = 0; //The past doesn't predict the future anymore
+            lastKeys = keys;
+            lastPressEvents = pressEvents;
+            lastRandomDraws = randomDraws;
+        }
+
+        long hash = getStateHash();
+        stallPeriod = 0;
+        int history = Math.min(frameHashCount, frameHashes.length);
+        for(int period = 1; period <= history; period++){
+            if(frameHashes[(frameHashCount - period) % frameHashes.length] == hash){
+                stallPeriod = period;
+                break;
+            }
+        }
+        frameHashes[frameHashCount % frameHashes.length] = hash;
+        frameHashCount++;
+    }
+
+
+    private void applyFrequency(int cpuFreqHz){
+        this.cpuFreqHz = cpuFreqHz;
+        this.periodNanos = 1000000000/ cpuFreqHz;
+        this.cyclesForRefreshing = cpuFreqHz /60;
+    }
+
+
+    private static void checkFrequency(int cpuFreqHz){
+        if(cpuFreqHz < 60){
+            throw new IllegalArgumentException("CPU frequency must be at least 60Hz: " + cpuFreqHz);
+        }
+    }
+
+
+    /**
+     * Changes the emulated CPU frequency. It can be called from any thread; the change is applied
+     * at the end of the current frame.
+     */
+    public void setCpuFreqHz(int cpuFreqHz){
+        checkFrequency(cpuFreqHz);
+        requestedFreqHz = cpuFreqHz;
+    }
+
+
+    /**
+     * Enables or disables the execution counters (see getStats()). It can be called from any thread; the change
+     * is applied at the end of the current frame. Enabling them again resets them.
+     */
+    public void setStatsEnabled(boolean enabled){
+        statsRequested = enabled;
+    }
+
+
+    /**
+     * Sets the source of key events (null for none), detaching the previous one.
+     * It is polled at the beginning of every frame, starting with the current one. A source set right after a boot
+     * restored from the cache (see setBootCache) is first polled for the frames skipped, as if it had been set at
+     * frame 0: the boot doesn't read the keys, but a script that presses one during it leaves the same keyboard as
+     * without cache.
+     * Must be called from the emulation thread, or before starting it.
+     */
+    public void setInput(InputSource input){
+        if(this.input != null){
+            this.input.detach();
+        }
+        this.input = input;
+        if(input != null){
+            input.attach(keyboard);
+            for(long skipped = frame == bootFrames ? 0 : frame; skipped < frame; skipped++){
+                input.poll(skipped);
+            }
+            input.poll(frame);
+        }
+    }
+
+
+    /**
+     * Sets where the sound is sent (null for no sound). I.e. a WavAudioRenderer for headless runs, or a
+     * BeeperMixer channel when running several systems. A replaced Sound is closed, releasing its line.
+     * Must be called from the emulation thread, or before starting it.
+     */
+    public void setAudioOutput(AudioOutput audio){
+        if(this.audio instanceof Sound && this.audio != audio){
+            ((Sound) this.audio).close();
+        }
+        this.audio = audio;
+        sentAudioChanges = 0; //Send the pattern again, if the rom has set one
+    }
+
+
+    /**
+     * Sets the destination of the screen (i.e. a FrameServer), besides the window, or null for none.
+     * Must be called from the emulation thread, or before starting it.
+     */
+    public void setVideoOutput(VideoOutput video){
+        this.video = video;
+    }
+
+
+    /**
+     * Enables the detection of stalls: states that repeat exactly, every 1 to "maxPeriod" frames, without input nor
+     * random numbers (i.e. a static game over screen, or an infinite loop), so the system will repeat them until the
+     * input changes. Headless runs (runFrame) park while the state repeats every frame, skipping the cycles of each
+     * frame. Batch hosts can end the run when isStalled. 0 disables it.
+     * Must be called from the emulation thread, or before starting it.
+     */
+    public void setStallDetection(int maxPeriod){
+        frameHashes = maxPeriod > 0 ? new long[maxPeriod] : null;
+        frameHashCount = 0;
+        stallPeriod = 0;
+    }
+
+    /**
+     * Returns true if stall detection is enabled and the system is repeating its state (see setStallDetection).
+     */
+    public boolean isStalled(){
+        return stallPeriod > 0;
+    }
+
+    /**
+     * Returns every how many frames the state repeats, or 0 if the system is not stalled.
+     */
+    public int getStallPeriod(){
+        return stallPeriod;
+    }
+
+    /**
+     * Returns the Zobrist hash of the whole state of the system (see StateHash), in O(1). Equal systems (or frames)
+     * have equal hashes.
+     */
+    public long getStateHash(){
+        return StateHash.of(memory, registerBank, processingUnit);
+    }
+
+
+    /**
+     * Returns an independent copy of this system, headless and without input nor outputs, i.e. to explore future
+     * states in a search. Memory pages are shared copy-on-write; registers, stack, screen, timers, keys and the
+     * random generator are copied. Forks of many states can be recycled with ForkPool.
+     * Engines set with setEngine are not copied: forks run the compiled rom, if any, or the control unit.
+     * Must be called from the emulation thread, or while it is stopped.
+     */
+    public Chip8 fork(){
+        Chip8 fork = new Chip8(cpuFreqHz, true);
+        forkInto(fork);
+        return fork;
+    }
+
+    /**
+     * Makes "target", a headless system (i.e. a fork that is not used anymore), a fork of this one (see fork).
+     */
+    public void forkInto(Chip8 target){
+        if(!target.headless){
+            throw new IllegalArgumentException("Forks must be headless");
+        }
+        if(target.cpuFreqHz != cpuFreqHz){
+            target.applyFrequency(cpuFreqHz);
+            target.requestedFreqHz = cpuFreqHz;
+        }
+
+        //Engine first: creating it (or starting it again) resets the watched writes of the memory, copied below
+        target.rom = rom;
+        if(engine instanceof CompiledEngine && rom != null){
+            if(target.engine != null && target.engine.getClass() == engine.getClass()){
+                ((CompiledEngine) target.engine).rewatch();
+            }
+            else{
+                target.engine = CompiledEngine.create(rom, target.memory, target.registerBank, target.processingUnit);
+            }
+        }
+        else{
+            target.engine = null;
+            target.memory.watch(null);
+        }
+        target.selectEngine();
+
+        target.memory.copyFrom(memory);
+        RegisterBank rb = target.registerBank;
+        System.arraycopy(registerBank.V, 0, rb.V, 0, rb.V.length);
+        rb.I = registerBank.I;
+        rb.PC = registerBank.PC;
+        rb.SP = registerBank.SP;
+        rb.DT = registerBank.DT;
+        rb.ST = registerBank.ST;
+        target.keyboard.copyFrom(keyboard);
+        target.processingUnit.copyFrom(processingUnit);
+        target.frame = frame;
+        target.frameCycles = frameCycles;
+        target.cycles = cycles;
+
+        if(frameHashes == null){
+            target.frameHashes = null;
+        }
+        else{
+            if(target.frameHashes == null || target.frameHashes.length != frameHashes.length){
+                target.frameHashes = new long[frameHashes.length];
+            }
+            System.arraycopy(frameHashes, 0, target.frameHashes, 0, frameHashes.length);
+        }
+        target.frameHashCount = frameHashCount;
+        target.stallPeriod = stallPeriod;
+        target.lastKeys = lastKeys;
+        target.lastPressEvents = lastPressEvents;
+        target.lastRandomDraws = lastRandomDraws;
+    }
+
+
+    /**
+     * Sets the machine the roms are written for (see Machine). Call it before loadGame.
+     * By default, the one of -Dchip8.machine, or CHIP-8.
+     */
+    public void setMachine(Machine machine){
+        setMachine(machine, memory, processingUnit);
+    }
+
+    /**
+     * Sets "machine" in the memory and processing unit of a system (also the ones of DifferentialHarness).
+     */
+    static void setMachine(Machine machine, Memory memory, ProcessingUnit processingUnit){
+        processingUnit.setMachine(machine);
+        memory.setLargeSprites(machine != Machine.CHIP8);
+        memory.setSize(machine == Machine.XOCHIP ? Memory.XO_CHIP_SIZE : Memory.SIZE);
+    }
+
+    public Machine getMachine(){
+        return processingUnit.getMachine();
+    }
+
+    /**
+     * Sets the quirk profile of the roms (see Quirks), installing its handlers in the processing unit. Call it before
+     * loadGame. By default, the one of -Dchip8.quirks, or Quirks.DEFAULT.
+     */
+    public void setQuirks(Quirks quirks){
+        processingUnit.setQuirks(quirks);
+    }
+
+    public Quirks getQuirks(){
+        return processingUnit.getQuirks();
+    }
+
+
+    /**
+     * Sets the cache used by loadGame to skip the boot of roms (see BootCache), or null to boot them normally.
+     * By default, the one of -Dchip8.bootCache=DIRECTORY.
+     */
+    public void setBootCache(BootCache bootCache){
+        this.bootCache = bootCache;
+    }
+
+    /**
+     * Sets the number of emulated frames (used when restoring a Snapshot).
+     */
+    void setFrame(long frame){
+        this.frame = frame;
+    }
+
+
+    /**
+     * Sets the engine that executes the instructions, built over the components of this system, i.e.
+     * new SwitchEngine(chip8.getMemory(), chip8.getRegisterBank(), chip8.getProcessingUnit()), or one built by the
+     * factory of its name (see Engine.factory).
+     * Only the control unit (the default engine, or null) updates the execution stats and the profiler, so it
+     * executes the instructions while they are enabled.
+     * Must be called from the emulation thread, or before starting it.
+     */
+    public void setEngine(Engine engine){
+        this.engine = engine == controlUnit ? null : engine;
+        selectEngine();
+    }
+
+    private void selectEngine(){
+        activeEngine = engine == null || stats != null || profiling ? controlUnit : engine;
+    }
+
+
+    /**
+     * Seeds the random generator of Cxkk, so runs with the same input are reproducible.
+     */
+    public void setRandomSeed(long seed){
+        processingUnit.setRandomSeed(seed);
+    }
+
+
+    /**
+     * Sets the hot-address profiler to update while running (null to disable it).
+     * Must be called from the emulation thread, or before starting it.
+     */
+    public void setProfiler(Profiler profiler){
+        controlUnit.setProfiler(profiler);
+        profiling = profiler != null;
+        selectEngine();
+    }
+
+
+    /**
+     * Returns the execution counters, or null if they are disabled.
+     */
+    public ExecutionStats getStats(){
+        return stats;
+    }
+
+
+    public Memory getMemory(){
+        return memory;
+    }
+
+    public RegisterBank getRegisterBank(){
+        return registerBank;
+    }
+
+    public ControlUnit getControlUnit(){
+        return controlUnit;
+    }
+
+    public ProcessingUnit getProcessingUnit(){
+        return processingUnit;
+    }
+
+    public Engine getEngine(){
+        return activeEngine;
+    }
+
+    public Keyboard getKeyboard(){
+        return keyboard;
+    }
+
+    public long getFrame(){
+        return frame;
+    }
+
+    /**
+     * Returns the number of instructions executed since the system was created (cycles skipped waiting for a key
+     * are not counted).
+     */
+    public long getCycles(){
+        return cycles + frameCycles;
+    }
+
+    public int getCpuFreqHz(){
+        return requestedFreqHz;
+    }
+
+
     /**
      * Given the initTime and endTime of the current cycle, it waits
      * until the "periodNanos" time passed. Calling it at the end of a cycle
      * makes it last like a cycle in the real machine.
      * It is a while loop with sleep(0) to get more accuracy than only sleep, and to prevent
      * using CPU too much time.
+     * If the cycle already took longer than "periodNanos", a PacingOverrun event is emitted.
      */
     private void waitForCompleteCycle(long endTime, long initTime){
 
         long nanosToWait= periodNanos - (endTime - initTime);
+        if(nanosToWait < 0 && overrunEvents){
+            FlightEvents.PacingOverrun event = new FlightEvents.PacingOverrun();
+            event.periodNanos = periodNanos;
+            event.overrunNanos = -nanosToWait;
+            event.commit();
+        }
         long initNanos = System.nanoTime();
         long targetNanos = initNanos + nanosToWait;
         while(System.nanoTime()<targetNanos){
@@ -0,0 +1,40 @@
+package chip8;
+
+import java.util.Map;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Management interface of a running Chip8 system, published over JMX (JConsole or any JMX client).
+ * Counters are only collected while stats are enabled; otherwise they read 0.
+ */
+public interface Chip8MXBean {
+
+    boolean isStatsEnabled();
+
+    void setStatsEnabled(boolean enabled);
+
+    /** Emulated CPU frequency. Changes are applied at the end of the current frame. */
+    int getTargetFrequencyHz();
+
+    void setTargetFrequencyHz(int hz);
+
+    long getInstructions();
+
+    /** Executed instructions by opcode class, keyed "0nnn", "1nnn"... "Fnnn". */
+    Map<String,Long> getOpcodeCounts();
+
+    long getFrames();
+
+    long getDraws();
+
+    long getLastFrameTimeNanos();
+
+    long getAverageFrameTimeNanos();
+
+    long getCyclesPerFrame();
+
+    long getWaitKeyStallNanos();
+
+    /** Every how many frames the state repeats without input (see Chip8.setStallDetection), 0 if not stalled. */
+    int getStallPeriod();
+}
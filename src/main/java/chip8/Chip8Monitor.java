@@ -0,0 +1,110 @@
+package chip8;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Chip8MXBean implementation of a Chip8 system.
+ * Usage: Chip8Monitor.register(chip8, "name") publishes it as chip8:type=Chip8,name=name.
+ */
+public class Chip8Monitor implements Chip8MXBean {
+
+    private Chip8 chip8;
+
+    public Chip8Monitor(Chip8 chip8){
+        this.chip8 = chip8;
+    }
+
+    /**
+     * Registers a monitor of "chip8" in the platform MBean server and returns its name.
+     * @throws JMException if it can't be registered (i.e. the name is already in use).
+     */
+    public static ObjectName register(Chip8 chip8, String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("chip8:type=Chip8,name=" + ObjectName.quote(name));
+        server.registerMBean(new Chip8Monitor(chip8), objectName);
+        return objectName;
+    }
+
+    @Override
+    public boolean isStatsEnabled() {
+        return chip8.getStats() != null;
+    }
+
+    @Override
+    public void setStatsEnabled(boolean enabled) {
+        chip8.setStatsEnabled(enabled);
+    }
+
+    @Override
+    public int getTargetFrequencyHz() {
+        return chip8.getCpuFreqHz();
+    }
+
+    @Override
+    public void setTargetFrequencyHz(int hz) {
+        chip8.setCpuFreqHz(hz);
+    }
+
+    @Override
+    public long getInstructions() {
+        ExecutionStats stats = chip8.getStats();
+        return stats == null ? 0 : stats.getInstructions();
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeCounts() {
+        ExecutionStats stats = chip8.getStats();
+        Map<String,Long> counts = new TreeMap<String,Long>();
+        for(int nibble = 0; nibble < 16; nibble++){
+            counts.put(String.format("%Xnnn",nibble), stats == null ? 0 : stats.getOpcodeCount(nibble));
+        }
+        return counts;
+    }
+
+    @Override
+    public long getFrames() {
+        ExecutionStats stats = chip8.getStats();
+        return stats == null ? 0 : stats.getFrames();
+    }
+
+    @Override
+    public long getDraws() {
+        ExecutionStats stats = chip8.getStats();
+        return stats == null ? 0 : stats.getDraws();
+    }
+
+    @Override
+    public long getLastFrameTimeNanos() {
+        ExecutionStats stats = chip8.getStats();
+        return stats == null ? 0 : stats.getLastFrameNanos();
+    }
+
+    @Override
+    public long getAverageFrameTimeNanos() {
+        ExecutionStats stats = chip8.getStats();
+        return stats == null ? 0 : stats.getAverageFrameNanos();
+    }
+
+    @Override
+    public long getCyclesPerFrame() {
+        ExecutionStats stats = chip8.getStats();
+        return stats == null ? 0 : stats.getLastFrameCycles();
+    }
+
+    @Override
+    public long getWaitKeyStallNanos() {
+        ExecutionStats stats = chip8.getStats();
+        return stats == null ? 0 : stats.getWaitKeyNanos();
+    }
+
+    @Override
+    public int getStallPeriod() {
+        return chip8.getStallPeriod();
+    }
+}
@@ -0,0 +1,193 @@
+package chip8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Base of the engines generated by RomCompiler: the code of a rom translated to Java, one case for each instruction
+ * reachable from 0x200 and one for each basic block (straight-line instructions that end in a jump, call, return,
+ * skip, Fx0A or a memory write).
+ *
+ * Addresses without compiled code (i.e. computed jumps with Bnnn to unknown targets) and instructions written since
+ * the rom was loaded (self-modifying code, detected with Memory.watch) are executed by a SwitchEngine.
+ * A block is only executed when all its instructions fit in the cycles left, so timers and input are seen at the same
+ * instruction counts as with the reference engine.
+ */
+public abstract class CompiledEngine implements Engine {
+
+    //Compiled roms found in the classpath
+    private static List<CompiledRom> compiledRoms;
+
+    protected final Memory memory;
+    protected final RegisterBank registerBank;
+    protected final ProcessingUnit pu;
+    protected final byte[] V;
+
+    private final Engine interpreter;
+    private final int[] instructions;  //Addresses of the compiled instructions
+    private final int[] blockStarts;   //First address and length of each block
+    private final int[] blockLengths;
+    private final int[] blockAt;       //Length of the block that starts at each address, 0 if none (or stale)
+    private final boolean[] stale;     //Compiled instructions written since loaded
+    private final boolean[] code;      //Addresses of the compiled instructions, watched for writes
+    private int seenWrites;
+
+    protected CompiledEngine(Memory memory, RegisterBank registerBank, ProcessingUnit pu, int[] instructions,
+                             int[] blocks){
+        this.memory = memory;
+        this.registerBank = registerBank;
+        this.pu = pu;
+        this.V = registerBank.V;
+        this.interpreter = new SwitchEngine(memory, registerBank, pu);
+        this.instructions = instructions;
+
+        this.blockStarts = new int[blocks.length / 2];
+        this.blockLengths = new int[blocks.length / 2];
+        this.blockAt = new int[4096];
+        for(int i = 0; i < blockStarts.length; i++){
+            blockStarts[i] = blocks[2 * i];
+            blockLengths[i] = blocks[2 * i + 1];
+            blockAt[blockStarts[i]] = blockLengths[i];
+        }
+
+        this.stale = new boolean[4096];
+        this.code = new boolean[4096];
+        for(int address: instructions){
+            code[address] = true;
+            code[address + 1] = true;
+        }
+        memory.watch(code);
+    }
+
+    /**
+     * Executes the compiled instruction at "pc". Returns false if there is no compiled instruction there.
+     */
+    protected abstract boolean execute(int pc);
+
+    /**
+     * Executes the compiled block that starts at "pc".
+     */
+    protected abstract void executeBlock(int pc);
+
+
+    @Override
+    public void step(){
+        if(memory.getWatchedWrites() != seenWrites){
+            invalidate();
+        }
+        int pc = registerBank.PC & 0xFFFF;
+        if(pc >= 4096 || stale[pc] || !execute(pc)){
+            interpreter.step();
+        }
+    }
+
+    @Override
+    public int run(int cycles){
+        int executed = 0;
+        do{
+            if(memory.getWatchedWrites() != seenWrites){
+                invalidate();
+            }
+            int pc = registerBank.PC & 0xFFFF;
+            int length = pc < 4096 ? blockAt[pc] : 0;
+            if(length > 0 && length <= cycles - executed){
+                executeBlock(pc);
+                executed += length;
+            }
+            else{
+                if(pc >= 4096 || stale[pc] || !execute(pc)){
+                    interpreter.step();
+                }
+                executed++;
+            }
+        } while(executed < cycles && !pu.isWaitingForKey());
+        return executed;
+    }
+
+    /**
+     * Starts again as created: every instruction compiled and no writes seen (i.e. a recycled fork, see Chip8.fork).
+     */
+    void rewatch(){
+        Arrays.fill(stale, false);
+        for(int i = 0; i < blockStarts.length; i++){
+            blockAt[blockStarts[i]] = blockLengths[i];
+        }
+        seenWrites = 0;
+        memory.watch(code);
+    }
+
+    //Moves the written instructions, and the blocks that contain them, to the interpreter
+    private void invalidate(){
+        seenWrites = memory.getWatchedWrites();
+        for(int address: instructions){
+            if(memory.isWritten(address) || memory.isWritten(address + 1)){
+                stale[address] = true;
+            }
+        }
+        for(int i = 0; i < blockStarts.length; i++){
+            for(int j = 0; j < blockLengths[i]; j++){
+                if(stale[blockStarts[i] + 2 * j]){
+                    blockAt[blockStarts[i]] = 0;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the engine compiled for "rom", built over the components of a system where it is loaded, or null if
+     * the rom has not been compiled (or its image differs from the compiled one).
+     */
+    public static CompiledEngine create(byte[] rom, Memory memory, RegisterBank registerBank, ProcessingUnit pu){
+        long hash = hash(rom, 0, rom.length);
+        for(CompiledRom compiled: compiledRoms()){
+            if(compiled.getLength() == rom.length && compiled.getHash() == hash){
+                return compiled.create(memory, registerBank, pu);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the engine compiled for the rom loaded in "memory" (at 0x200), or null if there is none.
+     */
+    public static CompiledEngine create(Memory memory, RegisterBank registerBank, ProcessingUnit pu){
+        byte[] image = new byte[4096 - 0x200];
+        for(int i = 0; i < image.length; i++){
+            image[i] = memory.get((short)(0x200 + i));
+        }
+        for(CompiledRom compiled: compiledRoms()){
+            if(compiled.getHash() == hash(image, 0, compiled.getLength())){
+                return compiled.create(memory, registerBank, pu);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the compiled roms found in the classpath.
+     */
+    public static synchronized List<CompiledRom> compiledRoms(){
+        if(compiledRoms == null){
+            compiledRoms = new ArrayList<CompiledRom>();
+            for(CompiledRom compiled: ServiceLoader.load(CompiledRom.class)){
+                compiledRoms.add(compiled);
+            }
+        }
+        return compiledRoms;
+    }
+
+    /**
+     * FNV-1a hash of "length" bytes of "bytes".
+     */
+    public static long hash(byte[] bytes, int offset, int length){
+        long hash = 0xcbf29ce484222325L;
+        for(int i = offset; i < offset + length; i++){
+            hash = (hash ^ (bytes[i] & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,29 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * A rom compiled ahead of time by RomCompiler. Compiled roms are found with ServiceLoader
+ * (META-INF/services/chip8.CompiledRom), see CompiledEngine.create.
+ */
+public interface CompiledRom {
+
+    /**
+     * Returns the name of the compiled rom (its file in the roms folder).
+     */
+    String getName();
+
+    /**
+     * Returns the hash of the compiled image (see CompiledEngine.hash), to check that it is the loaded one.
+     */
+    long getHash();
+
+    /**
+     * Returns the size of the compiled image, in bytes.
+     */
+    int getLength();
+
+    /**
+     * Creates the engine over the components of a system where the rom is loaded.
+     */
+    CompiledEngine create(Memory memory, RegisterBank registerBank, ProcessingUnit pu);
+}
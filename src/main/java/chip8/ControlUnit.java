@@ -3,9 +3,9 @@ package chip8;
 /**
  * @author Ismael Rodríguez, ismaro3
  * Control unit of the CPU.
- * It manages fetch, decode and execute phase.
+ * It manages fetch, decode and execute phase. It is the reference Engine.
  */
-public class ControlUnit {
+public class ControlUnit implements Engine {
 
     private RegisterBank registerBank;
     private Memory memory;
@@ -13,6 +13,12 @@ public class ControlUnit {
 
     private short currentInstruction;
 
+    //Execution counters. Null when stats are disabled.
+    private ExecutionStats stats;
+
+    //Hot-address profiler. Null when profiling is disabled.
+    private Profiler profiler;
+
 
     public ControlUnit(RegisterBank registerBank, Memory memory, Keyboard keyboard){
         this.registerBank = registerBank;
@@ -21,6 +27,17 @@ public class ControlUnit {
     }
 
 
+    /**
+     * Executes one instruction: fetch, increment PC, decode and execute.
+     */
+    @Override
+    public void step(){
+        fetch();
+        incrementPC(); //Before executing, so if a JMP is done, it will be overriden.
+        decodeAndExecute();
+    }
+
+
     /**
      * Fetchs current instruction from memory and stores it in currentInstruction.
      */
@@ -33,6 +50,10 @@ public class ControlUnit {
         //0x00FF is neccesary or Java puts FF instead of 00's !!
         currentInstruction =  (short)((short) (mostSignificantByte << 8) | (lessSignificantByte & 0x00FF));
 
+        if(profiler != null){
+            profiler.instruction(pc,currentInstruction);
+        }
+
     }
 
 
@@ -48,7 +69,11 @@ public class ControlUnit {
         byte y = extractY(currentInstruction);
         byte n = extractN(currentInstruction);
         short nnn = extractNNN(currentInstruction);
-        
+
+        if(stats != null){
+            stats.countInstruction(currentInstruction);
+        }
+
         if(matches(currentInstruction,0,0,0xE,0)){
             pu.cls();
             return;
@@ -58,6 +83,41 @@ public class ControlUnit {
             pu.ret();
             return;
         }
+        //00Cn
+        else if(matches(currentInstruction,0,0,0xC,null)){
+            pu.scrollDown(n);
+            return;
+        }
+        //00Dn
+        else if(matches(currentInstruction,0,0,0xD,null)){
+            pu.scrollUp(n);
+            return;
+        }
+        //00FB
+        else if(matches(currentInstruction,0,0,0xF,0xB)){
+            pu.scrollRight();
+            return;
+        }
+        //00FC
+        else if(matches(currentInstruction,0,0,0xF,0xC)){
+            pu.scrollLeft();
+            return;
+        }
+        //00FD
+        else if(matches(currentInstruction,0,0,0xF,0xD)){
+            pu.exit();
+            return;
+        }
+        //00FE
+        else if(matches(currentInstruction,0,0,0xF,0xE)){
+            pu.lowResolution();
+            return;
+        }
+        //00FF
+        else if(matches(currentInstruction,0,0,0xF,0xF)){
+            pu.highResolution();
+            return;
+        }
         //1nnn
         else if(matches(currentInstruction,1,null,null,null)){
             pu.jp(nnn);
@@ -83,6 +143,16 @@ public class ControlUnit {
             pu.seRegister(x,y);
             return;
         }
+        //5xy2
+        else if(matches(currentInstruction,5,null,null,2)){
+            pu.saveRegisterRange(x,y);
+            return;
+        }
+        //5xy3
+        else if(matches(currentInstruction,5,null,null,3)){
+            pu.loadRegisterRange(x,y);
+            return;
+        }
         //6xkk
         else if(matches(currentInstruction,6,null,null,null)){
             pu.ldByteOnRegister(x,extractKK(currentInstruction));
@@ -118,13 +188,13 @@ public class ControlUnit {
                     pu.sub(x,y);
                     return;
                 case 0x6: //8xy6
-                    pu.shr(x);
+                    pu.shr(x,y);
                     return;
                 case 0x7: //8xy7
                     pu.subn(x,y);
                     return;
                 case 0xE: //8xyE
-                    pu.shl(x);
+                    pu.shl(x,y);
                     return;
                 default:  //Invalid instruction
 
@@ -171,8 +241,23 @@ public class ControlUnit {
         //Fx...
         else if(matches(currentInstruction,0xF,null,null,null)){
 
+            //F000
+            if(matches(currentInstruction,0xF,0x0,0x0,0x0)){
+                pu.loadLongAddressOnI();
+                return;
+            }
+            //Fn01
+            else if(matches(currentInstruction,0xF,null,0x0,0x1)){
+                pu.selectPlanes(x);
+                return;
+            }
+            //F002
+            else if(matches(currentInstruction,0xF,0x0,0x0,0x2)){
+                pu.loadAudioPattern();
+                return;
+            }
             //Fx07
-            if(matches(currentInstruction,0xF,null,0x0,0x7)){
+            else if(matches(currentInstruction,0xF,null,0x0,0x7)){
 
                 pu.loadDTOnRegister(x);
                 return;
@@ -204,6 +289,16 @@ public class ControlUnit {
                 pu.loadHexadecimalSpriteOnI(x);
                 return;
             }
+            //Fx30
+            else if(matches(currentInstruction,0xF,null,0x3,0x0)){
+                pu.loadLargeHexadecimalSpriteOnI(x);
+                return;
+            }
+            //Fx3A
+            else if(matches(currentInstruction,0xF,null,0x3,0xA)){
+                pu.loadRegisterOnPitch(x);
+                return;
+            }
             //Fx33
             else if(matches(currentInstruction,0xF,null,0x3,0x3)){
                 pu.loadBCDtoMemory(x);
@@ -220,6 +315,16 @@ public class ControlUnit {
 
                 return;
             }
+            //Fx75
+            else if(matches(currentInstruction,0xF,null,0x7,0x5)){
+                pu.saveFlags(x);
+                return;
+            }
+            //Fx85
+            else if(matches(currentInstruction,0xF,null,0x8,0x5)){
+                pu.loadFlags(x);
+                return;
+            }
 
         }
             //Incorrect operation
@@ -230,6 +335,26 @@ public class ControlUnit {
     }
 
 
+    public ProcessingUnit getProcessingUnit(){
+        return pu;
+    }
+
+    /**
+     * Sets the execution counters to update (null to disable them).
+     */
+    public void setStats(ExecutionStats stats){
+        this.stats = stats;
+    }
+
+    /**
+     * Sets the profiler to update (null to disable it).
+     */
+    public void setProfiler(Profiler profiler){
+        this.profiler = profiler;
+        pu.setProfiler(profiler);
+    }
+
+
     /**
      * Increments PC by 2 (Each instruction is 2-byte log)
      */
@@ -0,0 +1,738 @@
+package chip8;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Runs the reference engine (ControlUnit) and a candidate engine in lockstep, over two identical systems, and
+ * reports the first difference with the smallest input that still reproduces it.
+ *
+ * The candidate runs up to the end of each frame at once (Engine.run, so compiled engines execute whole blocks) and
+ * the reference the same number of instructions. Registers (V, I, PC, SP, DT, ST and the Fx0A wait) are compared
+ * after every run, and memory, stack and screen every "block" instructions and at the end. When they differ, the
+ * input is replayed one instruction at a time, comparing everything after each one, to find the exact one.
+ * A run ends after its cycles, when PC leaves the program, when an engine throws (both must throw the same), or before
+ * an unknown instruction or I leaving memory (both are logged and ignored, which would flood the output).
+ * Timers are decremented and keys change like in a real system: every CYCLES_PER_FRAME cycles.
+ * Both systems run the Machine and Quirks of the input. The campaign runs every rom with each combination of them, and
+ * the random programs take the combinations in turn, with the SUPER-CHIP and XO-CHIP instructions of their machine.
+ *
+ * Arguments (all optional):
+ *   --engine NAME      Candidate engine: switch or aot (default switch).
+ *   --seed N           Seed of the campaign (default random).
+ *   --runs N           Random programs (default 20000).
+ *   --length N         Instructions of each random program (default 64).
+ *   --steps N          Cycles of each random program (default 2000).
+ *   --rom-steps N      Cycles of each rom with each machine and quirks, 0 to skip them (default 2000000).
+ *   --block N          Instructions between full comparisons, 1 to run one at a time (default 256).
+ *   ROM...             Roms to run (default all the roms of the roms folder).
+ */
+public class DifferentialHarness {
+
+    public static final int CYCLES_PER_FRAME = 8;  //500Hz
+    private static final int FRAMES_PER_KEYS = 4;  //Frames between key changes
+    private static final int MAX_I = 0xFFF - 16;   //Fx33, Fx55, Fx65 and Dxyn access up to I+15
+    private static final int MAX_LARGE_I = 0xFFF - 32; //16x16 sprites (Dxy0) read up to I+31. XO-CHIP addresses wrap
+
+    //Last nibble of the 8xy_ instructions and last byte of the Fx__ ones
+    private static final int[] ALU_OPERATIONS = {0x0, 0x1, 0x2, 0x3, 0x4, 0x5, 0x6, 0x7, 0xE};
+    private static final int[] F_OPERATIONS = {0x07, 0x0A, 0x15, 0x18, 0x1E, 0x29, 0x33, 0x55, 0x65};
+
+    //Instructions of each kind in random programs (see randomProgram)
+    private static final int CHIP8_KINDS = 34;
+    private static final int SCHIP_KINDS = 7;
+    private static final int XO_CHIP_KINDS = 7;
+
+    /**
+     * Input of a run: a program loaded at 0x200, the seed of Cxkk and of the keys, the cycles to run, and the machine
+     * and quirks of both systems.
+     */
+    public static class Input {
+
+        public final String name;
+        public final byte[] program;
+        public final long seed;
+        public final int cycles;
+        public final int keys; //Mask of pressed keys during the whole run, or -1 to change them from the seed
+        public final Machine machine;
+        public final Quirks quirks;
+
+        /**
+         * Input run by a CHIP-8 system with the default quirks.
+         */
+        public Input(String name, byte[] program, long seed, int cycles, int keys){
+            this(name, program, seed, cycles, keys, Machine.CHIP8, Quirks.DEFAULT);
+        }
+
+        public Input(String name, byte[] program, long seed, int cycles, int keys, Machine machine, Quirks quirks){
+            this.name = name;
+            this.program = program;
+            this.seed = seed;
+            this.cycles = cycles;
+            this.keys = keys;
+            this.machine = machine;
+            this.quirks = quirks;
+        }
+
+        Input withProgram(String name, byte[] program, int keys){
+            return new Input(name, program, seed, cycles, keys, machine, quirks);
+        }
+
+        Input withCycles(int cycles){
+            return new Input(name, program, seed, cycles, keys, machine, quirks);
+        }
+
+        /**
+         * Returns the keys pressed during frame "frame".
+         */
+        int keysOf(int frame){
+            if(keys >= 0){
+                return keys;
+            }
+            long hash = mix(seed + frame / FRAMES_PER_KEYS);
+            return (int)(hash & (hash >>> 16) & 0xFFFF); //Every key pressed 1/4 of the time
+        }
+    }
+
+
+    /**
+     * First difference between the engines.
+     */
+    public static class Divergence {
+
+        public final Input input;          //Smallest input found that reproduces it
+        public final int cycle;            //Cycle of the instruction after which the systems differ
+        public final short pc;             //Address of that instruction
+        public final short instruction;
+        public final String difference;
+
+        Divergence(Input input, int cycle, short pc, short instruction, String difference){
+            this.input = input;
+            this.cycle = cycle;
+            this.pc = pc;
+            this.instruction = instruction;
+            this.difference = difference;
+        }
+
+        /**
+         * Returns a report of the divergence, with the listing of the input (if it is small).
+         */
+        public String report(){
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("Divergence in %s after cycle %d, at 0x%03X %04X %s: %s%n", input.name, cycle,
+                    pc & 0xFFFF, instruction & 0xFFFF, Disassembler.disassemble(instruction), difference));
+            out.append(String.format("Seed 0x%X, keys %s, %d cycles, machine %s, quirks %s%n", input.seed,
+                    input.keys >= 0 ? String.format("0x%04X", input.keys) : "from the seed", cycle + 1,
+                    input.machine, input.quirks));
+            if(input.program.length <= 512){
+                for(int i = 0; i + 1 < input.program.length; i += 2){
+                    short inst = (short)(((input.program[i] & 0xFF) << 8) | (input.program[i + 1] & 0xFF));
+                    out.append(String.format("  0x%03X  %04X  %s%n", 0x200 + i, inst & 0xFFFF,
+                            Disassembler.disassemble(inst)));
+                }
+            }
+            return out.toString();
+        }
+    }
+
+
+    private Engine.Factory candidate;
+    private int block;
+    private long executed; //Instructions executed by each engine
+
+    public DifferentialHarness(Engine.Factory candidate, int block){
+        this.candidate = candidate;
+        this.block = block;
+    }
+
+    /**
+     * Returns the instructions executed by each engine so far.
+     */
+    public long getExecuted(){
+        return executed;
+    }
+
+
+    /**
+     * Runs "input" in both engines. Returns null if they behave the same, or the minimized divergence.
+     */
+    public Divergence check(Input input){
+        Divergence divergence = run(input, block);
+        if(divergence == null){
+            return null;
+        }
+        Divergence exact = run(input, 1);
+        return exact != null ? minimize(exact) : divergence; //Only when running whole blocks
+    }
+
+    /**
+     * Runs "input" with every combination of Machine and Quirks. Returns the first divergence (minimized), or null if
+     * there is none.
+     */
+    public Divergence checkAll(Input input){
+        for(Machine machine: Machine.values()){
+            for(Quirks quirks: Quirks.values()){
+                Divergence divergence = check(new Input(input.name, input.program, input.seed, input.cycles,
+                        input.keys, machine, quirks));
+                if(divergence != null){
+                    return divergence;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks "runs" random programs of "length" instructions, running each one "cycles" cycles. Consecutive programs
+     * take each combination of Machine and Quirks in turn, and use the instructions of their machine.
+     * Returns the first divergence (minimized), or null if there is none.
+     */
+    public Divergence fuzz(long seed, int runs, int length, int cycles){
+        Random random = new Random(seed);
+        Machine[] machines = Machine.values();
+        Quirks[] quirks = Quirks.values();
+        for(int run = 0; run < runs; run++){
+            Machine machine = machines[run % machines.length];
+            Quirks profile = quirks[run / machines.length % quirks.length];
+            Input input = new Input("random program " + run, randomProgram(random, length, machine),
+                    random.nextLong(), cycles, -1, machine, profile);
+            Divergence divergence = check(input);
+            if(divergence != null){
+                return divergence;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns a program of "length" valid CHIP-8 instructions with random operands. Jumps and calls go to
+     * instructions of the program.
+     */
+    public static byte[] randomProgram(Random random, int length){
+        return randomProgram(random, length, Machine.CHIP8);
+    }
+
+    /**
+     * Returns a program of "length" words of valid instructions of "machine" with random operands: the CHIP-8 ones,
+     * plus the SUPER-CHIP ones but 00FD (which stops the program) in SCHIP, plus the XO-CHIP ones in XOCHIP. Jumps and
+     * calls go to words of the program.
+     */
+    public static byte[] randomProgram(Random random, int length, Machine machine){
+        int kinds = CHIP8_KINDS;
+        if(machine != Machine.CHIP8){
+            kinds += SCHIP_KINDS;
+        }
+        if(machine == Machine.XOCHIP){
+            kinds += XO_CHIP_KINDS;
+        }
+        byte[] program = new byte[length * 2];
+        for(int i = 0; i < length; i++){
+            int x = random.nextInt(16) << 8;
+            int y = random.nextInt(16) << 4;
+            int kk = random.nextInt(256);
+            int target = 0x200 + 2 * random.nextInt(length);
+            int inst;
+            int kind = random.nextInt(kinds);
+            if(kind < 9){
+                inst = 0x8000 | x | y | ALU_OPERATIONS[kind];
+            }
+            else if(kind < 18){
+                inst = 0xF000 | x | F_OPERATIONS[kind - 9];
+            }
+            else{
+                switch(kind){
+                    case 18: inst = 0x00E0; break;
+                    case 19: inst = 0x00EE; break;
+                    case 20: inst = 0x1000 | target; break;
+                    case 21: inst = 0x2000 | target; break;
+                    case 22: inst = 0x3000 | x | kk; break;
+                    case 23: inst = 0x4000 | x | kk; break;
+                    case 24: inst = 0x5000 | x | y; break;
+                    case 25: inst = 0x6000 | x | kk; break;
+                    case 26: inst = 0x7000 | x | kk; break;
+                    case 27: inst = 0x9000 | x | y; break;
+                    case 28: inst = 0xA000 | random.nextInt(0xF00); break;
+                    case 29: inst = 0xB000 | target; break;
+                    case 30: inst = 0xC000 | x | kk; break;
+                    case 31: inst = 0xD000 | x | y | random.nextInt(16); break;
+                    case 32: inst = 0xE09E | x; break;
+                    case 33: inst = 0xE0A1 | x; break;
+                    //SUPER-CHIP (Dxy0 is case 31 with n = 0)
+                    case 34: inst = 0x00C0 | random.nextInt(16); break;
+                    case 35: inst = 0x00FB; break;
+                    case 36: inst = 0x00FC; break;
+                    case 37: inst = random.nextBoolean() ? 0x00FE : 0x00FF; break;
+                    case 38: inst = 0xF030 | x; break;
+                    case 39: inst = 0xF075 | x; break;
+                    case 40: inst = 0xF085 | x; break;
+                    //XO-CHIP
+                    case 41: inst = 0xF001 | x; break;
+                    case 42: inst = 0xF03A | x; break;
+                    case 43: inst = 0x00D0 | random.nextInt(16); break;
+                    case 44: inst = 0x5002 | x | y; break;
+                    case 45: inst = 0x5003 | x | y; break;
+                    case 46: inst = 0xF002; break;
+                    default:
+                        if(i + 1 < length){
+                            //F000 nnnn: the address is the next word
+                            int address = random.nextInt(0x10000);
+                            program[2 * i] = (byte) 0xF0;
+                            program[2 * i + 1] = 0;
+                            i++;
+                            inst = address;
+                        }
+                        else{
+                            inst = 0xF002;
+                        }
+                        break;
+                }
+            }
+            program[2 * i] = (byte)(inst >>> 8);
+            program[2 * i + 1] = (byte) inst;
+        }
+        return program;
+    }
+
+
+    /**
+     * Runs "input" in lockstep, comparing everything every "block" instructions. Returns null if there is no
+     * difference.
+     */
+    private Divergence run(Input input, int block){
+        Lockstep lockstep = new Lockstep(input);
+        long nextFull = block;
+        try{
+            while(lockstep.cycle < input.cycles){
+                boolean all = lockstep.executed + CYCLES_PER_FRAME >= nextFull;
+                if(all){
+                    nextFull = lockstep.executed + block;
+                }
+                //In block mode the candidate runs up to the end of the frame at once (i.e. compiled blocks)
+                int budget = block == 1 ? 1 : Math.min(CYCLES_PER_FRAME - lockstep.cycle % CYCLES_PER_FRAME,
+                        input.cycles - lockstep.cycle);
+                String difference = lockstep.advance(all, budget);
+                if(difference != null){
+                    return lockstep.divergence(difference);
+                }
+                if(lockstep.finished){
+                    break;
+                }
+            }
+            String difference = compareAll(lockstep.reference, lockstep.candidate);
+            return difference == null ? null : lockstep.divergence(difference);
+        }
+        finally{
+            executed += lockstep.executed;
+        }
+    }
+
+    private boolean diverges(Input input){
+        return run(input, block) != null;
+    }
+
+
+    /**
+     * Looks for a smaller input that still diverges: cuts the cycles at the divergence, replaces the program by one
+     * that loads the registers before the divergent instruction followed by it, and removes instructions while it
+     * still diverges.
+     */
+    private Divergence minimize(Divergence divergence){
+        Input input = divergence.input.withCycles(divergence.cycle + 1);
+
+        Input synthesized = synthesize(input, divergence.cycle);
+        if(synthesized != null && synthesized.program.length < input.program.length && diverges(synthesized)){
+            input = synthesized;
+        }
+
+        if(input.program.length <= 512){
+            List<byte[]> instructions = new ArrayList<byte[]>();
+            for(int i = 0; i + 1 < input.program.length; i += 2){
+                instructions.add(Arrays.copyOfRange(input.program, i, i + 2));
+            }
+            int chunk = Math.max(1, instructions.size() / 2);
+            while(chunk >= 1){
+                boolean removed = false;
+                for(int i = 0; i < instructions.size(); ){
+                    List<byte[]> smaller = new ArrayList<byte[]>(instructions.subList(0, i));
+                    smaller.addAll(instructions.subList(Math.min(i + chunk, instructions.size()), instructions.size()));
+                    Input candidateInput = input.withProgram(input.name, join(smaller), input.keys);
+                    if(!smaller.isEmpty() && diverges(candidateInput)){
+                        instructions = smaller;
+                        input = candidateInput;
+                        removed = true;
+                    }
+                    else{
+                        i += chunk;
+                    }
+                }
+                if(!removed){
+                    chunk /= 2;
+                }
+                chunk = Math.min(chunk, instructions.size());
+            }
+        }
+
+        Divergence minimized = run(input, 1);
+        return minimized != null ? minimized : divergence;
+    }
+
+    /**
+     * Returns a program that loads the registers of the reference before cycle "cycle" of "input" and executes the
+     * instruction of that cycle, or null if it can't be built.
+     */
+    private Input synthesize(Input input, int cycle){
+        Lockstep lockstep = new Lockstep(input);
+        while(lockstep.cycle < cycle && !lockstep.finished){
+            if(lockstep.advance(false, 1) != null){
+                return null;
+            }
+        }
+        RegisterBank registers = lockstep.reference.registerBank;
+        Memory memory = lockstep.reference.memory;
+        if(lockstep.reference.pu.isWaitingForKey() || (registers.I & 0xFFFF) > 0xFFF){
+            return null;
+        }
+
+        List<byte[]> code = new ArrayList<byte[]>();
+        code.add(instruction(0x6000 | (registers.DT & 0xFF)));
+        code.add(instruction(0xF015));
+        code.add(instruction(0x6000 | (registers.ST & 0xFF)));
+        code.add(instruction(0xF018));
+        for(int x = 0; x < 16; x++){
+            code.add(instruction(0x6000 | x << 8 | (registers.V[x] & 0xFF)));
+        }
+        code.add(instruction(0xA000 | registers.I));
+        code.add(new byte[]{memory.get(registers.PC), memory.get((short)(registers.PC + 1))});
+
+        int keys = input.keysOf(cycle / CYCLES_PER_FRAME);
+        return new Input(input.name + " (registers at cycle " + cycle + ")", join(code), input.seed,
+                code.size() + 1, keys, input.machine, input.quirks);
+    }
+
+    private static byte[] instruction(int inst){
+        return new byte[]{(byte)(inst >>> 8), (byte) inst};
+    }
+
+    private static byte[] join(List<byte[]> instructions){
+        byte[] program = new byte[instructions.size() * 2];
+        for(int i = 0; i < instructions.size(); i++){
+            System.arraycopy(instructions.get(i), 0, program, 2 * i, 2);
+        }
+        return program;
+    }
+
+
+    /**
+     * Returns the first difference of the registers of both systems, or null if they are equal.
+     */
+    private static String compareRegisters(Side reference, Side candidate){
+        RegisterBank r = reference.registerBank;
+        RegisterBank c = candidate.registerBank;
+        for(int i = 0; i < 16; i++){
+            if(r.V[i] != c.V[i]) return difference("V" + Integer.toHexString(i).toUpperCase(), r.V[i] & 0xFF, c.V[i] & 0xFF);
+        }
+        if(r.I != c.I) return difference("I", r.I & 0xFFFF, c.I & 0xFFFF);
+        if(r.PC != c.PC) return difference("PC", r.PC & 0xFFFF, c.PC & 0xFFFF);
+        if(r.SP != c.SP) return difference("SP", r.SP, c.SP);
+        if(r.DT != c.DT) return difference("DT", r.DT & 0xFF, c.DT & 0xFF);
+        if(r.ST != c.ST) return difference("ST", r.ST & 0xFF, c.ST & 0xFF);
+        if(reference.pu.isWaitingForKey() != candidate.pu.isWaitingForKey()){
+            return "waiting for key: reference " + reference.pu.isWaitingForKey()
+                    + ", candidate " + candidate.pu.isWaitingForKey();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first difference of both systems (registers, memory, stack and screen), or null if they are equal.
+     */
+    private static String compareAll(Side reference, Side candidate){
+        String difference = compareRegisters(reference, candidate);
+        if(difference != null){
+            return difference;
+        }
+        Memory r = reference.memory;
+        Memory c = candidate.memory;
+        int address = r.firstDifference(c);
+        if(address >= 0){
+            return difference(String.format("memory[0x%03X]", address), r.get((short) address) & 0xFF,
+                    c.get((short) address) & 0xFF);
+        }
+        for(int i = 0; i < r.stack.length; i++){
+            if(r.stack[i] != c.stack[i]) return difference("stack[" + i + "]", r.stack[i] & 0xFFFF, c.stack[i] & 0xFFFF);
+        }
+        if(r.isHighResolution() != c.isHighResolution()){
+            return "high resolution: reference " + r.isHighResolution() + ", candidate " + c.isHighResolution();
+        }
+        for(int plane = 0; plane < Memory.PLANES; plane++){
+            for(int y = 0; y < Memory.MAX_HEIGHT; y++){
+                for(int word = 0; word < Memory.ROW_WORDS; word++){
+                    long different = r.getWord(plane, y, word) ^ c.getWord(plane, y, word);
+                    if(different != 0){
+                        int x = 64 * word + Long.numberOfLeadingZeros(different);
+                        return "pixel (" + x + "," + y + "): reference color " + r.getColor(x, y) + ", candidate color "
+                                + c.getColor(x, y);
+                    }
+                }
+            }
+        }
+        if(r.drawFlag != c.drawFlag){
+            return "drawFlag: reference " + r.drawFlag + ", candidate " + c.drawFlag;
+        }
+        ProcessingUnit rpu = reference.pu;
+        ProcessingUnit cpu = candidate.pu;
+        for(int i = 0; i < rpu.getFlags().length; i++){
+            if(rpu.getFlags()[i] != cpu.getFlags()[i]){
+                return difference("flags[" + i + "]", rpu.getFlags()[i] & 0xFF, cpu.getFlags()[i] & 0xFF);
+            }
+        }
+        if(rpu.getPlanes() != cpu.getPlanes()) return difference("planes", rpu.getPlanes(), cpu.getPlanes());
+        if(rpu.getPitch() != cpu.getPitch()) return difference("pitch", rpu.getPitch(), cpu.getPitch());
+        if(!Arrays.equals(rpu.getAudioPattern(), cpu.getAudioPattern())){
+            return "audio pattern: reference " + Arrays.toString(rpu.getAudioPattern()) + ", candidate "
+                    + Arrays.toString(cpu.getAudioPattern());
+        }
+        return null;
+    }
+
+    private static String difference(String what, int reference, int candidate){
+        return String.format("%s: reference 0x%X, candidate 0x%X", what, reference, candidate);
+    }
+
+    private static long mix(long z){
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+
+    /**
+     * Components of one of the systems.
+     */
+    private static class Side {
+
+        Memory memory = new Memory();
+        RegisterBank registerBank = new RegisterBank();
+        Keyboard keyboard = new Keyboard();
+        ProcessingUnit pu;
+        Engine engine;
+        Throwable failure; //Thrown by the engine, if any
+
+        Side(Input input, Engine.Factory factory){
+            ControlUnit controlUnit = null;
+            if(factory == null){
+                controlUnit = new ControlUnit(registerBank, memory, keyboard);
+                pu = controlUnit.getProcessingUnit();
+            }
+            else{
+                pu = new ProcessingUnit(memory, registerBank, keyboard);
+            }
+            Chip8.setMachine(input.machine, memory, pu);
+            pu.setQuirks(input.quirks);
+            for(int i = 0; i < input.program.length && 0x200 + i < memory.getSize(); i++){
+                memory.set((short)(0x200 + i), input.program[i]);
+            }
+            engine = factory == null ? controlUnit : factory.create(memory, registerBank, pu); //Compiled: rom loaded
+            pu.setRandomSeed(input.seed);
+        }
+
+        void step(){
+            try{
+                engine.step();
+            }
+            catch(RuntimeException ex){
+                failure = ex;
+            }
+        }
+
+        //Returns the executed instructions (unknown if the engine threw)
+        int run(int cycles){
+            try{
+                return engine.run(cycles);
+            }
+            catch(RuntimeException ex){
+                failure = ex;
+                return 0;
+            }
+        }
+
+        //Actions done 60 times per second
+        void frame(int keys){
+            if(registerBank.DT > 0){
+                registerBank.DT = (byte)(registerBank.DT - 0x01);
+            }
+            if(registerBank.ST > 0){
+                registerBank.ST = (byte)(registerBank.ST - 0x01);
+            }
+            keyboard.setKeys(keys);
+        }
+    }
+
+
+    /**
+     * Both systems running an input, one cycle at a time.
+     */
+    private class Lockstep {
+
+        Input input;
+        Side reference;
+        Side candidate;
+        int end;          //First address after the program
+        int maxI;         //Last I that doesn't access out of memory
+        int cycle;        //Next cycle
+        long executed;    //Instructions executed
+        boolean finished; //PC left the program, I left memory or an engine threw
+        short pc;         //Address and value of the last executed instruction
+        short instruction;
+
+        Lockstep(Input input){
+            this.input = input;
+            this.reference = new Side(input, null);
+            this.candidate = new Side(input, DifferentialHarness.this.candidate);
+            this.end = 0x200 + input.program.length;
+            switch(input.machine){
+                case CHIP8: maxI = MAX_I; break;
+                case SCHIP: maxI = MAX_LARGE_I; break;
+                default: maxI = 0xFFFF; break;
+            }
+            reference.keyboard.setKeys(input.keysOf(0));
+            candidate.keyboard.setKeys(input.keysOf(0));
+        }
+
+        /**
+         * Runs one cycle, or up to "budget" if the candidate runs several instructions at once, and compares the
+         * systems (everything if "all"). Returns the difference, or null.
+         */
+        String advance(boolean all, int budget){
+            int frame = cycle / CYCLES_PER_FRAME;
+            if(cycle > 0 && cycle % CYCLES_PER_FRAME == 0){
+                int keys = input.keysOf(frame);
+                reference.frame(keys);
+                candidate.frame(keys);
+            }
+            cycle++;
+
+            boolean referenceRuns = reference.pu.resumeIfKeyPressed();
+            boolean candidateRuns = candidate.pu.resumeIfKeyPressed();
+            if(referenceRuns != candidateRuns){
+                return "waiting for key: reference " + !referenceRuns + ", candidate " + !candidateRuns;
+            }
+            if(!referenceRuns){
+                return null;
+            }
+
+            pc = reference.registerBank.PC;
+            if((pc & 0xFFFF) < 0x200 || (pc & 0xFFFF) + 1 >= end || (reference.registerBank.I & 0xFFFF) > maxI){
+                finished = true;
+                return compareRegisters(reference, candidate);
+            }
+            instruction = (short)(((reference.memory.get(pc) & 0xFF) << 8) | (reference.memory.get((short)(pc + 1)) & 0xFF));
+            if(!Disassembler.isKnown(instruction)){
+                finished = true; //Unknown instructions are logged and skipped, which would flood the output
+                return null;
+            }
+
+            int steps = 1;
+            if(budget == 1){
+                candidate.step();
+            }
+            else{
+                steps = candidate.run(budget);
+                if(candidate.failure != null){
+                    steps = budget; //Unknown: the reference runs until it throws too
+                }
+            }
+            for(int i = 0; i < steps && reference.failure == null; i++){
+                reference.step();
+            }
+            cycle += steps - 1;
+            executed += steps;
+
+            if(reference.failure != null || candidate.failure != null){
+                finished = true;
+                String r = reference.failure == null ? "nothing" : reference.failure.getClass().getSimpleName();
+                String c = candidate.failure == null ? "nothing" : candidate.failure.getClass().getSimpleName();
+                return r.equals(c) ? null : "thrown: reference " + r + ", candidate " + c;
+            }
+            return all ? compareAll(reference, candidate) : compareRegisters(reference, candidate);
+        }
+
+        Divergence divergence(String difference){
+            return new Divergence(input, cycle - 1, pc, instruction, difference);
+        }
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        Engine.Factory engine = Engine.SWITCH;
+        long seed = new Random().nextLong();
+        int runs = 20000;
+        int length = 64;
+        int steps = 2000;
+        int romSteps = 2000000;
+        int block = 256;
+        String[] roms = null;
+
+        for(int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if(!arg.startsWith("--")){
+                roms = Arrays.copyOfRange(args, i, args.length);
+                break;
+            }
+            if(i + 1 >= args.length){
+                throw new IllegalArgumentException("Missing value of argument: " + arg);
+            }
+            String value = args[++i];
+            if(arg.equals("--engine")) engine = Engine.factory(value);
+            else if(arg.equals("--seed")) seed = Long.decode(value);
+            else if(arg.equals("--runs")) runs = Integer.parseInt(value);
+            else if(arg.equals("--length")) length = Integer.parseInt(value);
+            else if(arg.equals("--steps")) steps = Integer.parseInt(value);
+            else if(arg.equals("--rom-steps")) romSteps = Integer.parseInt(value);
+            else if(arg.equals("--block")) block = Integer.parseInt(value);
+            else throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+        if(engine == null){
+            throw new IllegalArgumentException("The candidate engine can not be the reference");
+        }
+        if(roms == null){
+            roms = new File("roms").list();
+            if(roms == null){
+                throw new IllegalArgumentException("No roms folder in " + new File("").getAbsolutePath());
+            }
+            Arrays.sort(roms);
+        }
+
+        DifferentialHarness harness = new DifferentialHarness(engine, block);
+        long initTime = System.nanoTime();
+
+        Divergence divergence = null;
+        if(romSteps > 0){
+            for(int i = 0; i < roms.length && divergence == null; i++){
+                byte[] program = Files.toByteArray(new File("roms/" + roms[i]));
+                divergence = harness.checkAll(new Input(roms[i], program, seed, romSteps, -1));
+            }
+        }
+        if(divergence == null){
+            System.out.println(String.format("[INFO] Fuzzing %d random programs, seed 0x%X", runs, seed));
+            divergence = harness.fuzz(seed, runs, length, steps);
+        }
+
+        double seconds = (System.nanoTime() - initTime) / 1e9;
+        System.out.println(String.format("[INFO] %d instructions in %.1f s (%.2f M instructions/s per engine)",
+                harness.getExecuted(), seconds, harness.getExecuted() / seconds / 1e6));
+        if(divergence != null){
+            System.out.print(divergence.report());
+            System.exit(1);
+        }
+        System.out.println("[INFO] No divergences");
+    }
+}
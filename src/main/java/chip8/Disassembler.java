@@ -0,0 +1,136 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Translates Chip-8, SUPER-CHIP and XO-CHIP instructions to their mnemonics (Cowgod's notation, as in ProcessingUnit).
+ */
+public class Disassembler {
+
+    private Disassembler(){
+    }
+
+    /**
+     * Returns the mnemonic of "instruction", i.e. "LD V1, 0x05". Unknown instructions are shown as data ("DW 0x1234").
+     */
+    public static String disassemble(short instruction){
+        int inst = instruction & 0xFFFF;
+        int x = (inst & 0x0F00) >>> 8;
+        int y = (inst & 0x00F0) >>> 4;
+        int n = inst & 0x000F;
+        int kk = inst & 0x00FF;
+        int nnn = inst & 0x0FFF;
+
+        switch(inst >>> 12){
+            case 0x0:
+                if(inst == 0x00E0) return "CLS";
+                if(inst == 0x00EE) return "RET";
+                if((inst & 0xFFF0) == 0x00C0) return String.format("SCD %d", n);
+                if((inst & 0xFFF0) == 0x00D0) return String.format("SCU %d", n);
+                if(inst == 0x00FB) return "SCR";
+                if(inst == 0x00FC) return "SCL";
+                if(inst == 0x00FD) return "EXIT";
+                if(inst == 0x00FE) return "LOW";
+                if(inst == 0x00FF) return "HIGH";
+                break;
+            case 0x1: return String.format("JP 0x%03X", nnn);
+            case 0x2: return String.format("CALL 0x%03X", nnn);
+            case 0x3: return String.format("SE V%X, 0x%02X", x, kk);
+            case 0x4: return String.format("SNE V%X, 0x%02X", x, kk);
+            case 0x5:
+                if(n == 0) return String.format("SE V%X, V%X", x, y);
+                if(n == 2) return String.format("LD [I], V%X-V%X", x, y);
+                if(n == 3) return String.format("LD V%X-V%X, [I]", x, y);
+                break;
+            case 0x6: return String.format("LD V%X, 0x%02X", x, kk);
+            case 0x7: return String.format("ADD V%X, 0x%02X", x, kk);
+            case 0x8:
+                switch(n){
+                    case 0x0: return String.format("LD V%X, V%X", x, y);
+                    case 0x1: return String.format("OR V%X, V%X", x, y);
+                    case 0x2: return String.format("AND V%X, V%X", x, y);
+                    case 0x3: return String.format("XOR V%X, V%X", x, y);
+                    case 0x4: return String.format("ADD V%X, V%X", x, y);
+                    case 0x5: return String.format("SUB V%X, V%X", x, y);
+                    case 0x6: return String.format("SHR V%X", x);
+                    case 0x7: return String.format("SUBN V%X, V%X", x, y);
+                    case 0xE: return String.format("SHL V%X", x);
+                }
+                break;
+            case 0x9:
+                if(n == 0) return String.format("SNE V%X, V%X", x, y);
+                break;
+            case 0xA: return String.format("LD I, 0x%03X", nnn);
+            case 0xB: return String.format("JP V0, 0x%03X", nnn);
+            case 0xC: return String.format("RND V%X, 0x%02X", x, kk);
+            case 0xD: return String.format("DRW V%X, V%X, %d", x, y, n);
+            case 0xE:
+                if(kk == 0x9E) return String.format("SKP V%X", x);
+                if(kk == 0xA1) return String.format("SKNP V%X", x);
+                break;
+            case 0xF:
+                if(inst == 0xF000) return "LD I, LONG";
+                if(inst == 0xF002) return "AUDIO";
+                switch(kk){
+                    case 0x01: return String.format("PLANE %d", x);
+                    case 0x07: return String.format("LD V%X, DT", x);
+                    case 0x0A: return String.format("LD V%X, K", x);
+                    case 0x15: return String.format("LD DT, V%X", x);
+                    case 0x18: return String.format("LD ST, V%X", x);
+                    case 0x1E: return String.format("ADD I, V%X", x);
+                    case 0x29: return String.format("LD F, V%X", x);
+                    case 0x30: return String.format("LD HF, V%X", x);
+                    case 0x33: return String.format("LD B, V%X", x);
+                    case 0x3A: return String.format("PITCH V%X", x);
+                    case 0x55: return String.format("LD [I], V%X", x);
+                    case 0x65: return String.format("LD V%X, [I]", x);
+                    case 0x75: return String.format("LD R, V%X", x);
+                    case 0x85: return String.format("LD V%X, R", x);
+                }
+                break;
+        }
+        return String.format("DW 0x%04X", inst);
+    }
+
+    /**
+     * Returns true if "instruction" is a known Chip-8, SUPER-CHIP or XO-CHIP instruction (the ones that disassemble to a
+     * mnemonic).
+     */
+    public static boolean isKnown(short instruction){
+        if(isXoChip(instruction)){
+            return true;
+        }
+        int inst = instruction & 0xFFFF;
+        int n = inst & 0x000F;
+        int kk = inst & 0x00FF;
+        switch(inst >>> 12){
+            case 0x0: return inst == 0x00E0 || inst == 0x00EE || (inst & 0xFFF0) == 0x00C0
+                    || (inst >= 0x00FB && inst <= 0x00FF);
+            case 0x5:
+            case 0x9: return n == 0;
+            case 0x8: return n <= 0x7 || n == 0xE;
+            case 0xE: return kk == 0x9E || kk == 0xA1;
+            case 0xF:
+                switch(kk){
+                    case 0x07: case 0x0A: case 0x15: case 0x18: case 0x1E:
+                    case 0x29: case 0x30: case 0x33: case 0x55: case 0x65: case 0x75: case 0x85:
+                        return true;
+                }
+                return false;
+            default: return true;
+        }
+    }
+
+    /**
+     * Returns true if "instruction" is one of the instructions added by XO-CHIP: 5xy2, 5xy3, 00Dn, F000, Fn01, F002
+     * and Fx3A.
+     */
+    public static boolean isXoChip(short instruction){
+        int inst = instruction & 0xFFFF;
+        switch(inst >>> 12){
+            case 0x0: return (inst & 0xFFF0) == 0x00D0;
+            case 0x5: return (inst & 0xF) == 2 || (inst & 0xF) == 3;
+            case 0xF: return inst == 0xF000 || inst == 0xF002 || (inst & 0xFF) == 0x01 || (inst & 0xFF) == 0x3A;
+            default: return false;
+        }
+    }
+}
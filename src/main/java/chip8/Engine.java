@@ -0,0 +1,57 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Executes instructions over the components of a system (Memory, RegisterBank and a ProcessingUnit).
+ * ControlUnit is the reference engine; faster engines must behave exactly like it (see DifferentialHarness).
+ */
+public interface Engine {
+
+    /**
+     * Builds an engine over the components of a system.
+     */
+    interface Factory {
+        Engine create(Memory memory, RegisterBank registerBank, ProcessingUnit pu);
+    }
+
+    Factory SWITCH = new Factory() {
+        public Engine create(Memory memory, RegisterBank registerBank, ProcessingUnit pu) {
+            return new SwitchEngine(memory, registerBank, pu);
+        }
+    };
+
+    //Compiled engine of the loaded rom (see RomCompiler), or the switch engine if it has not been compiled or it is an
+    //XO-CHIP system (like in Chip8.loadGame)
+    Factory AOT = new Factory() {
+        public Engine create(Memory memory, RegisterBank registerBank, ProcessingUnit pu) {
+            Engine compiled = pu.getMachine() == Machine.XOCHIP ? null : CompiledEngine.create(memory, registerBank, pu);
+            return compiled != null ? compiled : new SwitchEngine(memory, registerBank, pu);
+        }
+    };
+
+    /**
+     * Returns the factory of the engine named "name" (switch or aot), or null for "reference": the control unit of
+     * the system (Chip8.setEngine(null)).
+     * @throws IllegalArgumentException if there is no engine with that name.
+     */
+    static Factory factory(String name){
+        if(name.equals("reference")) return null;
+        if(name.equals("switch")) return SWITCH;
+        if(name.equals("aot")) return AOT;
+        throw new IllegalArgumentException("Unknown engine: " + name + " (known: reference, switch, aot)");
+    }
+
+    /**
+     * Executes one instruction: fetch the instruction at PC, increment PC, decode and execute.
+     */
+    void step();
+
+    /**
+     * Executes up to "cycles" instructions (at least one) and returns how many were executed. It may stop before,
+     * i.e. when Fx0A suspends the processing unit. Engines that execute whole blocks of instructions override it.
+     */
+    default int run(int cycles){
+        step();
+        return 1;
+    }
+}
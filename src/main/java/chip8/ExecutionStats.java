@@ -0,0 +1,98 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Execution counters of a Chip8 system: instructions per opcode class (first nibble of the opcode), frames,
+ * frame time, cycles per frame and time stalled waiting for a key (Fx0A).
+ *
+ * Counters are written only by the emulation thread and read without synchronization by monitoring threads
+ * (see Chip8Monitor), so readers may see slightly stale values.
+ * When stats are disabled no ExecutionStats object exists, so the only cost is a null check.
+ */
+public class ExecutionStats {
+
+    //Executed instructions by opcode class: 0nnn, 1nnn, 2nnn... Fnnn
+    private final long[] opcodeCounts = new long[16];
+
+    private long frames;
+    private long lastFrameEndNanos;
+    private long lastFrameNanos;
+    private long totalFrameNanos;
+
+    private long instructionsAtLastFrame;
+    private long lastFrameCycles;
+
+    private long waitKeyNanos;
+
+
+    /**
+     * Counts an executed instruction.
+     */
+    public void countInstruction(short instruction){
+        opcodeCounts[(instruction >>> 12) & 0xF]++;
+    }
+
+    /**
+     * Adds time stalled waiting for a key.
+     */
+    public void addWaitKeyNanos(long nanos){
+        waitKeyNanos += nanos;
+    }
+
+    /**
+     * Called at the end of every frame (1/60 seconds of emulated time).
+     */
+    public void frameEnd(long nowNanos){
+        if(lastFrameEndNanos != 0){
+            lastFrameNanos = nowNanos - lastFrameEndNanos;
+            totalFrameNanos += lastFrameNanos;
+            frames++;
+        }
+        lastFrameEndNanos = nowNanos;
+
+        long instructions = getInstructions();
+        lastFrameCycles = instructions - instructionsAtLastFrame;
+        instructionsAtLastFrame = instructions;
+    }
+
+
+    /**
+     * Returns the number of executed instructions of opcode class "nibble" (0x0 - 0xF).
+     */
+    public long getOpcodeCount(int nibble){
+        return opcodeCounts[nibble];
+    }
+
+    public long getInstructions(){
+        long total = 0;
+        for(long count: opcodeCounts){
+            total += count;
+        }
+        return total;
+    }
+
+    //Every Dxyn is a draw
+    public long getDraws(){
+        return opcodeCounts[0xD];
+    }
+
+    public long getFrames(){
+        return frames;
+    }
+
+    public long getLastFrameNanos(){
+        return lastFrameNanos;
+    }
+
+    public long getAverageFrameNanos(){
+        return frames == 0 ? 0 : totalFrameNanos / frames;
+    }
+
+    public long getLastFrameCycles(){
+        return lastFrameCycles;
+    }
+
+    public long getWaitKeyNanos(){
+        return waitKeyNanos;
+    }
+}
@@ -0,0 +1,109 @@
+package chip8;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * JDK Flight Recorder events of the emulator, shown under the "CHIP-8" category of a recording.
+ *
+ * Whether each event is enabled is read from its EventType once per frame (see Chip8.refresh()), so when
+ * nothing is recording the emulation only checks plain boolean fields and creates no event objects.
+ * The event types are only registered once the Flight Recorder is initialized (see isRecorderInitialized), since
+ * registering them initializes it, which takes longer than starting the emulator.
+ */
+final class FlightEvents {
+
+    //One of every DRAW_SAMPLE_PERIOD Dxyn instructions emits a Draw event
+    static final int DRAW_SAMPLE_PERIOD = Integer.getInteger("chip8.jfr.drawSamplePeriod", 16);
+
+    private FlightEvents(){
+    }
+
+
+    /**
+     * Returns true if the Flight Recorder has been initialized, i.e. by -XX:StartFlightRecording or by a recording
+     * started later with jcmd. Until then no event can be enabled, and Types must not be used.
+     */
+    static boolean isRecorderInitialized(){
+        return FlightRecorder.isInitialized();
+    }
+
+    /**
+     * Types of the events, registered when this class is first used.
+     */
+    static final class Types {
+        static final EventType FRAME = EventType.getEventType(Frame.class);
+        static final EventType DRAW = EventType.getEventType(Draw.class);
+        static final EventType KEY_WAIT_START = EventType.getEventType(KeyWaitStart.class);
+        static final EventType KEY_WAIT_END = EventType.getEventType(KeyWaitEnd.class);
+        static final EventType PACING_OVERRUN = EventType.getEventType(PacingOverrun.class);
+
+        private Types(){
+        }
+    }
+
+
+    @Name("chip8.Frame")
+    @Label("Frame")
+    @Category("CHIP-8")
+    @Description("Emulation of one frame (1/60 seconds of emulated time)")
+    static class Frame extends Event {
+        @Label("Cycles")
+        int cycles;
+    }
+
+    @Name("chip8.Draw")
+    @Label("Draw")
+    @Category("CHIP-8")
+    @Description("Sampled Dxyn instruction")
+    static class Draw extends Event {
+        @Label("X")
+        int x;
+        @Label("Y")
+        int y;
+        @Label("Rows")
+        int rows;
+        @Label("Collision")
+        boolean collision;
+    }
+
+    @Name("chip8.KeyWaitStart")
+    @Label("Key Wait Start")
+    @Category("CHIP-8")
+    @Description("Fx0A started waiting for a key")
+    static class KeyWaitStart extends Event {
+        @Label("Register")
+        int register;
+    }
+
+    @Name("chip8.KeyWaitEnd")
+    @Label("Key Wait End")
+    @Category("CHIP-8")
+    @Description("Fx0A received a key")
+    static class KeyWaitEnd extends Event {
+        @Label("Register")
+        int register;
+        @Label("Key")
+        int key;
+    }
+
+    @Name("chip8.PacingOverrun")
+    @Label("Pacing Overrun")
+    @Category("CHIP-8")
+    @Description("A cycle took longer than the emulated cycle period")
+    static class PacingOverrun extends Event {
+        @Label("Period")
+        @Timespan(Timespan.NANOSECONDS)
+        long periodNanos;
+        @Label("Overrun")
+        @Timespan(Timespan.NANOSECONDS)
+        long overrunNanos;
+    }
+}
@@ -0,0 +1,51 @@
+package chip8;
+
+import java.util.ArrayDeque;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Recycles the forks of a search (see Chip8.fork), so exploring states doesn't create garbage: forks released when
+ * they are not used anymore become the next ones. A recycled fork keeps its components and compiled engine, and
+ * only copies the state of its new parent.
+ * Not thread safe: use one pool per search thread.
+ */
+public class ForkPool {
+
+    private final ArrayDeque<Chip8> free = new ArrayDeque<Chip8>();
+    private final int capacity;
+
+    /**
+     * Creates a pool that keeps up to "capacity" released forks.
+     */
+    public ForkPool(int capacity){
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns a fork of "parent", recycled if possible.
+     */
+    public Chip8 fork(Chip8 parent){
+        Chip8 fork = free.pollLast();
+        if(fork == null){
+            return parent.fork();
+        }
+        parent.forkInto(fork);
+        return fork;
+    }
+
+    /**
+     * Returns "fork" to the pool. It must not be used anymore.
+     */
+    public void release(Chip8 fork){
+        if(free.size() < capacity){
+            free.addLast(fork);
+        }
+    }
+
+    /**
+     * Returns the number of forks ready to be recycled.
+     */
+    public int size(){
+        return free.size();
+    }
+}
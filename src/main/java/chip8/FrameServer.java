@@ -0,0 +1,492 @@
+package chip8;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Streams the screen of running systems to remote viewers, and takes their key events as input.
+ *
+ * One thread serves every connection with a Selector and non-blocking channels. Protocol:
+ *   viewer -> server: the name of a published system and '\n', then key events, one byte each (see NetworkInput).
+ *   server -> viewer: one message per frame where the screen changes (see readFrame):
+ *     byte  KEYFRAME or DELTA
+ *     long  frame number
+ *     byte  flags of the screen (see Memory.getScreenFlags: resolution)
+ *     long  MASKS masks of the words sent (bit i of mask m = word 64 * m + i of the screen, see Memory.copyScreen)
+ *     long  per word sent, from word 0: the word (KEYFRAME) or the word XOR the previous one (DELTA)
+ * The whole screen is sent, every XO-CHIP plane in full SUPER-CHIP resolution. This is protocol 2: the version is
+ * the high nibble of the message types, so readers of protocol 1 (64x32 rows only) reject its messages.
+ *
+ * A keyframe is sent every KEYFRAME_INTERVAL messages and when a viewer joins. Each frame is encoded once, into a
+ * direct buffer of its system that is written to all the viewers. A viewer whose socket can't take a whole message
+ * keeps the rest in its own buffer and skips deltas until it is up to date. Then it asks for a keyframe, which the
+ * next frame publishes even if the screen didn't change.
+ */
+public class FrameServer implements Closeable {
+
+    public static final int PROTOCOL = 2;
+    public static final byte KEYFRAME = PROTOCOL << 4 | 1;
+    public static final byte DELTA = PROTOCOL << 4 | 2;
+    public static final int KEYFRAME_INTERVAL = 60;
+
+    private static final int WORDS = Memory.SCREEN_WORDS;
+    private static final int MASKS = WORDS / 64;
+    private static final int MAX_MESSAGE = 1 + 8 + 1 + MASKS * 8 + WORDS * 8;
+    private static final int MAX_NAME = 256;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(1024);
+    private final Thread thread;
+    private volatile boolean closed;
+
+
+    /**
+     * Starts serving at "address" (port 0 for any free port, see getPort).
+     */
+    public FrameServer(InetSocketAddress address) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().bind(address);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        thread = new Thread("chip8-frame-server"){
+            public void run(){
+                serve();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the port where the server listens.
+     */
+    public int getPort(){
+        return serverChannel.socket().getLocalPort();
+    }
+
+
+    /**
+     * Publishes "chip8" as "name": its screen is streamed to the viewers that join "name", and their key events are
+     * applied to its keyboard. Must be called from the emulation thread of "chip8", or before starting it.
+     */
+    public void publish(String name, Chip8 chip8){
+        Session session = new Session(chip8.getKeyboard());
+        if(sessions.putIfAbsent(name, session) != null){
+            throw new IllegalArgumentException("System \"" + name + "\" already published");
+        }
+        chip8.setVideoOutput(session);
+    }
+
+    /**
+     * Returns the number of viewers of "name".
+     */
+    public int getViewers(String name){
+        Session session = sessions.get(name);
+        return session == null ? 0 : session.viewerCount;
+    }
+
+
+    /**
+     * Stops serving and closes every connection.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try{
+            thread.join();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Reads one message (see the protocol above) from "in" and applies it to "frame", which must hold the last frame
+     * read. Returns the frame number.
+     */
+    public static long readFrame(DataInputStream in, Frame frame) throws IOException {
+        byte type = in.readByte();
+        if(type != KEYFRAME && type != DELTA){
+            throw new IOException("Unknown message " + type + " (protocol " + PROTOCOL + ")");
+        }
+        frame.number = in.readLong();
+        frame.flags = in.readByte();
+        long[] masks = new long[MASKS];
+        for(int m = 0; m < MASKS; m++){
+            masks[m] = in.readLong();
+        }
+        long[] words = frame.words;
+        for(int i = 0; i < WORDS; i++){
+            if((masks[i >>> 6] & (1L << i)) != 0){
+                words[i] = type == KEYFRAME ? in.readLong() : words[i] ^ in.readLong();
+            }
+            else if(type == KEYFRAME){
+                words[i] = 0;
+            }
+        }
+        return frame.number;
+    }
+
+
+    /**
+     * A frame read by a viewer (see readFrame).
+     */
+    public static class Frame {
+        public long number;
+        public int flags;                                       //See Memory.getScreenFlags
+        public final long[] words = new long[Memory.SCREEN_WORDS]; //See Memory.copyScreen
+
+        public boolean isHighResolution(){
+            return (flags & Memory.HIGH_RESOLUTION) != 0;
+        }
+
+        /**
+         * Returns the color of pixel (x,y) (see Memory.getColor).
+         */
+        public int getColor(int x, int y){
+            return Memory.getColor(words, 0, x, y);
+        }
+    }
+
+
+    /**
+     * Loop of the server thread.
+     */
+    private void serve(){
+        try{
+            while(!closed){
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try{
+                        if(!key.isValid()){
+                            continue;
+                        }
+                        if(key.isAcceptable()){
+                            accept();
+                        }
+                        if(key.isValid() && key.isReadable()){
+                            read(key);
+                        }
+                        if(key.isValid() && key.isWritable()){
+                            ((Viewer) key.attachment()).flush();
+                        }
+                    }
+                    catch(IOException e){
+                        disconnect(key);
+                    }
+                }
+                for(Session session: sessions.values()){
+                    session.send();
+                }
+            }
+        }
+        catch(IOException e){
+            System.err.println("[ERROR] Frame server stopped: " + e);
+        }
+        catch(ClosedSelectorException e){
+            //Closed
+        }
+        finally{
+            for(SelectionKey key: selector.keys()){
+                try{
+                    key.channel().close();
+                }
+                catch(IOException e){
+                    //Closing anyway
+                }
+            }
+            try{
+                selector.close();
+            }
+            catch(IOException e){
+                //Closing anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if(channel == null){
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Viewer(key, channel));
+    }
+
+    /**
+     * Reads the name of the system of a viewer, and then its key events.
+     */
+    private void read(SelectionKey key) throws IOException {
+        Viewer viewer = (Viewer) key.attachment();
+        readBuffer.clear();
+        if(viewer.channel.read(readBuffer) < 0){
+            disconnect(key);
+            return;
+        }
+        readBuffer.flip();
+        while(readBuffer.hasRemaining()){
+            int b = readBuffer.get() & 0xFF;
+            if(viewer.session != null){
+                NetworkInput.apply(b, viewer.session.keyboard);
+            }
+            else if(b != '\n'){
+                if(viewer.nameLength == MAX_NAME){
+                    throw new IOException("Name too long");
+                }
+                viewer.name[viewer.nameLength++] = (byte) b;
+            }
+            else{
+                String name = new String(viewer.name, 0, viewer.nameLength, StandardCharsets.UTF_8);
+                Session session = sessions.get(name);
+                if(session == null){
+                    throw new IOException("Unknown system " + name);
+                }
+                session.join(viewer);
+            }
+        }
+    }
+
+    private void disconnect(SelectionKey key){
+        Viewer viewer = (Viewer) key.attachment();
+        if(viewer != null && viewer.session != null){
+            viewer.session.leave(viewer);
+        }
+        key.cancel();
+        try{
+            key.channel().close();
+        }
+        catch(IOException e){
+            //Closing anyway
+        }
+    }
+
+
+    /**
+     * A published system. The emulation thread hands the last changed screen over in frame, and the server thread
+     * encodes and sends it in send.
+     */
+    private class Session implements VideoOutput {
+
+        private final Keyboard keyboard;
+
+        //Emulation thread
+        private long lastScreenHash;
+        private final long[] screen = new long[WORDS];
+
+        //Handed over, guarded by this
+        private final long[] published = new long[WORDS];
+        private int publishedFlags;
+        private long publishedFrame;
+        private boolean fresh;
+        private volatile boolean keyframeRequested;
+
+        //Server thread
+        private final long[] current = new long[WORDS];
+        private int currentFlags;
+        private final long[] sent = new long[WORDS];
+        private final long[] masks = new long[MASKS];
+        private final ByteBuffer message = ByteBuffer.allocateDirect(MAX_MESSAGE);
+        private int messagesSinceKeyframe;
+        private final List<Viewer> viewers = new ArrayList<Viewer>();
+        private volatile int viewerCount;
+
+        Session(Keyboard keyboard){
+            this.keyboard = keyboard;
+            message.limit(0);
+        }
+
+        @Override
+        public void frame(long frame, Memory memory) {
+            long screenHash = memory.getScreenHash();
+            if(screenHash == lastScreenHash && !keyframeRequested){
+                return;
+            }
+            lastScreenHash = screenHash;
+            memory.copyScreen(screen, 0);
+            synchronized(this){
+                System.arraycopy(screen, 0, published, 0, WORDS);
+                publishedFlags = memory.getScreenFlags();
+                publishedFrame = frame;
+                fresh = true;
+                keyframeRequested = false;
+            }
+            selector.wakeup();
+        }
+
+        void join(Viewer viewer){
+            viewer.session = this;
+            viewer.needsKeyframe = true;
+            viewers.add(viewer);
+            viewerCount = viewers.size();
+            keyframeRequested = true;
+        }
+
+        void leave(Viewer viewer){
+            viewers.remove(viewer);
+            viewerCount = viewers.size();
+        }
+
+        /**
+         * Encodes the last frame handed over, if any, and writes it to the viewers that are up to date.
+         */
+        void send(){
+            long frame;
+            synchronized(this){
+                if(!fresh){
+                    return;
+                }
+                System.arraycopy(published, 0, current, 0, WORDS);
+                currentFlags = publishedFlags;
+                frame = publishedFrame;
+                fresh = false;
+            }
+
+            //Viewers still writing the previous message keep the rest, and miss this one
+            boolean keyframe = messagesSinceKeyframe >= KEYFRAME_INTERVAL;
+            for(Viewer viewer: viewers){
+                viewer.keepRest(message);
+                keyframe |= viewer.needsKeyframe && viewer.isUpToDate();
+            }
+            encode(frame, keyframe);
+
+            for(int i = viewers.size() - 1; i >= 0; i--){
+                Viewer viewer = viewers.get(i);
+                if(!viewer.isUpToDate() || (viewer.needsKeyframe && !keyframe)){
+                    viewer.needsKeyframe = true;
+                    continue;
+                }
+                viewer.needsKeyframe = false;
+                viewer.offset = 0;
+                try{
+                    viewer.flush();
+                }
+                catch(IOException e){
+                    disconnect(viewer.key);
+                }
+            }
+        }
+
+        private void encode(long frame, boolean keyframe){
+            message.clear();
+            message.put(keyframe ? KEYFRAME : DELTA);
+            message.putLong(frame);
+            message.put((byte) currentFlags);
+            int maskPosition = message.position();
+            for(int m = 0; m < MASKS; m++){
+                masks[m] = 0;
+                message.putLong(0);
+            }
+            for(int i = 0; i < WORDS; i++){
+                long word = keyframe ? current[i] : current[i] ^ sent[i];
+                if(word != 0){
+                    masks[i >>> 6] |= 1L << i;
+                    message.putLong(word);
+                }
+                sent[i] = current[i];
+            }
+            for(int m = 0; m < MASKS; m++){
+                message.putLong(maskPosition + m * 8, masks[m]);
+            }
+            message.flip();
+            messagesSinceKeyframe = keyframe ? 0 : messagesSinceKeyframe + 1;
+        }
+    }
+
+
+    /**
+     * A connection of a viewer.
+     */
+    private class Viewer {
+
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final byte[] name = new byte[MAX_NAME];
+        private int nameLength;
+
+        private Session session;     //Null until the name is read
+        private boolean needsKeyframe;
+        private int offset = -1;      //Position in the message of the session being written, -1 if written
+        private ByteBuffer rest;      //Rest of a previous message, not written yet
+
+        Viewer(SelectionKey key, SocketChannel channel){
+            this.key = key;
+            this.channel = channel;
+        }
+
+        boolean isUpToDate(){
+            return offset < 0 && (rest == null || !rest.hasRemaining());
+        }
+
+        /**
+         * Copies the part of "message" not written yet to the own buffer of the viewer, before it is encoded again.
+         */
+        void keepRest(ByteBuffer message){
+            if(offset < 0){
+                return;
+            }
+            if(rest == null){
+                rest = ByteBuffer.allocateDirect(MAX_MESSAGE * 2);
+                rest.limit(0);
+            }
+            rest.compact();
+            ByteBuffer remaining = message.duplicate();
+            remaining.position(offset);
+            rest.put(remaining);
+            rest.flip();
+            offset = -1;
+        }
+
+        /**
+         * Writes as much as the socket takes, and waits until it is writable if something is left. A viewer that
+         * missed deltas and is now up to date asks for a keyframe, as the screen may not change again.
+         */
+        void flush() throws IOException {
+            if(rest != null && rest.hasRemaining()){
+                channel.write(rest);
+            }
+            if(offset >= 0 && (rest == null || !rest.hasRemaining())){
+                ByteBuffer message = session.message;
+                int limit = message.limit();
+                message.position(offset);
+                channel.write(message);
+                offset = message.position() == limit ? -1 : message.position();
+                message.position(0);
+            }
+            if(!isUpToDate()){
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if(needsKeyframe){
+                session.keyframeRequested = true; //Republished by the next frame, also if the screen doesn't change
+                selector.wakeup();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package chip8;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Fixed sequence of key events, used to replay the same input on every run (benchmarks and tests).
+ *
+ * Script format, one event per line ('#' starts a comment):
+ *   FRAME KEY down|up     -> press or release KEY (hex, 0 - F) at the beginning of frame FRAME.
+ *   loop FRAMES           -> repeat the whole script every FRAMES frames.
+ *
+ * Usage: Chip8.setInput(new ScriptedInput(script)), or call apply(frame, keyboard) before emulating each frame.
+ */
+public class InputScript {
+
+    private int[] frames;     //Frame of each event, in ascending order
+    private byte[] keys;      //Key of each event
+    private boolean[] downs;  //True if the event presses the key, false if it releases it
+    private int loopFrames;   //0 if the script is not repeated
+
+    private InputScript(int[] frames, byte[] keys, boolean[] downs, int loopFrames){
+        this.frames = frames;
+        this.keys = keys;
+        this.downs = downs;
+        this.loopFrames = loopFrames;
+    }
+
+    /**
+     * Reads a script from a file.
+     * @throws IOException if the file can't be read or it is malformed.
+     */
+    public static InputScript load(File file) throws IOException {
+        return parse(Files.readLines(file, Charsets.UTF_8));
+    }
+
+    /**
+     * Parses the lines of a script.
+     * @throws IOException if a line is malformed.
+     */
+    public static InputScript parse(List<String> lines) throws IOException {
+        List<int[]> events = new ArrayList<int[]>();
+        int loopFrames = 0;
+        int lineNumber = 0;
+        for(String line: lines){
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if(comment >= 0){
+                line = line.substring(0,comment);
+            }
+            line = line.trim();
+            if(line.isEmpty()){
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            try{
+                if(tokens.length == 2 && tokens[0].equals("loop")){
+                    loopFrames = Integer.parseInt(tokens[1]);
+                }
+                else if(tokens.length == 3 && (tokens[2].equals("down") || tokens[2].equals("up"))){
+                    int frame = Integer.parseInt(tokens[0]);
+                    int key = Integer.parseInt(tokens[1],16);
+                    if(key < 0 || key > 0xF){
+                        throw new NumberFormatException("key out of range");
+                    }
+                    events.add(new int[]{frame, key, tokens[2].equals("down") ? 1 : 0});
+                }
+                else{
+                    throw new IOException("Malformed input script line " + lineNumber + ": " + line);
+                }
+            }
+            catch(NumberFormatException ex){
+                throw new IOException("Malformed input script line " + lineNumber + ": " + line);
+            }
+        }
+
+        int n = events.size();
+        int[] frames = new int[n];
+        byte[] keys = new byte[n];
+        boolean[] downs = new boolean[n];
+        for(int i = 0; i < n; i++){
+            int[] event = events.get(i);
+            if(i > 0 && event[0] < frames[i-1]){
+                throw new IOException("Input script events must be sorted by frame");
+            }
+            frames[i] = event[0];
+            keys[i] = (byte)event[1];
+            downs[i] = event[2] == 1;
+        }
+        return new InputScript(frames,keys,downs,loopFrames);
+    }
+
+    /**
+     * Applies to "keyboard" the events of frame "frame".
+     */
+    public void apply(int frame, Keyboard keyboard){
+        if(loopFrames > 0){
+            frame = frame % loopFrames;
+        }
+        for(int i = 0; i < frames.length && frames[i] <= frame; i++){
+            if(frames[i] == frame){
+                if(downs[i]){
+                    keyboard.press(keys[i]);
+                }
+                else{
+                    keyboard.release(keys[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Source of key events of a Chip8 system (see Chip8.setInput).
+ *
+ * Sources change the Keyboard with press, release or setKeys, from any thread. Sources that are driven by
+ * emulated time (scripts, bots) do it in poll, which is called by the emulation thread at the beginning of
+ * every frame.
+ */
+public interface InputSource {
+
+    /**
+     * Starts sending key events to "keyboard".
+     */
+    void attach(Keyboard keyboard);
+
+    /**
+     * Called by the emulation thread at the beginning of frame "frame" (first frame is 0). When the source is set
+     * at the end of a boot restored from the cache, it is called for every frame skipped first (see Chip8.setInput).
+     */
+    void poll(long frame);
+
+    /**
+     * Stops sending key events.
+     */
+    void detach();
+}
@@ -1,167 +1,153 @@
 package chip8;
 
-import java.awt.*;
-import java.awt.event.KeyEvent;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author Ismael Rodríguez, ismaro3
  *
- * Class that manages the keyboard input.
+ * State of the 16 keys of the system:
  *
- * ORIGINAL:
  * 1 2 3 C
  * 4 5 6 D
  * 7 8 9 E
  * A 0 B F
  *
- * MAPPED:
- * 1 2 3 4
- * Q W E R
- * A S D F
- * Z X C V
+ * The state is a 16-bit mask (bit k set = key k pressed) kept in one volatile int and changed with atomic
+ * operations, so input sources (see InputSource) can write it from any thread without locks, and the CPU reads
+ * it with a single volatile read.
  */
 public class Keyboard {
 
-    public boolean[] pressed; //Array that stores the 16 posible pressed keys
-    public int numberOfPressedKeys = 0;
-    byte lastPressed;
+    private static final AtomicIntegerFieldUpdater<Keyboard> KEYS =
+            AtomicIntegerFieldUpdater.newUpdater(Keyboard.class, "keys");
+    private static final AtomicIntegerFieldUpdater<Keyboard> PRESS_EVENTS =
+            AtomicIntegerFieldUpdater.newUpdater(Keyboard.class, "pressEvents");
 
-    public Keyboard(){
-        pressed = new boolean[16];
-        prepareInput();
+    private volatile int keys; //Bit k set = key k pressed
+    private volatile byte lastPressed;
+
+    //Number of times a key has gone from released to pressed. Incremented after lastPressed is written, so a thread
+    //that sees a new value also sees its lastPressed.
+    private volatile int pressEvents;
+
+    //Thread sleeping in awaitPress, woken up when a key is pressed
+    private volatile Thread waitingThread;
+
+
+    /**
+     * Returns true if key "key" (0x0 - 0xF) is pressed.
+     */
+    public boolean isPressed(int key){
+        return (keys & (1 << key)) != 0;
     }
 
     /**
-     * Blocks all execution until a key if pressed.
-     * Then, it returns the pressed key byte.
+     * Returns true if any key is pressed.
      */
-    public byte waitForKey(){
-        while(numberOfPressedKeys==0){
-            try {
-                Thread.sleep(0);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+    public boolean isAnyPressed(){
+        return keys != 0;
+    }
+
+    /**
+     * Returns the mask of pressed keys (bit k set = key k pressed).
+     */
+    public int getKeys(){
+        return keys;
+    }
+
+    /**
+     * Returns the last key that has been pressed.
+     */
+    public byte getLastPressed(){
         return lastPressed;
     }
 
     /**
-     * Prepares the input, registering the listeners.
-     * When a key is pressed and it is inside the system range, its position in "pressed" is set to true
-     * and numberOfPressedKeys is incremented. If it is released, its position is set to false and numberOfPressedKeys
-     * is decremented.
+     * Returns the number of times a key has gone from released to pressed.
      */
-    private void prepareInput(){
-
-        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(new KeyEventDispatcher() {
-
-            @Override
-            public boolean dispatchKeyEvent(KeyEvent ke) {
-                synchronized (Keyboard.class) {
-                    switch (ke.getID()) {
-                        case KeyEvent.KEY_PRESSED:
-                            //System.out.println("pressed " + ke.getKeyCode());
-                            if(setKey(true,ke.getKeyCode())){
-                                numberOfPressedKeys++;
-                            }
-                            break;
-
-                        case KeyEvent.KEY_RELEASED:
-                            //System.out.println("released " + ke.getKeyCode());
-                            if(setKey(false,ke.getKeyCode())){
-                                numberOfPressedKeys--;
-                            }
-                            break;
-                    }
-                    return false;
-                }
-            }
-        });
+    public int getPressEvents(){
+        return pressEvents;
     }
 
 
     /**
-     * Returns true if a correct key has been pressed.
-     * Also, sets proper position in pressed to true or false (if pressed or released)
-     * and lastPressed to the last pressed key.
+     * Sets key "key" (0x0 - 0xF) as pressed.
      */
-    private boolean setKey(boolean value, int keycode){
-
-        switch(keycode){
-            case KeyEvent.VK_1:
-                pressed[0x1] = value;
-                lastPressed=0x1;
-                break;
-            case KeyEvent.VK_2:
-                pressed[0x2] = value;
-                lastPressed=0x2;
-                break;
-            case KeyEvent.VK_3:
-                pressed[0x3] = value;
-                lastPressed=0x3;
-                break;
-            case KeyEvent.VK_4:
-                pressed[0xC] = value;
-                lastPressed=0xC;
-                break;
-            case KeyEvent.VK_Q:
-                pressed[0x4] = value;
-                lastPressed=0x4;
-                break;
-            case KeyEvent.VK_W:
-                pressed[0x5] = value;
-                lastPressed=0x5;
-                break;
-            case KeyEvent.VK_E:
-                pressed[0x6] = value;
-                lastPressed=0x6;
-                break;
-            case KeyEvent.VK_R:
-                pressed[0xD] = value;
-                lastPressed=0xD;
-                break;
-            case KeyEvent.VK_A:
-                pressed[0x7] = value;
-                lastPressed=0x7;
-                break;
-            case KeyEvent.VK_S:
-                pressed[0x8] = value;
-                lastPressed=0x8;
-                break;
-            case KeyEvent.VK_D:
-                pressed[0x9] = value;
-                lastPressed=0x9;
-                break;
-            case KeyEvent.VK_F:
-                pressed[0xE] = value;
-                lastPressed=0xE;
-                break;
-            case KeyEvent.VK_Z:
-                pressed[0xA] = value;
-                lastPressed=0xA;
-                break;
-            case KeyEvent.VK_X:
-                pressed[0x0] = value;
-                lastPressed=0x0;
-                break;
-            case KeyEvent.VK_C:
-                pressed[0xB] = value;
-                lastPressed=0xB;
-                break;
-            case KeyEvent.VK_V:
-                pressed[0xF] = value;
-                lastPressed=0xF;
-                break;
-            default:
-                return false;
+    public void press(byte key){
+        int bit = 1 << key;
+        int previous;
+        do{
+            previous = keys;
+            if((previous & bit) != 0){
+                return; //Already pressed
+            }
+        } while(!KEYS.compareAndSet(this, previous, previous | bit));
+        pressed(key);
+    }
 
+    /**
+     * Sets key "key" (0x0 - 0xF) as released.
+     */
+    public void release(byte key){
+        int bit = 1 << key;
+        int previous;
+        do{
+            previous = keys;
+            if((previous & bit) == 0){
+                return; //Already released
+            }
+        } while(!KEYS.compareAndSet(this, previous, previous & ~bit));
+    }
+
+    /**
+     * Sets the state of all the keys at once (bit k set = key k pressed).
+     * If several keys go from released to pressed, the highest one is taken as the last pressed.
+     */
+    public void setKeys(int mask){
+        mask &= 0xFFFF;
+        int newlyPressed = mask & ~KEYS.getAndSet(this, mask);
+        if(newlyPressed != 0){
+            pressed((byte)(31 - Integer.numberOfLeadingZeros(newlyPressed)));
         }
-        return true;
+    }
 
+    //Records a key that has gone from released to pressed, and wakes up the thread waiting for it
+    private void pressed(byte key){
+        lastPressed = key;
+        PRESS_EVENTS.incrementAndGet(this);
+        Thread waiting = waitingThread;
+        if(waiting != null){
+            LockSupport.unpark(waiting);
+        }
     }
 
 
+    /**
+     * Makes the state of the keys a copy of the one of "other" (see Chip8.fork). No key events are sent.
+     */
+    void copyFrom(Keyboard other){
+        keys = other.keys;
+        lastPressed = other.lastPressed;
+        pressEvents = other.pressEvents;
+    }
 
 
+    /**
+     * Sleeps the calling thread, without using CPU, until a key is pressed (pressEvents is different from
+     * "seenPressEvents") or until System.nanoTime() reaches "deadlineNanos".
+     */
+    public void awaitPress(int seenPressEvents, long deadlineNanos){
+        waitingThread = Thread.currentThread();
+        try{
+            long nanosToWait = deadlineNanos - System.nanoTime();
+            while(pressEvents == seenPressEvents && nanosToWait > 0){
+                LockSupport.parkNanos(this, nanosToWait);
+                nanosToWait = deadlineNanos - System.nanoTime();
+            }
+        }
+        finally{
+            waitingThread = null;
+        }
+    }
 }
@@ -0,0 +1,661 @@
+package chip8;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Runs many systems ("lanes") with the same rom in lockstep, one instruction of every lane per cycle.
+ *
+ * The state is stored as a struct of arrays: register Vr of lane l is v[r * lanes + l], and PC, I, SP, DT and ST are
+ * arrays of one entry per lane. Each cycle, the lanes are grouped by PC (lanes running the same rom are mostly at the
+ * same address) and every group executes its instruction once: decoding is shared, and when all the lanes are in one
+ * group the ALU, load and skip instructions are plain loops over the register arrays, which the JIT vectorizes.
+ * Draws, memory accesses and the rest of the instructions run lane by lane.
+ *
+ * The operations are the ones of ProcessingUnit, quirks included, so every lane runs as a Chip8 system with the same
+ * random seed and keys (see exportLane). A lane that would throw an exception in ProcessingUnit (i.e. a stack
+ * overflow) is stopped (see isCrashed) without stopping the rest. Unknown instructions are skipped without logging.
+ * Only CHIP-8 roms are supported: the SUPER-CHIP instructions (see Machine) are skipped as unknown. The quirks are
+ * the ones of Quirks.DEFAULT.
+ */
+public class LockstepEngine {
+
+    private static final int MEMORY = 4096;
+    private static final int ROWS = 32;
+
+    private final int lanes;
+    private final int cyclesPerFrame;
+
+    //State, struct of arrays
+    private final byte[] v;         //v[r * lanes + lane]
+    private final short[] i;
+    private final short[] pc;
+    private final byte[] sp;
+    private final byte[] dt;
+    private final byte[] st;
+    private final short[] stack;    //stack[s * lanes + lane]
+    private final byte[] memory;    //memory[lane * MEMORY + address]
+    private final long[] screens;   //screens[lane * ROWS + y] (see Memory.getRow)
+    private final Random[] randoms;
+    private long frame;
+
+    //Keys and Fx0A, as in Keyboard and ProcessingUnit
+    private final int[] keys;
+    private final byte[] lastPressed;
+    private final int[] pressEvents;
+    private final boolean[] waiting;
+    private final byte[] waitRegister;
+    private final int[] waitPressEvents;
+
+    private final boolean[] crashed;
+
+    //Addresses written by any lane: their content may differ between lanes, so their instructions are fetched per lane
+    private final boolean[] written = new boolean[MEMORY];
+
+    //Groups of lanes by PC, rebuilt every cycle: the lanes of group g are order[groupStart[g]] to
+    //order[groupStart[g + 1] - 1]
+    private final int[] order;
+    private final int[] groupStart;
+    private final int[] groupPc;
+    private final int[] groupOf;        //Group of every lane
+    private final int[] groupStamp = new int[65536]; //Cycle in which a group has been created for a PC
+    private final int[] groupOfPc = new int[65536];
+    private int stamp;
+
+    //True if every lane is at the same PC, running (not waiting nor crashed) and in order, so the next cycle doesn't
+    //need to group them
+    private boolean converged;
+
+
+    /**
+     * Creates "lanes" systems with "rom" loaded, running at "cpuFreqHz". Lane l uses random seed "seed" + l.
+     */
+    public LockstepEngine(byte[] rom, int lanes, int cpuFreqHz, long seed){
+        if(lanes < 1){
+            throw new IllegalArgumentException("At least one lane is needed");
+        }
+        this.lanes = lanes;
+        this.cyclesPerFrame = cpuFreqHz / 60;
+        v = new byte[16 * lanes];
+        i = new short[lanes];
+        pc = new short[lanes];
+        sp = new byte[lanes];
+        dt = new byte[lanes];
+        st = new byte[lanes];
+        stack = new short[16 * lanes];
+        memory = new byte[lanes * MEMORY];
+        screens = new long[lanes * ROWS];
+        randoms = new Random[lanes];
+        keys = new int[lanes];
+        lastPressed = new byte[lanes];
+        pressEvents = new int[lanes];
+        waiting = new boolean[lanes];
+        waitRegister = new byte[lanes];
+        waitPressEvents = new int[lanes];
+        crashed = new boolean[lanes];
+        order = new int[lanes];
+        groupStart = new int[lanes + 1];
+        groupPc = new int[lanes];
+        groupOf = new int[lanes];
+
+        //Same initial memory as Memory and Chip8.loadGame
+        byte[] initial = new byte[MEMORY];
+        Memory reference = new Memory();
+        for(int address = 0; address < MEMORY; address++){
+            initial[address] = reference.get((short) address);
+        }
+        System.arraycopy(rom, 0, initial, 0x200, Math.min(rom.length, MEMORY - 0x200));
+        for(int lane = 0; lane < lanes; lane++){
+            System.arraycopy(initial, 0, memory, lane * MEMORY, MEMORY);
+            pc[lane] = 0x200;
+            randoms[lane] = new Random(seed + lane);
+        }
+    }
+
+
+    /**
+     * Returns the number of lanes.
+     */
+    public int getLanes(){
+        return lanes;
+    }
+
+    /**
+     * Returns the number of emulated frames.
+     */
+    public long getFrame(){
+        return frame;
+    }
+
+    /**
+     * Returns true if lane "lane" has stopped because its instruction would have thrown an exception.
+     */
+    public boolean isCrashed(int lane){
+        return crashed[lane];
+    }
+
+    /**
+     * Sets the keys pressed in lane "lane" (bit k set = key k pressed), as Keyboard.setKeys.
+     */
+    public void setKeys(int lane, int mask){
+        mask &= 0xFFFF;
+        int newlyPressed = mask & ~keys[lane];
+        keys[lane] = mask;
+        if(newlyPressed != 0){
+            lastPressed[lane] = (byte)(31 - Integer.numberOfLeadingZeros(newlyPressed));
+            pressEvents[lane]++;
+        }
+    }
+
+    /**
+     * Returns row "y" of the screen of lane "lane" (see Memory.getRow).
+     */
+    public long getRow(int lane, int y){
+        return screens[lane * ROWS + y];
+    }
+
+
+    /**
+     * Emulates one frame in every lane: cpuFreqHz/60 cycles and then the timers, as Chip8.runFrame.
+     */
+    public void runFrame(){
+        for(int cycle = 0; cycle < cyclesPerFrame; cycle++){
+            cycle();
+        }
+        for(int lane = 0; lane < lanes; lane++){
+            if(dt[lane] > 0){
+                dt[lane]--;
+            }
+            if(st[lane] > 0){
+                st[lane]--;
+            }
+        }
+        frame++;
+    }
+
+    /**
+     * Executes one instruction in every lane that is not waiting for a key nor crashed.
+     */
+    public void cycle(){
+        if(converged){
+            converged = false;
+            fetchAndExecute(pc[0] & 0xFFFF, 0, lanes, true);
+            return;
+        }
+        int groups = group();
+        if(groups == 1 && groupStart[1] == lanes){
+            fetchAndExecute(groupPc[0], 0, lanes, true);
+            return;
+        }
+        for(int g = 0; g < groups; g++){
+            fetchAndExecute(groupPc[g], groupStart[g], groupStart[g + 1], false);
+        }
+    }
+
+
+    /**
+     * Groups the running lanes by PC into order/groupStart/groupPc, with two passes over the lanes. Returns the
+     * number of groups.
+     */
+    private int group(){
+        stamp++;
+        int groups = 0;
+        groupStart[0] = 0;
+        for(int lane = 0; lane < lanes; lane++){
+            if(crashed[lane] || (waiting[lane] && !resume(lane))){
+                groupOf[lane] = -1;
+                continue;
+            }
+            int address = pc[lane] & 0xFFFF;
+            if(groupStamp[address] != stamp){
+                groupStamp[address] = stamp;
+                groupOfPc[address] = groups;
+                groupPc[groups] = address;
+                groupStart[groups + 1] = 0;
+                groups++;
+            }
+            int g = groupOfPc[address];
+            groupOf[lane] = g;
+            groupStart[g + 1]++;
+        }
+        for(int g = 0; g < groups; g++){
+            groupStart[g + 1] += groupStart[g];
+        }
+        //groupStart[g] is now the next free position of group g; after filling, the start of group g + 1
+        for(int lane = 0; lane < lanes; lane++){
+            int g = groupOf[lane];
+            if(g >= 0){
+                order[groupStart[g]++] = lane;
+            }
+        }
+        for(int g = groups; g > 0; g--){
+            groupStart[g] = groupStart[g - 1];
+        }
+        groupStart[0] = 0;
+        return groups;
+    }
+
+    /**
+     * Resumes lane "lane" if a key has been pressed since its Fx0A, as ProcessingUnit.resumeIfKeyPressed.
+     */
+    private boolean resume(int lane){
+        if(pressEvents[lane] == waitPressEvents[lane]){
+            return false;
+        }
+        v[waitRegister[lane] * lanes + lane] = (byte)(lastPressed[lane] & 0x0F);
+        waiting[lane] = false;
+        return true;
+    }
+
+
+    /**
+     * Fetches and executes the instruction at "address" in the lanes order[from] to order[to - 1] ("dense" if they
+     * are all the lanes, in order).
+     */
+    private void fetchAndExecute(int address, int from, int to, boolean dense){
+        if(address >= 0x8000){
+            for(int k = from; k < to; k++){
+                crash(order[k]); //Negative address
+            }
+            return;
+        }
+
+        //Increment PC
+        short next = (short)(address + 2);
+        if(dense){
+            Arrays.fill(pc, next);
+        }
+        else{
+            for(int k = from; k < to; k++){
+                pc[order[k]] = next;
+            }
+        }
+
+        if(address < MEMORY && (written[address] || (address + 1 < MEMORY && written[address + 1]))){
+            //Code written by the lanes: decoded lane by lane
+            for(int k = from; k < to; k++){
+                int lane = order[k];
+                int inst = (read(lane, address) & 0xFF) << 8 | (read(lane, address + 1) & 0xFF);
+                execute(inst, k, k + 1, false);
+            }
+            converged = false;
+            return;
+        }
+        int inst = (read(0, address) & 0xFF) << 8 | (read(0, address + 1) & 0xFF);
+        execute(inst, from, to, dense);
+    }
+
+    private byte read(int lane, int address){
+        return address > 0xFFF ? 0 : memory[lane * MEMORY + address];
+    }
+
+
+    /**
+     * Executes instruction "inst" in lanes order[from] to order[to - 1] (all of them, in order, if "dense").
+     */
+    private void execute(int inst, int from, int to, boolean dense){
+        int x = (inst >>> 8) & 0xF;
+        int y = (inst >>> 4) & 0xF;
+        byte kk = (byte) inst;
+        int n = inst & 0xF;
+        int xo = x * lanes;
+        int yo = y * lanes;
+
+        //Lanes stay at the same PC unless the instruction branches, crashes or waits (see crash and executeLaneF)
+        converged = dense;
+
+        switch(inst >>> 12){
+            case 0x0:
+                if(inst == 0x00E0){
+                    break;
+                }
+                if(inst == 0x00EE){
+                    converged = false;
+                    break;
+                }
+                return; //Unknown
+            case 0x1:
+                jump(from, to, dense, (short)(inst & 0x0FFF));
+                return;
+            case 0x3:
+                converged = false;
+                if(dense){
+                    int taken = 0;
+                    for(int l = 0; l < lanes; l++){
+                        int skip = v[xo + l] == kk ? 1 : 0;
+                        pc[l] += skip << 1;
+                        taken += skip;
+                    }
+                    converged = taken == 0 || taken == lanes;
+                    return;
+                }
+                break;
+            case 0x4:
+                converged = false;
+                if(dense){
+                    int taken = 0;
+                    for(int l = 0; l < lanes; l++){
+                        int skip = v[xo + l] != kk ? 1 : 0;
+                        pc[l] += skip << 1;
+                        taken += skip;
+                    }
+                    converged = taken == 0 || taken == lanes;
+                    return;
+                }
+                break;
+            case 0x5:
+                if(n != 0){
+                    return; //Unknown
+                }
+                converged = false;
+                if(dense){
+                    int taken = 0;
+                    for(int l = 0; l < lanes; l++){
+                        int skip = v[xo + l] == v[yo + l] ? 1 : 0;
+                        pc[l] += skip << 1;
+                        taken += skip;
+                    }
+                    converged = taken == 0 || taken == lanes;
+                    return;
+                }
+                break;
+            case 0x6:
+                if(dense){
+                    Arrays.fill(v, xo, xo + lanes, kk);
+                    return;
+                }
+                break;
+            case 0x7:
+                if(dense){
+                    for(int l = 0; l < lanes; l++){
+                        v[xo + l] = (byte)(v[xo + l] + kk);
+                    }
+                    return;
+                }
+                break;
+            case 0x8:
+                if(dense && n <= 3){
+                    alu(n, xo, yo);
+                    return;
+                }
+                break;
+            case 0x9:
+                if(n != 0){
+                    return; //Unknown
+                }
+                converged = false;
+                if(dense){
+                    int taken = 0;
+                    for(int l = 0; l < lanes; l++){
+                        int skip = v[xo + l] != v[yo + l] ? 1 : 0;
+                        pc[l] += skip << 1;
+                        taken += skip;
+                    }
+                    converged = taken == 0 || taken == lanes;
+                    return;
+                }
+                break;
+            case 0xA:
+                if(dense){
+                    Arrays.fill(i, (short)(inst & 0xFFF));
+                    return;
+                }
+                break;
+            case 0xB:
+            case 0xE:
+                converged = false;
+                break;
+        }
+
+        for(int k = from; k < to; k++){
+            executeLane(dense ? k : order[k], inst, x, y, kk, n);
+        }
+    }
+
+    /**
+     * 1nnn in every lane of the group.
+     */
+    private void jump(int from, int to, boolean dense, short address){
+        if(dense){
+            Arrays.fill(pc, address);
+        }
+        else{
+            for(int k = from; k < to; k++){
+                pc[order[k]] = address;
+            }
+        }
+    }
+
+    /**
+     * 8xy0 to 8xy3 over all the lanes.
+     */
+    private void alu(int n, int xo, int yo){
+        switch(n){
+            case 0x0:
+                System.arraycopy(v, yo, v, xo, lanes);
+                return;
+            case 0x1:
+                for(int l = 0; l < lanes; l++){
+                    v[xo + l] = (byte)(v[xo + l] | v[yo + l]);
+                }
+                return;
+            case 0x2:
+                for(int l = 0; l < lanes; l++){
+                    v[xo + l] = (byte)(v[xo + l] & v[yo + l]);
+                }
+                return;
+            default:
+                for(int l = 0; l < lanes; l++){
+                    v[xo + l] = (byte)(v[xo + l] ^ v[yo + l]);
+                }
+        }
+    }
+
+
+    /**
+     * Executes "inst" in one lane, with the operations of ProcessingUnit. PC has already been incremented.
+     */
+    private void executeLane(int lane, int inst, int x, int y, byte kk, int n){
+        int vx = x * lanes + lane;
+        int vy = y * lanes + lane;
+        int vf = 0xF * lanes + lane;
+        switch(inst >>> 12){
+            case 0x0:
+                if(inst == 0x00E0){
+                    Arrays.fill(screens, lane * ROWS, lane * ROWS + ROWS, 0);
+                }
+                else{
+                    if(sp[lane] < 0 || sp[lane] > 15){
+                        crash(lane);
+                        return;
+                    }
+                    pc[lane] = stack[sp[lane] * lanes + lane];
+                    sp[lane]--;
+                }
+                return;
+            case 0x2:
+                if(sp[lane] + 1 < 0 || sp[lane] + 1 > 15){
+                    crash(lane);
+                    return;
+                }
+                sp[lane]++;
+                stack[sp[lane] * lanes + lane] = pc[lane];
+                pc[lane] = (short)(inst & 0xFFF);
+                return;
+            case 0x3: if(v[vx] == kk) pc[lane] += 2; return;
+            case 0x4: if(v[vx] != kk) pc[lane] += 2; return;
+            case 0x5: if(v[vx] == v[vy]) pc[lane] += 2; return;
+            case 0x6: v[vx] = kk; return;
+            case 0x7: v[vx] = (byte)(v[vx] + kk); return;
+            case 0x8:
+                switch(n){
+                    case 0x0: v[vx] = v[vy]; return;
+                    case 0x1: v[vx] = (byte)(v[vx] | v[vy]); return;
+                    case 0x2: v[vx] = (byte)(v[vx] & v[vy]); return;
+                    case 0x3: v[vx] = (byte)(v[vx] ^ v[vy]); return;
+                    case 0x4: {
+                        int sum = (v[vx] & 0xFF) + (v[vy] & 0xFF);
+                        v[vf] = (byte)(sum >>> 8);
+                        v[vx] = (byte) sum;
+                        return;
+                    }
+                    case 0x5: {
+                        byte result = (byte)(v[vx] - v[vy]);
+                        v[vf] = (byte)((v[vx] & 0xFF) > (v[vy] & 0xFF) ? 1 : 0);
+                        v[vx] = result;
+                        return;
+                    }
+                    case 0x6:
+                        v[vf] = (byte)(v[vx] & 0x01);
+                        v[vx] = (byte)((v[vx] & 0xFF) >>> 1); //After VF is set, as ProcessingUnit.shr
+                        return;
+                    case 0x7: {
+                        byte result = (byte)(v[vy] - v[vx]);
+                        v[vf] = (byte)((v[vy] & 0xFF) > (v[vx] & 0xFF) ? 1 : 0);
+                        v[vx] = result;
+                        return;
+                    }
+                    case 0xE:
+                        v[vf] = (byte)((v[vx] & 0x80) != 0 ? 1 : 0);
+                        v[vx] = (byte)((v[vx] & 0xFF) << 1);
+                        return;
+                }
+                return; //Unknown
+            case 0x9: if(v[vx] != v[vy]) pc[lane] += 2; return;
+            case 0xA: i[lane] = (short)(inst & 0xFFF); return;
+            case 0xB: pc[lane] = (short)((v[lane] & 0xFF) + (inst & 0xFFF)); return;
+            case 0xC: v[vx] = (byte)((byte) randoms[lane].nextInt(266) & kk); return;
+            case 0xD: draw(lane, vx, vy, n); return;
+            case 0xE:
+                if((inst & 0xFF) == 0x9E){
+                    if((keys[lane] & (1 << (v[vx] & 0xF))) != 0) pc[lane] += 2;
+                }
+                else if((inst & 0xFF) == 0xA1){
+                    if((keys[lane] & (1 << (v[vx] & 0xF))) == 0) pc[lane] += 2;
+                }
+                return;
+            case 0xF:
+                executeLaneF(lane, inst & 0xFF, x, vx);
+        }
+    }
+
+    private void executeLaneF(int lane, int low, int x, int vx){
+        switch(low){
+            case 0x07: v[vx] = dt[lane]; return;
+            case 0x0A:
+                if(keys[lane] != 0){
+                    v[vx] = (byte)(lastPressed[lane] & 0x0F);
+                }
+                else{
+                    waiting[lane] = true;
+                    converged = false;
+                    waitRegister[lane] = (byte) x;
+                    waitPressEvents[lane] = pressEvents[lane];
+                }
+                return;
+            case 0x15: dt[lane] = v[vx]; return;
+            case 0x18: st[lane] = v[vx]; return;
+            case 0x1E: i[lane] = (short)((v[vx] & 0xFF) + (i[lane] & 0xFFFF)); return;
+            case 0x29: i[lane] = (short)(Memory.hexadecimalSpritesStartAddress + 5 * v[vx]); return;
+            case 0x33: {
+                int value = v[vx] & 0xFF;
+                if(write(lane, i[lane], (byte)(value / 100))
+                        && write(lane, (short)(i[lane] + 1), (byte)(value / 10 % 10))){
+                    write(lane, (short)(i[lane] + 2), (byte)(value % 10));
+                }
+                return;
+            }
+            case 0x55:
+                for(int r = 0; r <= x && write(lane, (short)(i[lane] + r), v[r * lanes + lane]); r++){
+                    //Stops at negative addresses
+                }
+                return;
+            case 0x65:
+                for(int r = 0; r <= x; r++){
+                    short address = (short)(i[lane] + r);
+                    if(address < 0){
+                        crash(lane);
+                        return;
+                    }
+                    v[r * lanes + lane] = read(lane, address);
+                }
+        }
+    }
+
+    /**
+     * Stops lane "lane", whose instruction would have thrown an exception in ProcessingUnit.
+     */
+    private void crash(int lane){
+        crashed[lane] = true;
+        converged = false;
+    }
+
+    /**
+     * Memory.set of one lane. Returns false, crashing the lane, if the address is negative.
+     */
+    private boolean write(int lane, short address, byte value){
+        if(address < 0){
+            crash(lane);
+            return false;
+        }
+        if(address <= 0xFFF){
+            memory[lane * MEMORY + address] = value;
+            written[address] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Dxyn of one lane, as ProcessingUnit.draw: Vx, Vy and the sprite rows are read again for every row, after VF is
+     * set by the previous one.
+     */
+    private void draw(int lane, int vx, int vy, int n){
+        int vf = 0xF * lanes + lane;
+        boolean collision = false;
+        for(int row = 0; row < n; row++){
+            short address = (short)(i[lane] + row);
+            if(address < 0){
+                crash(lane);
+                return;
+            }
+            long sprite = Long.rotateRight((read(lane, address) & 0xFFL) << 56, (v[vx] & 0xFF) % 64);
+            int screenRow = lane * ROWS + ((v[vy] & 0xFF) + row) % 32;
+            collision |= (screens[screenRow] & sprite) != 0;
+            screens[screenRow] ^= sprite;
+            v[vf] = (byte)(collision ? 1 : 0);
+        }
+    }
+
+
+    /**
+     * Copies the state of lane "lane" into "chip8" (i.e. to compare it with a system, see Chip8.getStateHash).
+     */
+    public void exportLane(int lane, Chip8 chip8){
+        Memory target = chip8.getMemory();
+        RegisterBank rb = chip8.getRegisterBank();
+        for(int address = 0; address < MEMORY; address++){
+            byte value = memory[lane * MEMORY + address];
+            if(target.get((short) address) != value){
+                target.set((short) address, value);
+            }
+        }
+        if(target.isHighResolution()){
+            target.setHighResolution(false);
+        }
+        for(int y = 0; y < ROWS; y++){
+            target.setWord(y * Memory.ROW_WORDS, screens[lane * ROWS + y]);
+        }
+        for(int s = 0; s < 16; s++){
+            target.stack[s] = stack[s * lanes + lane];
+            rb.V[s] = v[s * lanes + lane];
+        }
+        rb.I = i[lane];
+        rb.PC = pc[lane];
+        rb.SP = sp[lane];
+        rb.DT = dt[lane];
+        rb.ST = st[lane];
+        chip8.getProcessingUnit().restoreWait(waiting[lane], waitRegister[lane]);
+        chip8.setFrame(frame);
+    }
+}
@@ -0,0 +1,44 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Machines a rom can be written for. They share the CHIP-8 instructions; set the one of a rom with
+ * Chip8.setMachine before loading it.
+ *
+ * The SUPER-CHIP instructions (00Cn, 00FB to 00FF, Fx30, Fx75 and Fx85) are not valid CHIP-8 instructions, so they
+ * are executed in every machine. Only what changes the meaning of CHIP-8 roms depends on the machine: the 16x16
+ * sprites of Dxy0 (no sprite in CHIP-8) and the 8x10 digits in memory.
+ * The XO-CHIP instructions (5xy2, 5xy3, 00Dn, F000, Fn01, F002 and Fx3A) are not valid in the others either, and are
+ * executed in every machine too. XO-CHIP itself changes the memory size, and makes skips skip both words of F000.
+ */
+public enum Machine {
+
+    /**
+     * The original CHIP-8: 64x32 screen and 8xN sprites.
+     */
+    CHIP8,
+
+    /**
+     * SUPER-CHIP 1.1: CHIP-8 with a 128x64 mode, 16x16 sprites, scrolls, 8x10 digits and flag registers.
+     */
+    SCHIP,
+
+    /**
+     * XO-CHIP: SUPER-CHIP with 64KB of memory, two bitplanes (four colors) and an audio pattern buffer.
+     */
+    XOCHIP;
+
+
+    /**
+     * Returns the machine named "name" (case insensitive, i.e. "schip").
+     * @throws IllegalArgumentException if there is none.
+     */
+    public static Machine parse(String name){
+        for(Machine machine: values()){
+            if(machine.name().equalsIgnoreCase(name)){
+                return machine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown machine: " + name + " (known: chip8, schip, xochip)");
+    }
+}
@@ -1,24 +1,70 @@
 package chip8;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 
 /**
  * @author Ismael Rodríguez, ismaro3
  *
- * Main class, launches the emulator at the specified frequency and rom.
- * Only chip-8 system is implemented (Not chip-48 or anything else).
+ * Main class, the command line of the emulator. Without arguments it plays INVADERS at 500Hz.
+ * Chip-8, SUPER-CHIP and XO-CHIP systems are implemented (see Machine, --machine schip|xochip).
+ *
+ * Commands:
+ *   run [ROM]          Plays a rom in a window (default INVADERS). It is the command if none is given.
+ *   bench [ROM...]     Runs roms headless without waiting, and prints instructions/s and frames/s of each
+ *                      (default all the roms of the roms folder).
+ *   headless ROM       Runs a rom headless for --frames frames, and prints the state hash of every frame and the
+ *                      final state.
+ *
+ * Options (all optional):
+ *   --freq HZ          Emulated CPU frequency (default 500).
+ *   --machine NAME     chip8, schip or xochip (default -Dchip8.machine, see Machine).
+ *   --quirks NAME      default, vip, schip or xochip (default -Dchip8.quirks, see Quirks).
+ *   --engine NAME      reference (the control unit), switch or aot (the compiled rom, or switch if the rom has not
+ *                      been compiled). Default aot for compiled roms, reference for the rest.
+ *   --frames N         bench: measured frames per rom (default 3600). headless: frames (default 600).
+ *   --warmup N         bench: frames run before measuring (default 600).
+ *   --script FILE      bench and headless: input script replayed during the run (see InputScript).
+ *   --seed N           bench and headless: seed of the random generator (default 0, so runs are reproducible).
+ *
+ * A ROM is a file, or the name of a rom of the roms folder (i.e. PONG).
  */
 public class Main {
 
+    private static final String USAGE =
+            "Usage: chip8 [run|bench|headless] [OPTIONS] [ROM...]\n" +
+            "  run [ROM]        Plays a rom in a window (default INVADERS).\n" +
+            "  bench [ROM...]   Runs roms unthrottled and prints instructions/s and frames/s (default all roms).\n" +
+            "  headless ROM     Runs a rom for --frames frames and prints the frame hashes and the final state.\n" +
+            "Options: --freq HZ, --machine chip8|schip|xochip, --quirks default|vip|schip|xochip,\n" +
+            "         --engine reference|switch|aot, --frames N, --warmup N, --script FILE, --seed N";
 
-    public static void main(String[] args) {
+    //Characters of the colors of the pixels in the dump of headless (XO-CHIP has 4)
+    private static final char[] PIXELS = {'.', '#', '+', '@'};
 
-        int frequencyInHz = 500;
-        String rom = "INVADERS";
+
+    public static void main(String[] args) {
 
         try{
-            Chip8 chip8 = new Chip8(frequencyInHz); //500Hz
-            chip8.loadGame(rom);                    //Rom to load
-            chip8.startEmulationLoop();             //Start! :)
+            Options options = new Options(args);
+            if(options.command.equals("run")){
+                run(options);
+            }
+            else if(options.command.equals("bench")){
+                bench(options);
+            }
+            else{
+                headless(options);
+            }
+        }
+        catch(IllegalArgumentException ex){
+            System.err.println("[ERROR] " + ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
         }
         catch(Exception ex){
             ex.printStackTrace();
@@ -27,8 +73,202 @@ public class Main {
     }
 
 
+    /**
+     * Plays a rom in a window, at the real speed.
+     */
+    private static void run(Options options) throws Exception {
+        String rom = options.roms.isEmpty() ? "INVADERS" : options.roms.get(0);
+        Chip8 chip8 = new Chip8(options.cpuFreqHz);
+        load(chip8, rom, options);
+        Chip8Monitor.register(chip8, name(rom)); //Stats and frequency over JMX
+        chip8.startEmulationLoop();              //Start! :)
+    }
+
+    /**
+     * Runs every rom without waiting and prints its speed.
+     */
+    private static void bench(Options options) throws IOException {
+        List<String> roms = options.roms;
+        if(roms.isEmpty()){
+            String[] all = new File("roms").list();
+            if(all == null){
+                throw new IllegalArgumentException("No roms folder in " + new File("").getAbsolutePath()
+                        + ", give the roms to run");
+            }
+            Arrays.sort(all);
+            roms = Arrays.asList(all);
+        }
+
+        long totalFrames = 0;
+        long totalCycles = 0;
+        long totalNanos = 0;
+        for(String rom: roms){
+            Chip8 chip8 = newHeadless(rom, options);
+            for(int frame = 0; frame < options.warmup; frame++){
+                chip8.runFrame();
+            }
 
+            long initCycles = chip8.getCycles();
+            long initTime = System.nanoTime();
+            for(int frame = 0; frame < options.frames; frame++){
+                chip8.runFrame();
+            }
+            long nanos = System.nanoTime() - initTime;
+            long cycles = chip8.getCycles() - initCycles;
 
+            System.out.println(String.format("[INFO] %s (%s): %d frames in %d ms, %.0f frames/s, %.2f M instructions/s",
+                    name(rom), engineName(chip8.getEngine()), options.frames, nanos / 1000000,
+                    options.frames * 1e9 / nanos, cycles * 1e3 / nanos));
+            totalFrames += options.frames;
+            totalCycles += cycles;
+            totalNanos += nanos;
+        }
+        if(roms.size() > 1){
+            System.out.println(String.format("[INFO] Total: %d roms, %.0f frames/s, %.2f M instructions/s",
+                    roms.size(), totalFrames * 1e9 / totalNanos, totalCycles * 1e3 / totalNanos));
+        }
+    }
 
+    /**
+     * Runs a rom without waiting, printing the state hash after every frame, and then the final state.
+     */
+    private static void headless(Options options) throws IOException {
+        if(options.roms.size() != 1){
+            throw new IllegalArgumentException("headless runs one rom");
+        }
+        String rom = options.roms.get(0);
+        Chip8 chip8 = newHeadless(rom, options);
+        for(int frame = 0; frame < options.frames; frame++){
+            chip8.runFrame();
+            System.out.println(String.format("FRAME %d %016x", chip8.getFrame(), chip8.getStateHash()));
+        }
+
+        RegisterBank registerBank = chip8.getRegisterBank();
+        Memory memory = chip8.getMemory();
+        System.out.println(String.format("[INFO] %s (%s): %d frames, %d instructions", name(rom),
+                engineName(chip8.getEngine()), chip8.getFrame(), chip8.getCycles()));
+        System.out.println(String.format("PC=%03X I=%03X SP=%02X DT=%02X ST=%02X", registerBank.PC & 0xFFFF,
+                registerBank.I & 0xFFFF, registerBank.SP & 0xFF, registerBank.DT & 0xFF, registerBank.ST & 0xFF));
+        StringBuilder line = new StringBuilder();
+        for(int i = 0; i < 16; i++){
+            line.append(String.format(i == 0 ? "V%X=%02X" : " V%X=%02X", i, registerBank.V[i] & 0xFF));
+        }
+        System.out.println(line);
+        line.setLength(0);
+        line.append("STACK=");
+        for(int i = 1; i <= registerBank.SP && i < memory.stack.length; i++){ //CALL increments SP before storing
+            line.append(String.format(i == 1 ? "%03X" : " %03X", memory.stack[i] & 0xFFFF));
+        }
+        System.out.println(line);
+        for(int y = 0; y < memory.getHeight(); y++){
+            line.setLength(0);
+            for(int x = 0; x < memory.getWidth(); x++){
+                line.append(PIXELS[memory.getColor(x, y)]);
+            }
+            System.out.println(line);
+        }
+        System.out.println(String.format("HASH=%016x", chip8.getStateHash()));
+    }
 
+
+    /**
+     * Returns a headless system with the rom loaded, the engine selected, and the script and seed of "options".
+     */
+    private static Chip8 newHeadless(String rom, Options options) throws IOException {
+        Chip8 chip8 = new Chip8(options.cpuFreqHz, true);
+        chip8.setRandomSeed(options.seed);
+        load(chip8, rom, options);
+        if(options.script != null){
+            chip8.setInput(new ScriptedInput(InputScript.load(options.script)));
+        }
+        return chip8;
+    }
+
+    //Loads "rom" (a file, or a rom of the roms folder) with the machine, quirks and engine of "options"
+    private static void load(Chip8 chip8, String rom, Options options) throws IOException {
+        if(options.machine != null){
+            chip8.setMachine(options.machine);
+        }
+        if(options.quirks != null){
+            chip8.setQuirks(options.quirks);
+        }
+        File file = new File(rom);
+        if(!file.isFile()){
+            file = new File("roms", rom);
+        }
+        if(!file.isFile()){
+            throw new IllegalArgumentException("Rom not found: " + rom);
+        }
+        chip8.loadGame(file);
+
+        if(options.engine == null){
+            return; //The one chosen by loadGame
+        }
+        if(options.engine.equals("aot") && chip8.getMachine() == Machine.XOCHIP){
+            throw new IllegalArgumentException("XO-CHIP roms can not run compiled");
+        }
+        Engine.Factory factory = Engine.factory(options.engine);
+        chip8.setEngine(factory == null ? null : factory.create(chip8.getMemory(), chip8.getRegisterBank(),
+                chip8.getProcessingUnit()));
+    }
+
+    private static String name(String rom){
+        return new File(rom).getName();
+    }
+
+    private static String engineName(Engine engine){
+        if(engine instanceof CompiledEngine) return "aot";
+        if(engine instanceof SwitchEngine) return "switch";
+        return "reference";
+    }
+
+
+    /**
+     * Command, options and roms of the command line.
+     */
+    private static class Options {
+        String command = "run";
+        int cpuFreqHz = 500;
+        Machine machine;
+        Quirks quirks;
+        String engine;
+        int frames = -1;
+        int warmup = 600;
+        File script;
+        long seed;
+        List<String> roms = new ArrayList<String>();
+
+        Options(String[] args){
+            int i = 0;
+            if(args.length > 0 && (args[0].equals("run") || args[0].equals("bench") || args[0].equals("headless"))){
+                command = args[i++];
+            }
+            for(; i < args.length; i++){
+                String arg = args[i];
+                if(!arg.startsWith("--")){
+                    roms.add(arg);
+                    continue;
+                }
+                if(i + 1 >= args.length){
+                    throw new IllegalArgumentException("Missing value of argument: " + arg);
+                }
+                String value = args[++i];
+                if(arg.equals("--freq")) cpuFreqHz = Integer.parseInt(value);
+                else if(arg.equals("--machine")) machine = Machine.parse(value);
+                else if(arg.equals("--quirks")) quirks = Quirks.parse(value);
+                else if(arg.equals("--engine")) engine = value;
+                else if(arg.equals("--frames")) frames = Integer.parseInt(value);
+                else if(arg.equals("--warmup")) warmup = Integer.parseInt(value);
+                else if(arg.equals("--script")) script = new File(value);
+                else if(arg.equals("--seed")) seed = Long.parseLong(value);
+                else throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            if(frames < 0){
+                frames = command.equals("bench") ? 3600 : 600;
+            }
+            if(engine != null){
+                Engine.factory(engine); //Checks the name
+            }
+        }
+    }
 }
@@ -1,29 +1,68 @@
 package chip8;
+
+import java.util.Arrays;
+
 /**
  * @author Ismael Rodríguez, ismaro3
  *
  * Class that implements main memory, stack, screen memory (pixels) and drawFlag.
- * 4096 Bytes of memory.
+ * The screen is 64x32, or 128x64 in the high resolution of SUPER-CHIP, with two bitplanes in XO-CHIP.
+ * 4096 Bytes of memory (64KB in XO-CHIP).
  * Each address is 16bit.
  */
 public class Memory {
 
 
     //Preferences of screen
-    private static int width = 64;
-    private static int height = 32;
+    public static final int MAX_WIDTH = 128;
+    public static final int MAX_HEIGHT = 64;
     public static short hexadecimalSpritesStartAddress = 0x000;
+    public static short largeHexadecimalSpritesStartAddress = 0x050; //SUPER-CHIP 8x10 digits (see loadLargeSprites)
 
-    private  byte[] memory; //4KB of memory
+    //4KB of memory (64KB in XO-CHIP, see setSize), in pages shared copy-on-write with forks (see copyFrom). A page is
+    //copied before it is written unless it is owned. Pages never written are ZERO_PAGE, so a system only allocates
+    //the pages its rom and data use.
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    public static final int SIZE = 4096;
+    public static final int XO_CHIP_SIZE = 65536;
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+    private byte[][] pages;
+    private boolean[] owned;
+    private int size = SIZE;
+    private int limit = SIZE - 1;  //Last address
+    private int addressMask = -1;  //0xFFFF in 64KB memories, where addresses (shorts) are unsigned
 
     public  short[] stack; //Stack, 16 16-bit values
 
-    //Screen array. False = black. True = white.
-    public  boolean[][] pixels;
+    //Screen, packed one bit per pixel. Row y is screen[y * ROW_WORDS] (pixels 0 to 63, bit 63 is x = 0) and
+    //screen[y * ROW_WORDS + 1] (pixels 64 to 127). Low resolution (64x32) only uses the first word of rows 0 to 31,
+    //so scrolls and sprites are shifts and XORs of whole words in both resolutions.
+    //XO-CHIP bitplanes follow each other: plane p starts at screen[p * PLANE_WORDS]. Only plane 0 is used by CHIP-8
+    //and SUPER-CHIP. Operations on some planes take a mask of them: bit p for plane p.
+    static final int ROW_WORDS = MAX_WIDTH / 64;
+    public static final int PLANES = 2;
+    static final int PLANE_WORDS = MAX_HEIGHT * ROW_WORDS;
+    public static final int SCREEN_WORDS = PLANES * PLANE_WORDS; //Words of the whole screen (see copyScreen)
+
+    //Flags of the screen (see getScreenFlags)
+    public static final int HIGH_RESOLUTION = 1;
+    long[] screen;
+    private boolean highResolution;
 
     //Set to true when a sprite has been set to be drawn.
     public boolean drawFlag;
 
+    //Addresses watched for writes (i.e. compiled code, see CompiledEngine), and the ones written since watched.
+    //Null when nothing is watched.
+    private boolean[] watched;
+    private boolean[] written;
+    private int watchedWrites;
+
+    //Zobrist hashes of the content and of the screen, updated on every write (see StateHash)
+    private long memoryHash = StateHash.ZERO_MEMORY;
+    private long screenHash;
+
     //Default 8x5 sprites from 0 to F
     private static byte[] sprite_0 = new byte[]{(byte)0xF0,(byte)0x90,(byte)0x90,(byte)0x90,(byte)0xF0};
     private static byte[] sprite_1 = new byte[]{(byte)0x20,(byte)0x60,(byte)0x20,(byte)0x20,(byte)0x70};
@@ -42,14 +81,36 @@ public class Memory {
     private static byte[] sprite_E = new byte[]{(byte)0xF0,(byte)0x80,(byte)0xF0,(byte)0x80,(byte)0xF0};
     private static byte[] sprite_F = new byte[]{(byte)0xF0,(byte)0x80,(byte)0xF0,(byte)0x80,(byte)0x80};
 
+    //SUPER-CHIP 8x10 sprites from 0 to F, 10 bytes each
+    private static final int[] LARGE_SPRITES = {
+            0x3C, 0x7E, 0xE7, 0xC3, 0xC3, 0xC3, 0xC3, 0xE7, 0x7E, 0x3C,  //0
+            0x18, 0x38, 0x58, 0x18, 0x18, 0x18, 0x18, 0x18, 0x18, 0x3C,  //1
+            0x3E, 0x7F, 0xC3, 0x06, 0x0C, 0x18, 0x30, 0x60, 0xFF, 0xFF,  //2
+            0x3C, 0x7E, 0xC3, 0x03, 0x0E, 0x0E, 0x03, 0xC3, 0x7E, 0x3C,  //3
+            0x06, 0x0E, 0x1E, 0x36, 0x66, 0xC6, 0xFF, 0xFF, 0x06, 0x06,  //4
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFC, 0xFE, 0x03, 0xC3, 0x7E, 0x3C,  //5
+            0x3E, 0x7C, 0xE0, 0xC0, 0xFC, 0xFE, 0xC3, 0xC3, 0x7E, 0x3C,  //6
+            0xFF, 0xFF, 0x03, 0x06, 0x0C, 0x18, 0x30, 0x60, 0x60, 0x60,  //7
+            0x3C, 0x7E, 0xC3, 0xC3, 0x7E, 0x7E, 0xC3, 0xC3, 0x7E, 0x3C,  //8
+            0x3C, 0x7E, 0xC3, 0xC3, 0x7F, 0x3F, 0x03, 0x03, 0x3E, 0x7C,  //9
+            0x7E, 0xFF, 0xC3, 0xC3, 0xC3, 0xFF, 0xFF, 0xC3, 0xC3, 0xC3,  //A
+            0xFE, 0xFF, 0xC3, 0xFE, 0xFE, 0xC3, 0xC3, 0xC3, 0xFF, 0xFE,  //B
+            0x3C, 0xFF, 0xC3, 0xC0, 0xC0, 0xC0, 0xC0, 0xC3, 0xFF, 0x3C,  //C
+            0xFC, 0xFE, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xFE, 0xFC,  //D
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF,  //E
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xC0, 0xC0   //F
+    };
+
 
     /**
      * Creates a new memory object and loads default sprites in it.
      */
     public Memory(){
-        this.memory = new byte[4096];
+        this.pages = new byte[SIZE / PAGE_SIZE][];
+        this.owned = new boolean[SIZE / PAGE_SIZE];
+        Arrays.fill(pages, ZERO_PAGE);
         this.stack = new short[16];
-        this.pixels = new boolean[width][height];
+        this.screen = new long[PLANES * PLANE_WORDS];
         loadDefaultSpritesOnMemory();
 
     }
@@ -58,12 +119,13 @@ public class Memory {
      * Returns the content of a memory address.
      */
     public  byte get(short address){
-        if(address>0xFFF){
+        int a = address & addressMask;
+        if(a>limit){
             System.err.println(String.format("Memory GET access out of range: 0x%4s",address));
             return 0x0;
         }
         else{
-            return memory[address];
+            return pages[a >>> PAGE_BITS][a & (PAGE_SIZE - 1)];
         }
     }
 
@@ -71,11 +133,381 @@ public class Memory {
      * Sets the content of one byte of memory.
      */
     public  void set(short address, byte content){
-        if(address>0xFFF){
+        int a = address & addressMask;
+        if(a>limit){
             System.err.println(String.format("Memory SET access out of range: 0x%4s", address));
         }
         else{
-            memory[address] = content;
+            int page = a >>> PAGE_BITS;
+            if(!owned[page]){
+                pages[page] = pages[page].clone(); //Shared with a fork, or ZERO_PAGE
+                owned[page] = true;
+            }
+            int offset = a & (PAGE_SIZE - 1);
+            memoryHash ^= StateHash.memory(a, pages[page][offset]) ^ StateHash.memory(a, content);
+            pages[page][offset] = content;
+            if(watched != null && a < watched.length && watched[a]){
+                written[a] = true;
+                watchedWrites++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of memory: SIZE, or XO_CHIP_SIZE.
+     */
+    public int getSize(){
+        return size;
+    }
+
+    /**
+     * Sets the number of bytes of memory (SIZE or XO_CHIP_SIZE). Addresses added are 0, and the ones removed are lost.
+     */
+    void setSize(int size){
+        if(size == this.size){
+            return;
+        }
+        int previousPages = pages.length;
+        pages = Arrays.copyOf(pages, size / PAGE_SIZE);
+        owned = Arrays.copyOf(owned, size / PAGE_SIZE);
+        if(pages.length > previousPages){
+            Arrays.fill(pages, previousPages, pages.length, ZERO_PAGE);
+        }
+        this.size = size;
+        this.limit = size - 1;
+        this.addressMask = size > 0x8000 ? 0xFFFF : -1;
+
+        long hash = 0;
+        for(int address = 0; address < size; address++){
+            hash ^= StateHash.memory(address, get((short) address));
+        }
+        memoryHash = hash;
+    }
+
+    /**
+     * Returns the Zobrist hash of the content of memory (see StateHash).
+     */
+    public long getMemoryHash(){
+        return memoryHash;
+    }
+
+    /**
+     * Returns the Zobrist hash of the pixels set on the screen (see StateHash).
+     */
+    public long getScreenHash(){
+        return screenHash;
+    }
+
+    /**
+     * Returns the width of the screen in the current resolution: 64, or 128 in high resolution.
+     */
+    public int getWidth(){
+        return highResolution ? MAX_WIDTH : 64;
+    }
+
+    /**
+     * Returns the height of the screen in the current resolution: 32, or 64 in high resolution.
+     */
+    public int getHeight(){
+        return highResolution ? MAX_HEIGHT : 32;
+    }
+
+    /**
+     * Returns true in the 128x64 mode of SUPER-CHIP (00FF).
+     */
+    public boolean isHighResolution(){
+        return highResolution;
+    }
+
+    /**
+     * Switches the resolution and clears the screen (every plane).
+     */
+    void setHighResolution(boolean highResolution){
+        this.highResolution = highResolution;
+        clearScreen();
+    }
+
+    /**
+     * Returns true if the pixel (x,y) is set in any plane.
+     */
+    public boolean getPixel(int x, int y){
+        return getColor(x, y) != 0;
+    }
+
+    /**
+     * Returns the color of the pixel (x,y): bit p is set if it is set in plane p (0 to 3).
+     */
+    public int getColor(int x, int y){
+        int index = y * ROW_WORDS + (x >>> 6);
+        int shift = x & 63;
+        return (int)((screen[index] << shift) >>> 63 | (screen[PLANE_WORDS + index] << shift) >>> 63 << 1);
+    }
+
+    /**
+     * Sets the pixel (x,y) of plane 0, keeping the screen hash up to date.
+     */
+    void setPixel(int x, int y, boolean value){
+        int index = y * ROW_WORDS + (x >>> 6);
+        long bit = 1L << (63 - (x & 63));
+        setWord(index, value ? screen[index] | bit : screen[index] & ~bit);
+    }
+
+    /**
+     * Returns word "word" (0 or 1) of row "y" of the screen, every plane ORed: pixels 64 * word to 64 * word + 63,
+     * bit 63 the first.
+     */
+    public long getWord(int y, int word){
+        int index = y * ROW_WORDS + word;
+        return screen[index] | screen[PLANE_WORDS + index];
+    }
+
+    /**
+     * Returns word "word" of row "y" of plane "plane" (see getWord).
+     */
+    public long getWord(int plane, int y, int word){
+        return screen[plane * PLANE_WORDS + y * ROW_WORDS + word];
+    }
+
+    /**
+     * Sets screen[index] to "word", keeping the screen hash up to date.
+     */
+    void setWord(int index, long word){
+        long previous = screen[index];
+        if(previous != word){
+            screenHash ^= StateHash.screen(index, previous) ^ StateHash.screen(index, word);
+            screen[index] = word;
+        }
+    }
+
+    /**
+     * Copies the whole screen, every plane in full resolution (SCREEN_WORDS words), into "words" from "offset":
+     * word w (0 or 1) of row y of plane p is at offset + p * 128 + y * 2 + w, bit 63 the first pixel (see getColor).
+     * In low resolution only the first word of rows 0 to 31 is used. Exported screens (see FrameServer and
+     * SharedFramebuffer) are sent this way, with getScreenFlags.
+     */
+    public void copyScreen(long[] words, int offset){
+        System.arraycopy(screen, 0, words, offset, SCREEN_WORDS);
+    }
+
+    /**
+     * Returns the flags of the screen: HIGH_RESOLUTION in the 128x64 mode.
+     */
+    public int getScreenFlags(){
+        return highResolution ? HIGH_RESOLUTION : 0;
+    }
+
+    /**
+     * Returns the color of pixel (x,y) of a screen copied with copyScreen into "words" from "offset" (see getColor).
+     */
+    public static int getColor(long[] words, int offset, int x, int y){
+        int index = offset + y * ROW_WORDS + (x >>> 6);
+        int shift = x & 63;
+        return (int)((words[index] << shift) >>> 63 | (words[PLANE_WORDS + index] << shift) >>> 63 << 1);
+    }
+
+    /**
+     * Returns row "y" (0 to 31) of the screen, every plane ORed, as a 64-bit mask: bit 63 is pixel (0,y), bit 0 is
+     * pixel (63,y). In high resolution the screen is scaled down to 64x32: a pixel is set if any of its 2x2 pixels is.
+     */
+    public long getRow(int y){
+        if(!highResolution){
+            return getWord(y, 0);
+        }
+        long left = getWord(2 * y, 0) | getWord(2 * y + 1, 0);
+        long right = getWord(2 * y, 1) | getWord(2 * y + 1, 1);
+        return halve(left) << 32 | halve(right);
+    }
+
+    //ORs the pixels of each pair of "word" into 32 bits, keeping their order
+    private static long halve(long word){
+        word = ((word | word << 1) >>> 1) & 0x5555555555555555L;
+        word = (word | word >>> 1) & 0x3333333333333333L;
+        word = (word | word >>> 2) & 0x0F0F0F0F0F0F0F0FL;
+        word = (word | word >>> 4) & 0x00FF00FF00FF00FFL;
+        word = (word | word >>> 8) & 0x0000FFFF0000FFFFL;
+        return (word | word >>> 16) & 0x00000000FFFFFFFFL;
+    }
+
+    /**
+     * Clears the screen (every plane).
+     */
+    void clearScreen(){
+        Arrays.fill(screen, 0);
+        screenHash = highResolution ? StateHash.HIGH_RESOLUTION : 0;
+    }
+
+    /**
+     * Clears the planes of "planes".
+     */
+    void clearScreen(int planes){
+        long hash = highResolution ? StateHash.HIGH_RESOLUTION : 0;
+        for(int plane = 0; plane < PLANES; plane++){
+            int start = plane * PLANE_WORDS;
+            if((planes & 1 << plane) != 0){
+                Arrays.fill(screen, start, start + PLANE_WORDS, 0);
+            }
+            else{
+                for(int index = start; index < start + PLANE_WORDS; index++){
+                    hash ^= StateHash.screen(index, screen[index]); //Kept plane
+                }
+            }
+        }
+        screenHash = hash;
+    }
+
+    /**
+     * Scrolls the planes of "planes" down "n" rows. The rows that enter are clear.
+     */
+    void scrollDown(int n, int planes){
+        n = Math.min(n, getHeight());
+        for(int plane = 0; plane < PLANES; plane++){
+            if((planes & 1 << plane) != 0){
+                int base = plane * PLANE_WORDS;
+                System.arraycopy(screen, base, screen, base + n * ROW_WORDS, (getHeight() - n) * ROW_WORDS);
+                Arrays.fill(screen, base, base + n * ROW_WORDS, 0);
+            }
+        }
+        rehashScreen();
+    }
+
+    /**
+     * Scrolls the planes of "planes" up "n" rows. The rows that enter are clear.
+     */
+    void scrollUp(int n, int planes){
+        n = Math.min(n, getHeight());
+        for(int plane = 0; plane < PLANES; plane++){
+            if((planes & 1 << plane) != 0){
+                int base = plane * PLANE_WORDS;
+                System.arraycopy(screen, base + n * ROW_WORDS, screen, base, (getHeight() - n) * ROW_WORDS);
+                Arrays.fill(screen, base + (getHeight() - n) * ROW_WORDS, base + getHeight() * ROW_WORDS, 0);
+            }
+        }
+        rehashScreen();
+    }
+
+    /**
+     * Scrolls the planes of "planes" right "n" (1 to 63) pixels. The pixels that enter are clear.
+     */
+    void scrollRight(int n, int planes){
+        for(int plane = 0; plane < PLANES; plane++){
+            if((planes & 1 << plane) == 0){
+                continue;
+            }
+            int end = plane * PLANE_WORDS + getHeight() * ROW_WORDS;
+            for(int index = plane * PLANE_WORDS; index < end; index += ROW_WORDS){
+                if(highResolution){
+                    screen[index + 1] = screen[index + 1] >>> n | screen[index] << (64 - n);
+                }
+                screen[index] >>>= n;
+            }
+        }
+        rehashScreen();
+    }
+
+    /**
+     * Scrolls the planes of "planes" left "n" (1 to 63) pixels. The pixels that enter are clear.
+     */
+    void scrollLeft(int n, int planes){
+        for(int plane = 0; plane < PLANES; plane++){
+            if((planes & 1 << plane) == 0){
+                continue;
+            }
+            int end = plane * PLANE_WORDS + getHeight() * ROW_WORDS;
+            for(int index = plane * PLANE_WORDS; index < end; index += ROW_WORDS){
+                screen[index] <<= n;
+                if(highResolution){
+                    screen[index] |= screen[index + 1] >>> (64 - n);
+                    screen[index + 1] <<= n;
+                }
+            }
+        }
+        rehashScreen();
+    }
+
+    private void rehashScreen(){
+        long hash = highResolution ? StateHash.HIGH_RESOLUTION : 0;
+        for(int index = 0; index < screen.length; index++){
+            hash ^= StateHash.screen(index, screen[index]);
+        }
+        screenHash = hash;
+    }
+
+    /**
+     * Starts watching writes to the addresses set in "addresses" (4096 entries), or stops it if null.
+     */
+    public void watch(boolean[] addresses){
+        this.watched = addresses;
+        if(addresses == null){
+            this.written = null;
+        }
+        else if(written == null || written.length != addresses.length){
+            this.written = new boolean[addresses.length];
+        }
+        else{
+            Arrays.fill(written, false); //Watched again (i.e. a recycled fork)
+        }
+        this.watchedWrites = 0;
+    }
+
+    /**
+     * Returns the number of writes to watched addresses since they are watched.
+     */
+    public int getWatchedWrites(){
+        return watchedWrites;
+    }
+
+    /**
+     * Returns true if the watched address "address" has been written since it is watched.
+     */
+    public boolean isWritten(int address){
+        return written != null && address < written.length && written[address];
+    }
+
+
+    /**
+     * Returns the first address whose content differs from the one of "other", or -1 if both are equal. If one is
+     * larger, its first address past the other one differs.
+     */
+    public int firstDifference(Memory other){
+        for(int page = 0; page < Math.min(pages.length, other.pages.length); page++){
+            if(pages[page] != other.pages[page] && !Arrays.equals(pages[page], other.pages[page])){
+                int offset = 0;
+                while(pages[page][offset] == other.pages[page][offset]){
+                    offset++;
+                }
+                return page * PAGE_SIZE + offset;
+            }
+        }
+        return size == other.size ? -1 : Math.min(size, other.size);
+    }
+
+
+    /**
+     * Makes this memory a copy of "other": pages are shared until one of both writes them, and the stack, screen
+     * and watched writes (see watch) are copied. Both must watch the same addresses, or none.
+     */
+    void copyFrom(Memory other){
+        if(size != other.size){
+            pages = new byte[other.pages.length][];
+            owned = new boolean[other.owned.length];
+            size = other.size;
+            limit = other.limit;
+            addressMask = other.addressMask;
+        }
+        for(int page = 0; page < pages.length; page++){
+            pages[page] = other.pages[page];
+            owned[page] = false;
+            other.owned[page] = false;
+        }
+        System.arraycopy(other.stack, 0, stack, 0, stack.length);
+        System.arraycopy(other.screen, 0, screen, 0, screen.length);
+        highResolution = other.highResolution;
+        drawFlag = other.drawFlag;
+        memoryHash = other.memoryHash;
+        screenHash = other.screenHash;
+        if(written != null && other.written != null){
+            System.arraycopy(other.written, 0, written, 0, written.length);
+            watchedWrites = other.watchedWrites;
         }
     }
 
@@ -86,7 +518,7 @@ public class Memory {
     public  void printMemory(short startAddress,short endAddress){
         short currentAddress = startAddress;
         while(currentAddress<=endAddress){
-           System.out.println(String.format("0x%03X:  %02X",currentAddress,memory[currentAddress]));
+           System.out.println(String.format("0x%03X:  %02X",currentAddress,get(currentAddress)));
             currentAddress+=0x1;
         }
 
@@ -147,24 +579,34 @@ public class Memory {
 
     }
 
+    /**
+     * Loads the SUPER-CHIP 8x10 digits (see ProcessingUnit.loadLargeHexadecimalSpriteOnI) from
+     * largeHexadecimalSpritesStartAddress, or clears them if not "loaded" (CHIP-8).
+     */
+    void setLargeSprites(boolean loaded){
+        for(int i = 0; i < LARGE_SPRITES.length; i++){
+            set((short)(largeHexadecimalSpritesStartAddress + i), loaded ? (byte) LARGE_SPRITES[i] : 0);
+        }
+    }
+
     /**
      * Prints the screen memory via stdout.
      */
     public  void printScreen(){
-        for(int x= 0; x < width; x++){
+        for(int x= 0; x < getWidth(); x++){
             System.out.print("-");
         }
         System.out.print("\n");
-        for(int y = 0; y < height; y++){
-            for(int x = 0; x < width; x++){
-                boolean value = pixels[x][y];
+        for(int y = 0; y < getHeight(); y++){
+            for(int x = 0; x < getWidth(); x++){
+                boolean value = getPixel(x, y);
                 if(value){
                     System.out.print("▮");
                 }
                 else{
                     System.out.print(" ");
                 }
-                if(x==width-1){
+                if(x==getWidth()-1){
                     System.out.print("|\n");
                 }
                 if(x==0){
@@ -172,7 +614,7 @@ public class Memory {
                 }
             }
         }
-        for(int x= 0; x < width; x++){
+        for(int x= 0; x < getWidth(); x++){
             System.out.print("-");
         }
     }
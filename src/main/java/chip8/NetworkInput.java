@@ -0,0 +1,79 @@
+package chip8;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Input read from a stream (i.e. a socket), one byte per event:
+ *   bit 7     -> 1 = key pressed, 0 = key released.
+ *   bits 3-0  -> key (0x0 - 0xF).
+ * A daemon thread reads the stream while attached.
+ */
+public class NetworkInput implements InputSource {
+
+    public static final int PRESSED = 0x80;
+
+    private InputStream in;
+    private Thread readThread;
+
+    public NetworkInput(InputStream in){
+        this.in = in;
+    }
+
+    /**
+     * Applies event "event" (see the format above) to "keyboard".
+     */
+    public static void apply(int event, Keyboard keyboard){
+        byte key = (byte)(event & 0x0F);
+        if((event & PRESSED) != 0){
+            keyboard.press(key);
+        }
+        else{
+            keyboard.release(key);
+        }
+    }
+
+    @Override
+    public void attach(final Keyboard keyboard) {
+        readThread = new Thread("chip8-network-input"){
+            public void run(){
+                try{
+                    int event;
+                    while((event = in.read()) >= 0){
+                        apply(event, keyboard);
+                    }
+                }
+                catch(IOException e){
+                    if(!isInterrupted()){
+                        e.printStackTrace();
+                    }
+                }
+            }
+        };
+        readThread.setDaemon(true);
+        readThread.start();
+    }
+
+    @Override
+    public void poll(long frame) {
+        //Events arrive through the read thread
+    }
+
+    /**
+     * Stops reading and closes the stream.
+     */
+    @Override
+    public void detach() {
+        if(readThread != null){
+            readThread.interrupt();
+            readThread = null;
+        }
+        try{
+            in.close();
+        }
+        catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+}
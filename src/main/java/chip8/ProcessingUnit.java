@@ -1,7 +1,8 @@
 package chip8;
 
 
-import java.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -12,19 +13,60 @@ import java.util.Random;
 public class ProcessingUnit {
 
     //Random management. It can be disabled for testing purposes.
+    //The generator is the linear congruential one of java.util.Random (same numbers for the same seed), inlined in a
+    //long so forks copy it (see copyFrom).
     public  boolean randomEnabled = true;
-    private  Random random ;
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+    private static final AtomicLong SEED_UNIQUIFIER = new AtomicLong(8682522807148012L);
+    private long randomState;
+    private long randomDraws;
+    private long keyReads; //Instructions that have read the keyboard (Ex9E, ExA1 and Fx0A)
 
     private Memory memory;
     private RegisterBank registerBank;
     private Keyboard keyboard;
 
+    //Machine of the rom (see Machine) and SUPER-CHIP flag registers (Fx75 and Fx85)
+    private Machine machine = Machine.CHIP8;
+    private final byte[] flags = new byte[8];
+
+    //Quirk profile of the rom (see Quirks), and its handlers, installed by setQuirks
+    private Quirks quirks = Quirks.DEFAULT;
+    private Quirks.Shift shift = quirks.shift;
+    private Quirks.Load load = quirks.load;
+    private Quirks.Jump jump = quirks.jump;
+    private Quirks.Clip clip = quirks.clip;
+
+    //XO-CHIP state: planes drawn, cleared and scrolled (Fn01, bit p for plane p), audio pattern (F002) and pitch
+    //(Fx3A). audioChanges counts the changes of pattern or pitch, so Chip8 only sends them to the audio output when
+    //they change. The default pattern is the square wave of the beeper.
+    private int planes = 1;
+    private final byte[] audioPattern = {-1, -1, -1, -1, -1, -1, -1, -1, 0, 0, 0, 0, 0, 0, 0, 0};
+    private int pitch = 64;
+    private int audioChanges;
+
+    //Flight Recorder events (see FlightEvents). Updated once per frame by Chip8.
+    private boolean drawEvents;
+    private boolean keyWaitEvents;
+    private int drawSampleCountdown = FlightEvents.DRAW_SAMPLE_PERIOD;
+
+    //Hot-address profiler. Null when profiling is disabled.
+    private Profiler profiler;
+
+    //Fx0A state: register where the key will be stored and press events seen when the wait started
+    private boolean waitingForKey;
+    private byte waitRegister;
+    private int waitPressEvents;
+    private FlightEvents.KeyWaitEnd keyWaitEndEvent;
+
     public ProcessingUnit(Memory memory, RegisterBank registerBank, Keyboard keyboard){
         this.memory = memory;
         this.registerBank = registerBank;
         this.keyboard = keyboard;
 
-        random = new Random();
+        setRandomSeed(SEED_UNIQUIFIER.addAndGet(181783497276652981L) ^ System.nanoTime());
 
     }
 
@@ -35,14 +77,72 @@ public class ProcessingUnit {
      */
     public  void cls(){
 
-        for(int x = 0; x < 64; x++){
-            for(int y = 0; y < 32; y++){
-                memory.pixels[x][y] = false;
-            }
-        }
+        memory.clearScreen(planes);
+
+        memory.drawFlag = true;
+
+    }
+
+    /**
+     * 00Cn - SCD nibble (SUPER-CHIP)
+     * Scroll the display down n pixels.
+     */
+    public void scrollDown(byte n){
+        memory.scrollDown(n, planes);
+        memory.drawFlag = true;
+    }
+
+    /**
+     * 00Dn - SCU nibble (XO-CHIP)
+     * Scroll the display up n pixels.
+     */
+    public void scrollUp(byte n){
+        memory.scrollUp(n, planes);
+        memory.drawFlag = true;
+    }
 
+    /**
+     * 00FB - SCR (SUPER-CHIP)
+     * Scroll the display right 4 pixels.
+     */
+    public void scrollRight(){
+        memory.scrollRight(4, planes);
         memory.drawFlag = true;
+    }
 
+    /**
+     * 00FC - SCL (SUPER-CHIP)
+     * Scroll the display left 4 pixels.
+     */
+    public void scrollLeft(){
+        memory.scrollLeft(4, planes);
+        memory.drawFlag = true;
+    }
+
+    /**
+     * 00FD - EXIT (SUPER-CHIP)
+     * Stop the interpreter. The PC stays on this instruction, so the program does nothing more.
+     */
+    public void exit(){
+        registerBank.PC = (short)(registerBank.PC - 0x2);
+    }
+
+    /**
+     * 00FE - LOW (SUPER-CHIP)
+     * Switch to the 64x32 display, and clear it.
+     */
+    public void lowResolution(){
+        memory.setHighResolution(false);
+        memory.drawFlag = true;
+    }
+
+    /**
+     * 00FF - HIGH (SUPER-CHIP)
+     * Switch to the 128x64 display, and clear it.
+     */
+    public void highResolution(){
+        memory.setHighResolution(true);
+        memory.drawFlag = true;
     }
     /**
      * 00EE - RET
@@ -55,6 +155,10 @@ public class ProcessingUnit {
         registerBank.PC = memory.stack[registerBank.SP]; //PC = address at top of stack
         registerBank.SP = (byte)(registerBank.SP - 0x01);
 
+        if(profiler != null){
+            profiler.ret();
+        }
+
 
     }
 
@@ -78,6 +182,10 @@ public class ProcessingUnit {
      */
     public  void call(short addr){
 
+        if(profiler != null){
+            profiler.call((short)(registerBank.PC - 0x2),addr); //PC has already been incremented
+        }
+
         registerBank.SP = (byte)(registerBank.SP + (byte)0x01); //Increment SP
         memory.stack[registerBank.SP] = registerBank.PC; //Put the current PC on the top of the stack.
         registerBank.PC = addr; //The PC is set to addr.
@@ -95,7 +203,7 @@ public class ProcessingUnit {
     public  void seByte(byte x, byte kk){
 
         if(registerBank.V[x]==kk){
-            registerBank.PC = (short)(registerBank.PC + (short)0x0002);
+            skip();
         }
 
     }
@@ -108,7 +216,7 @@ public class ProcessingUnit {
     public  void sneByte(byte x, byte kk){
 
         if(registerBank.V[x]!=kk){
-            registerBank.PC = (short)(registerBank.PC + (short)0x0002);
+            skip();
         }
 
     }
@@ -121,11 +229,47 @@ public class ProcessingUnit {
     public  void seRegister(byte x, byte y){
 
         if(registerBank.V[x]==registerBank.V[y]){
-            registerBank.PC = (short)(registerBank.PC + (short)0x0002);
+            skip();
         }
 
     }
 
+    /**
+     * 5xy2 - LD [I], Vx-Vy (XO-CHIP)
+     * Store registers Vx through Vy (in this order, also if x > y) in memory starting at location I. I is not changed.
+     */
+    public void saveRegisterRange(byte x, byte y){
+        int step = x <= y ? 1 : -1;
+        int count = Math.abs(y - x) + 1;
+        for(int i = 0; i < count; i++){
+            memory.set((short)(registerBank.I + i), registerBank.V[x + i * step]);
+        }
+    }
+
+    /**
+     * 5xy3 - LD Vx-Vy, [I] (XO-CHIP)
+     * Read registers Vx through Vy (in this order, also if x > y) from memory starting at location I. I is not
+     * changed.
+     */
+    public void loadRegisterRange(byte x, byte y){
+        int step = x <= y ? 1 : -1;
+        int count = Math.abs(y - x) + 1;
+        for(int i = 0; i < count; i++){
+            registerBank.V[x + i * step] = memory.get((short)(registerBank.I + i));
+        }
+    }
+
+    /**
+     * Skips the next instruction. In XO-CHIP, F000 nnnn is 4 bytes long, so skipping it skips both words.
+     */
+    private void skip(){
+        short pc = registerBank.PC;
+        if(machine == Machine.XOCHIP && memory.get(pc) == (byte)0xF0 && memory.get((short)(pc + 1)) == 0){
+            pc = (short)(pc + 0x2);
+        }
+        registerBank.PC = (short)(pc + 0x2);
+    }
+
     /**
      * 6xkk - LD Vx, byte
      * Set Vx = kk.
@@ -249,22 +393,18 @@ public class ProcessingUnit {
      *  8xy6 - SHR Vx {, Vy}
      *  Set Vx = Vx SHR 1.
      *  Shifts VX right by one. VF is set to the value of the least significant bit of VX before the shift.
-     *  //todo: Mastering the CHIP8 says another thing...
      *  //wikipedia: On the original interpreter, the value of VY is shifted, and the result is stored into VX.
-     *  On current implementations, Y is ignored.
+     *  On current implementations, Y is ignored. The register shifted is the one of the quirk profile (see Quirks).
      */
-    public  void shr(byte x){
-
-        byte leastSignificant = (byte)(registerBank.V[x] & (byte)0x01);
-        registerBank.V[0xF] = leastSignificant; //Set VF to the least significant bit of Vx before the shift.
-
-        //We have to cast it to unsigned int to work properly. If we don't do it, Bitwise operation does the cast
-        //with sign, so the result is incorrect.
-        int int_vx = (registerBank.V[x]&0xFF);
-        registerBank.V[x] = (byte) (int_vx >>> 1); // >>> operator means right shift one bit without sign propagation.
-
-
+    public  void shr(byte x, byte y){
+        shift.right(registerBank.V, x, y);
+    }
 
+    /**
+     *  8xx6 - SHR Vx (see shr(x, y)).
+     */
+    public  void shr(byte x){
+        shr(x, x);
     }
 
 
@@ -297,25 +437,17 @@ public class ProcessingUnit {
      * 8xyE - SHL Vx {, Vy}
      * Set Vx = Vx SHL 1.
      * If the most-significant bit of Vx is 1, then VF is set to 1, otherwise to 0. Then Vx is multiplied by 2.
-     * todo: Using modern approach as seen on documentation. Mastering chip8 follows original approach. (!)
+     * The original interpreter shifts Vy instead: the register shifted is the one of the quirk profile (see Quirks).
      */
-    public  void shl(byte x){
-
-        byte mostSignificant = (byte)(registerBank.V[x] & 0x80);
-        if(mostSignificant!=0){
-            //If 0x10000000 -> set to 0x01
-            mostSignificant = (byte)0x01;
-        }
-        registerBank.V[0xF] = mostSignificant; //Set VF to the least significant bit of Vx before the shift.
-
-
-        //We have to cast it to unsigned int to work properly. If we don't do it, Bitwise operation does the cast
-        //with sign, so the result is incorrect.
-        int int_vx = (registerBank.V[x]&0xFF);
-        registerBank.V[x] = (byte) (int_vx << 1); // >>> operator means right shift one bit without sign propagation.
-
-
+    public  void shl(byte x, byte y){
+        shift.left(registerBank.V, x, y);
+    }
 
+    /**
+     *  8xxE - SHL Vx (see shl(x, y)).
+     */
+    public  void shl(byte x){
+        shl(x, x);
     }
 
 
@@ -328,7 +460,7 @@ public class ProcessingUnit {
     public  void sneRegister(byte x, byte y){
 
         if(registerBank.V[x]!=registerBank.V[y]){
-            registerBank.PC = (short)(registerBank.PC + (short)0x0002);
+            skip();
         }
 
     }
@@ -345,6 +477,17 @@ public class ProcessingUnit {
     }
 
 
+    /**
+     * F000 nnnn - LD I, long addr (XO-CHIP)
+     * Set I = nnnn, the 16-bit word after the instruction, and skip it.
+     */
+    public void loadLongAddressOnI(){
+        short pc = registerBank.PC;
+        registerBank.I = (short)((memory.get(pc) & 0xFF) << 8 | (memory.get((short)(pc + 1)) & 0xFF));
+        registerBank.PC = (short)(pc + 0x2);
+    }
+
+
     /**
      * Bnnn - JP V0, addr
      * Jump to location nnn + V0.
@@ -354,7 +497,7 @@ public class ProcessingUnit {
      */
     public  void jpSum(short nnn){
 
-        int int_v0 = registerBank.V[0] & 0xff; //Unsigned
+        int int_v0 = jump.offset(registerBank.V, nnn); //Unsigned V0, or Vx in SUPER-CHIP (see Quirks)
         int int_nnn = nnn & 0xfff; //unsigned
 
 
@@ -378,13 +521,50 @@ public class ProcessingUnit {
 
 
 
+    /**
+     * Seeds the random generator used by Cxkk, so runs are reproducible (i.e. golden tests).
+     */
+    public void setRandomSeed(long seed){
+        randomState = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    /**
+     * Returns the number of random bytes generated by Cxkk.
+     */
+    public long getRandomDraws(){
+        return randomDraws;
+    }
+
+
+    /**
+     * Returns a number from 0 to "bound" - 1, as java.util.Random.nextInt(bound).
+     */
+    private int nextInt(int bound){
+        int r = next31();
+        int m = bound - 1;
+        if((bound & m) == 0){
+            return (int)((bound * (long) r) >> 31);
+        }
+        for(int u = r; u - (r = u % bound) + m < 0; u = next31()){
+            //Rejects the values of the last, incomplete, range
+        }
+        return r;
+    }
+
+    private int next31(){
+        randomState = (randomState * MULTIPLIER + ADDEND) & MASK;
+        return (int)(randomState >>> (48 - 31));
+    }
+
+
     /*
     If randomEnabled, returns a random Byte.
     Else, returns 0xBA.
      */
     private  byte randomByte(){
+        randomDraws++;
         if(randomEnabled){
-            return (byte) random.nextInt(266);
+            return (byte) nextInt(266);
         }
         else{
             return (byte)0xBA;
@@ -460,6 +640,42 @@ public class ProcessingUnit {
 
     }
 
+    /**
+     *  Fx30 - LD HF, Vx (SUPER-CHIP)
+     *  Set I = location of the 8x10 sprite for digit Vx.
+     */
+    public void loadLargeHexadecimalSpriteOnI(byte x){
+        registerBank.I = (short) (Memory.largeHexadecimalSpritesStartAddress + 10 * (registerBank.V[x] & 0x0F));
+    }
+
+    /**
+     *  Fn01 - PLANE n (XO-CHIP)
+     *  Select the planes (bit p for plane p, 0 to 3) drawn by Dxyn, and cleared and scrolled by 00E0 and the scrolls.
+     */
+    public void selectPlanes(byte n){
+        planes = n & 0x3;
+    }
+
+    /**
+     *  F002 - AUDIO (XO-CHIP)
+     *  Load the 16 bytes (128 1-bit samples, bit 7 of the first byte first) at location I into the audio pattern.
+     */
+    public void loadAudioPattern(){
+        for(int i = 0; i < audioPattern.length; i++){
+            audioPattern[i] = memory.get((short)(registerBank.I + i));
+        }
+        audioChanges++;
+    }
+
+    /**
+     *  Fx3A - PITCH Vx (XO-CHIP)
+     *  Set the pitch of the audio pattern to Vx: it plays at 4000 * 2 ^ ((Vx - 64) / 48) samples per second.
+     */
+    public void loadRegisterOnPitch(byte x){
+        pitch = registerBank.V[x] & 0xFF;
+        audioChanges++;
+    }
+
     /**
      *  Fx33 - LD B, Vx
      *   Store BCD representation of Vx in memory locations I, I+1, and I+2.
@@ -499,6 +715,7 @@ public class ProcessingUnit {
         for(byte reg = 0; reg <= x; reg++){
             memory.set((short)(registerBank.I+reg),registerBank.V[reg]);
         }
+        registerBank.I = load.after(registerBank.I, x); //Unchanged, or incremented in the original (see Quirks)
 
     }
 
@@ -514,6 +731,25 @@ public class ProcessingUnit {
         for(byte reg = 0; reg <= x; reg++){
             registerBank.V[reg] = memory.get((short)(registerBank.I+reg));
         }
+        registerBank.I = load.after(registerBank.I, x);
+    }
+
+
+
+    /**
+     *  Fx75 - LD R, Vx (SUPER-CHIP)
+     *  Store registers V0 through Vx (x < 8) in the flag registers.
+     */
+    public void saveFlags(byte x){
+        System.arraycopy(registerBank.V, 0, flags, 0, Math.min(x, 7) + 1);
+    }
+
+    /**
+     *  Fx85 - LD Vx, R (SUPER-CHIP)
+     *  Read registers V0 through Vx (x < 8) from the flag registers.
+     */
+    public void loadFlags(byte x){
+        System.arraycopy(flags, 0, registerBank.V, 0, Math.min(x, 7) + 1);
     }
 
 
@@ -526,46 +762,96 @@ public class ProcessingUnit {
      * sprites on screen at coordinates (Vx, Vy). Sprites are XORed onto the existing screen.
      * If this causes any pixels to be erased, VF is set to 1, otherwise it is set to 0. If the sprite is
      * positioned so part of it is outside the coordinates of the display, it wraps around to the opposite side of the
-     * screen. See instruction 8xy3 for more information on XOR, and section 2.4, Display, for more information on the
+     * screen, or is clipped, depending on the quirk profile (see Quirks). See instruction 8xy3 for more information on XOR, and section 2.4, Display, for more information on the
      * Chip-8 screen and sprites.
      */
     public  void draw(byte x, byte y, byte nibble){
 
-        byte readBytes = 0;
-
+        //Dxy0 draws a 16x16 sprite, 2 bytes per row, in SUPER-CHIP
+        int rows = nibble;
+        boolean large = nibble == 0 && machine != Machine.CHIP8;
+        if(large){
+            rows = 16;
+        }
 
+        //In XO-CHIP the sprite is drawn on each selected plane, the data of each plane after the one of the previous
         byte vf = (byte)0x0;
-        while(readBytes < nibble){
-
-            byte currentByte = memory.get((short)(registerBank.I +readBytes)); //Read one byte
-            for(int i = 0; i <=7; i++){
-                    //For every pixel
-
-                    //Calculate real coordinate
-                    int int_x = registerBank.V[x] & 0xFF;
-                    int int_y = registerBank.V[y] & 0xFF;
-                    int real_x = (int_x + i)%64;
-                    int real_y = (int_y + readBytes)%32;
-
+        int address = registerBank.I;
+        for(int plane = 0; plane < Memory.PLANES; plane++){
+            if((planes & 1 << plane) == 0){
+                continue;
+            }
+            int base = plane * Memory.PLANE_WORDS;
+            for(int row = 0; row < rows; row++){
+
+                long sprite; //Pixels of the row from bit 63
+                if(large){
+                    sprite = (memory.get((short)(address + 2 * row)) & 0xFFL) << 56
+                            | (memory.get((short)(address + 2 * row + 1)) & 0xFFL) << 48;
+                }
+                else{
+                    sprite = (memory.get((short)(address + row)) & 0xFFL) << 56; //Read one byte
+                }
+
+                int int_x = registerBank.V[x] & 0xFF;
+                int int_y = registerBank.V[y] & 0xFF;
+                if(clip.isVisible(int_y, row, memory.getHeight())
+                        && drawRow(base, int_x, int_y + row, clip.visible(sprite, int_x, memory.getWidth()))){
+                    //A pixel has been erased
+                    vf = (byte)0x01;
+                }
+
+                registerBank.V[0xF] = vf; //Set Vf. Will be 1 if a pixel has been erased
+            }
+            address += large ? 2 * rows : rows;
+        }
 
-                    boolean previousPixel = memory.pixels[real_x][real_y]; //Previous value of pixel
-                    boolean newPixel = previousPixel ^ isBitSet(currentByte,7-i); //XOR
+        memory.drawFlag = true;
 
-                    memory.pixels[real_x][real_y] = newPixel;
+        if(drawEvents && --drawSampleCountdown == 0){
+            drawSampleCountdown = FlightEvents.DRAW_SAMPLE_PERIOD;
+            FlightEvents.Draw event = new FlightEvents.Draw();
+            event.x = registerBank.V[x] & 0xFF;
+            event.y = registerBank.V[y] & 0xFF;
+            event.rows = rows;
+            event.collision = vf != 0;
+            event.commit();
+        }
 
-                    if(previousPixel == true && newPixel == false){
-                        //A pixel has been erased
-                        vf = (byte)0x01;
-                    }
+    }
 
-            }
 
-            registerBank.V[0xF] = vf; //Set Vf. Will be 1 if a pixel has been erased
-            readBytes++;
+    /**
+     * XORs the pixels of "sprite" (from bit 63) onto row "y" of the plane that starts at screen[base] from column
+     * "x", wrapping around both. Returns true if a pixel has been erased.
+     */
+    private boolean drawRow(int base, int x, int y, long sprite){
+        long[] screen = memory.screen;
+        if(!memory.isHighResolution()){
+            int index = base + (y & 31) * Memory.ROW_WORDS;
+            long bits = Long.rotateRight(sprite, x & 63);
+            long previous = screen[index];
+            memory.setWord(index, previous ^ bits);
+            return (previous & bits) != 0;
         }
 
-        memory.drawFlag = true;
-
+        //128-bit rotation of the sprite over both words of the row
+        int index = base + (y & 63) * Memory.ROW_WORDS;
+        x &= 127;
+        long first, second;
+        if(x < 64){
+            first = sprite >>> x;
+            second = x == 0 ? 0 : sprite << (64 - x);
+        }
+        else{
+            first = x == 64 ? 0 : sprite << (128 - x);
+            second = sprite >>> (x - 64);
+        }
+        long previousFirst = screen[index];
+        long previousSecond = screen[index + 1];
+        memory.setWord(index, previousFirst ^ first);
+        memory.setWord(index + 1, previousSecond ^ second);
+        return (previousFirst & first) != 0 || (previousSecond & second) != 0;
     }
 
 
@@ -577,9 +863,10 @@ public class ProcessingUnit {
      * down position, PC is increased by 2.
      */
     public void skipIfPressed(byte x){
+        keyReads++;
         byte key = (byte)(registerBank.V[x] & 0x0F); //Only last 4 bits
-        if(keyboard.pressed[key]){
-            registerBank.PC = (short) (registerBank.PC + 0x0002);
+        if(keyboard.isPressed(key)){
+            skip();
         }
 
     }
@@ -592,9 +879,10 @@ public class ProcessingUnit {
      * up position, PC is increased by 2.
      */
     public void skipIfNotPressed(byte x){
+        keyReads++;
         byte key = (byte)(registerBank.V[x] & 0x0F); //Only last 4 bits
-        if(!keyboard.pressed[key]){
-            registerBank.PC = (short) (registerBank.PC + 0x0002);
+        if(!keyboard.isPressed(key)){
+            skip();
         }
 
     }
@@ -606,21 +894,213 @@ public class ProcessingUnit {
      *
      * All executions stops until a key is pressed, then the value of that key is
      * stored in Vx.
+     * If a key is already pressed, its value is stored immediately. Otherwise the unit is suspended waiting for a key
+     * (see isWaitingForKey), without blocking the caller: timers and screen must keep running and resumeIfKeyPressed
+     * must be called until it returns true.
      */
     public void waitKey(byte x){
-        byte pressed = (byte)(keyboard.waitForKey() & 0x0F);
-        registerBank.V[x] = pressed;
+        keyReads++;
+        if(keyboard.isAnyPressed()){
+            registerBank.V[x] = (byte)(keyboard.getLastPressed() & 0x0F);
+            return;
+        }
+
+        waitingForKey = true;
+        waitRegister = x;
+        waitPressEvents = keyboard.getPressEvents();
+
+        if(keyWaitEvents){
+            FlightEvents.KeyWaitStart startEvent = new FlightEvents.KeyWaitStart();
+            startEvent.register = x;
+            startEvent.commit();
+            keyWaitEndEvent = new FlightEvents.KeyWaitEnd();
+            keyWaitEndEvent.begin();
+        }
+
+    }
+
+
+    /**
+     * Returns true if the unit is suspended by Fx0A, waiting for a key.
+     */
+    public boolean isWaitingForKey(){
+        return waitingForKey;
+    }
+
+    /**
+     * Returns the register where Fx0A stores the key, while waiting.
+     */
+    int getWaitRegister(){
+        return waitRegister;
+    }
+
+    /**
+     * Sets the Fx0A state of a restored system (see Snapshot). Only keys pressed from now on resume it.
+     */
+    void restoreWait(boolean waitingForKey, byte waitRegister){
+        this.waitingForKey = waitingForKey;
+        this.waitRegister = waitRegister;
+        this.waitPressEvents = keyboard.getPressEvents();
+    }
+
+    /**
+     * Sets the machine of the rom (see Machine).
+     */
+    void setMachine(Machine machine){
+        this.machine = machine;
+    }
+
+    public Machine getMachine(){
+        return machine;
+    }
+
+    /**
+     * Returns the SUPER-CHIP flag registers (Fx75 and Fx85).
+     */
+    byte[] getFlags(){
+        return flags;
+    }
+
+    /**
+     * Sets the quirk profile of the rom, installing its handlers (see Quirks).
+     */
+    void setQuirks(Quirks quirks){
+        this.quirks = quirks;
+        this.shift = quirks.shift;
+        this.load = quirks.load;
+        this.jump = quirks.jump;
+        this.clip = quirks.clip;
+    }
+
+    public Quirks getQuirks(){
+        return quirks;
+    }
+
+    /**
+     * Returns the XO-CHIP planes selected (Fn01): bit p for plane p.
+     */
+    int getPlanes(){
+        return planes;
+    }
+
+    void setPlanes(int planes){
+        this.planes = planes & 0x3;
+    }
+
+    /**
+     * Returns the XO-CHIP audio pattern (F002): 128 1-bit samples, bit 7 of the first byte first.
+     */
+    byte[] getAudioPattern(){
+        return audioPattern;
+    }
+
+    /**
+     * Returns the XO-CHIP pitch (Fx3A), 64 by default.
+     */
+    int getPitch(){
+        return pitch;
+    }
+
+    /**
+     * Returns the samples per second of the audio pattern, given by the pitch: 4000 by default.
+     */
+    public double getAudioRate(){
+        return 4000 * Math.pow(2, (pitch - 64) / 48.0);
+    }
+
+    /**
+     * Sets the audio pattern and pitch of a restored system (see Snapshot).
+     */
+    void setAudio(byte[] pattern, int pitch){
+        if(pitch != this.pitch || !Arrays.equals(pattern, audioPattern)){
+            System.arraycopy(pattern, 0, audioPattern, 0, audioPattern.length);
+            this.pitch = pitch;
+            audioChanges++;
+        }
+    }
+
+    /**
+     * Returns the number of changes of the audio pattern or pitch so far.
+     */
+    int getAudioChanges(){
+        return audioChanges;
+    }
+
+    /**
+     * Makes the state of this unit (random generator, Fx0A, machine registers and counters) a copy of the one of "other" (see Chip8.fork).
+     */
+    void copyFrom(ProcessingUnit other){
+        machine = other.machine;
+        setQuirks(other.quirks);
+        System.arraycopy(other.flags, 0, flags, 0, flags.length);
+        planes = other.planes;
+        setAudio(other.audioPattern, other.pitch);
+        randomEnabled = other.randomEnabled;
+        randomState = other.randomState;
+        randomDraws = other.randomDraws;
+        keyReads = other.keyReads;
+        waitingForKey = other.waitingForKey;
+        waitRegister = other.waitRegister;
+        waitPressEvents = other.waitPressEvents;
+    }
 
+    /**
+     * Returns the number of instructions that have read the keyboard (Ex9E, ExA1 and Fx0A).
+     */
+    public long getKeyReads(){
+        return keyReads;
+    }
+
+
+    /**
+     * If the unit is waiting for a key and a key has been pressed since Fx0A, stores its value in Vx and
+     * resumes the unit. Returns true if the unit is not waiting anymore.
+     */
+    public boolean resumeIfKeyPressed(){
+        if(!waitingForKey){
+            return true;
+        }
+        if(keyboard.getPressEvents() == waitPressEvents){
+            return false;
+        }
+
+        byte pressed = (byte)(keyboard.getLastPressed() & 0x0F);
+        registerBank.V[waitRegister] = pressed;
+        waitingForKey = false;
+
+        if(keyWaitEndEvent != null){
+            keyWaitEndEvent.register = waitRegister;
+            keyWaitEndEvent.key = pressed;
+            keyWaitEndEvent.commit();
+            keyWaitEndEvent = null;
+        }
+        return true;
+    }
+
+
+    /**
+     * Sleeps the calling thread, without using CPU, until a key is pressed or until System.nanoTime() reaches
+     * "deadlineNanos". Used while the unit is waiting for a key.
+     */
+    public void awaitKey(long deadlineNanos){
+        keyboard.awaitPress(waitPressEvents, deadlineNanos);
+    }
+
+
+    /**
+     * Sets the profiler to update on CALL and RET (null to disable it).
+     */
+    void setProfiler(Profiler profiler){
+        this.profiler = profiler;
     }
 
 
     /**
-     * Returns true if bit n (starting from less significant) is set on byte b.
-     * False otherwise.
+     * Enables or disables the Draw and KeyWait Flight Recorder events.
      */
-    private  Boolean isBitSet(byte b, int bit)
-    {
-        return (b & (1 << bit)) != 0;
+    void setFlightEvents(boolean drawEvents, boolean keyWaitEvents){
+        this.drawEvents = drawEvents;
+        this.keyWaitEvents = keyWaitEvents;
     }
 
 
@@ -0,0 +1,79 @@
+package chip8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Profiles roms in headless mode, without waiting to simulate the real speed, and writes a Profiler report
+ * per rom (ROM.txt).
+ *
+ * Arguments (all optional):
+ *   --out DIR          Where reports are written (default build/reports/profile).
+ *   --script FILE      Input script replayed during the run (default benchmarks/scripts/default.txt).
+ *   --frames N         Emulated frames per rom (default 18000, 5 minutes of emulated time).
+ *   --freq HZ          Emulated CPU frequency (default 500).
+ *   --top N            Entries of each section of the report (default 20).
+ *   ROM...             Roms to profile (default all the roms of the roms folder).
+ */
+public class ProfileRunner {
+
+    public static void main(String[] args) throws IOException {
+        File outDir = new File("build/reports/profile");
+        File scriptFile = new File("benchmarks/scripts/default.txt");
+        int frames = 18000;
+        int cpuFreqHz = 500;
+        int top = 20;
+        String[] roms = null;
+
+        for(int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if(!arg.startsWith("--")){
+                roms = Arrays.copyOfRange(args, i, args.length);
+                break;
+            }
+            if(i + 1 >= args.length){
+                throw new IllegalArgumentException("Missing value of argument: " + arg);
+            }
+            String value = args[++i];
+            if(arg.equals("--out")) outDir = new File(value);
+            else if(arg.equals("--script")) scriptFile = new File(value);
+            else if(arg.equals("--frames")) frames = Integer.parseInt(value);
+            else if(arg.equals("--freq")) cpuFreqHz = Integer.parseInt(value);
+            else if(arg.equals("--top")) top = Integer.parseInt(value);
+            else throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+        if(roms == null){
+            roms = new File("roms").list();
+            Arrays.sort(roms);
+        }
+
+        InputScript script = InputScript.load(scriptFile);
+        outDir.mkdirs();
+        for(String rom: roms){
+            Chip8 chip8 = new Chip8(cpuFreqHz,true);
+            chip8.loadGame(rom);
+            Profiler profiler = new Profiler();
+            chip8.setProfiler(profiler);
+            chip8.setInput(new ScriptedInput(script));
+
+            long initTime = System.nanoTime();
+            for(int frame = 0; frame < frames; frame++){
+                chip8.runFrame();
+            }
+            long millis = (System.nanoTime() - initTime) / 1000000;
+
+            File report = new File(outDir, rom + ".txt");
+            PrintWriter out = new PrintWriter(report, "UTF-8");
+            try{
+                profiler.writeReport(out, rom + " (" + frames + " frames at " + cpuFreqHz + "Hz)", chip8.getMemory(), top);
+            }
+            finally{
+                out.close();
+            }
+            System.out.println("[INFO] " + rom + " profiled in " + millis + " ms: " + report);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package chip8;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Hot-address profiler. While enabled (see Chip8.setProfiler) it counts executed instructions by address and
+ * by opcode, backward jumps (loops) and CALL/RET edges (subroutines), and then it writes a report of the hottest
+ * ones with their disassembly.
+ *
+ * Every counter is a fixed-size array indexed by address or opcode, so the overhead per instruction is bounded
+ * (a few array increments) and nothing is allocated while the rom runs.
+ */
+public class Profiler {
+
+    private static final int ADDRESSES = 0x1000;
+    private static final int STACK_SIZE = 16;
+
+    private long instructions;
+    private final long[] addressCounts = new long[ADDRESSES];
+    private final long[] opcodeCounts = new long[0x10000];
+
+    //Backward jumps (JP and JP V0), by address of the jump. The loop goes from the target to the jump.
+    private final long[] backJumpCounts = new long[ADDRESSES];
+    private final int[] backJumpTargets = new int[ADDRESSES];
+    private int previousAddress = -1;
+    private int previousInstruction;
+
+    //Subroutines, by address of the subroutine and by address of the CALL
+    private final long[] callCounts = new long[ADDRESSES];
+    private final long[] callSiteCounts = new long[ADDRESSES];
+    private final long[] subroutineInstructions = new long[ADDRESSES]; //Executed inside (including nested calls)
+
+    //Shadow stack, used to know how many instructions are executed inside each subroutine
+    private final int[] shadowTargets = new int[STACK_SIZE];
+    private final long[] shadowInstructions = new long[STACK_SIZE];
+    private int shadowDepth;
+
+
+    /**
+     * Counts the instruction "instruction", fetched from address "pc".
+     */
+    public void instruction(short pc, short instruction){
+        int address = pc & 0xFFF;
+        instructions++;
+        addressCounts[address]++;
+        opcodeCounts[instruction & 0xFFFF]++;
+
+        int previousClass = previousInstruction >>> 12;
+        if(address <= previousAddress && (previousClass == 0x1 || previousClass == 0xB)){
+            backJumpCounts[previousAddress]++;
+            backJumpTargets[previousAddress] = address;
+        }
+        previousAddress = address;
+        previousInstruction = instruction & 0xFFFF;
+    }
+
+    /**
+     * Counts a CALL from address "site" to subroutine "target".
+     */
+    public void call(short site, short target){
+        int targetAddress = target & 0xFFF;
+        callCounts[targetAddress]++;
+        callSiteCounts[site & 0xFFF]++;
+        if(shadowDepth < STACK_SIZE){
+            shadowTargets[shadowDepth] = targetAddress;
+            shadowInstructions[shadowDepth] = instructions;
+        }
+        shadowDepth++;
+    }
+
+    /**
+     * Counts a RET.
+     */
+    public void ret(){
+        if(shadowDepth == 0){
+            return; //RET without CALL (i.e. profiler enabled inside a subroutine)
+        }
+        shadowDepth--;
+        if(shadowDepth < STACK_SIZE){
+            subroutineInstructions[shadowTargets[shadowDepth]] += instructions - shadowInstructions[shadowDepth];
+        }
+    }
+
+    public long getInstructions(){
+        return instructions;
+    }
+
+    public long getAddressCount(int address){
+        return addressCounts[address];
+    }
+
+
+    /**
+     * Writes the report of the "top" hottest addresses, loops, subroutines and opcodes.
+     * "memory" is used to disassemble the code.
+     */
+    public void writeReport(PrintWriter out, String title, Memory memory, int top){
+        out.println("CHIP-8 profile: " + title);
+        out.println("Instructions: " + instructions);
+
+        out.println();
+        out.println("Hottest addresses");
+        out.println(String.format("  %-6s %12s %7s  %s", "ADDR", "COUNT", "%", "INSTRUCTION"));
+        for(int address: hottest(addressCounts, top)){
+            printInstruction(out, memory, address, addressCounts[address]);
+        }
+
+        out.println();
+        out.println("Hottest loops (backward jumps)");
+        out.println(String.format("  %-13s %12s %12s %7s", "RANGE", "ITERATIONS", "INSTRUCTIONS", "%"));
+        List<Integer> loops = hottest(backJumpCounts, top);
+        for(int jump: loops){
+            int header = backJumpTargets[jump];
+            out.println(String.format("  0x%03X-0x%03X %12d %12d %6.2f%%", header, jump, backJumpCounts[jump],
+                    rangeCount(header, jump), percent(rangeCount(header, jump))));
+        }
+        for(int jump: loops.subList(0, Math.min(5, loops.size()))){
+            out.println();
+            out.println(String.format("  Loop 0x%03X-0x%03X:", backJumpTargets[jump], jump));
+            for(int address = backJumpTargets[jump]; address <= jump; address += 2){
+                printInstruction(out, memory, address, addressCounts[address]);
+            }
+        }
+
+        out.println();
+        out.println("Hottest subroutines (instructions executed inside, including nested calls)");
+        out.println(String.format("  %-6s %12s %12s %7s  %s", "ADDR", "CALLS", "INSTRUCTIONS", "%", "CALL SITES"));
+        List<Integer> subroutines = hottest(subroutineInstructions, top);
+        for(int subroutine: subroutines){
+            out.println(String.format("  0x%03X  %12d %12d %6.2f%%  %s", subroutine, callCounts[subroutine],
+                    subroutineInstructions[subroutine], percent(subroutineInstructions[subroutine]),
+                    callSites(memory, subroutine)));
+        }
+        for(int subroutine: subroutines.subList(0, Math.min(5, subroutines.size()))){
+            out.println();
+            out.println(String.format("  Subroutine 0x%03X:", subroutine));
+            for(int address = subroutine, i = 0; address < ADDRESSES - 1 && i < 32; address += 2, i++){
+                printInstruction(out, memory, address, addressCounts[address]);
+                if(fetch(memory, address) == 0x00EE){
+                    break;
+                }
+            }
+        }
+
+        out.println();
+        out.println("Hottest opcodes");
+        out.println(String.format("  %-6s %12s %7s  %s", "OPCODE", "COUNT", "%", "INSTRUCTION"));
+        for(int opcode: hottest(opcodeCounts, top)){
+            out.println(String.format("  %04X   %12d %6.2f%%  %s", opcode, opcodeCounts[opcode],
+                    percent(opcodeCounts[opcode]), Disassembler.disassemble((short)opcode)));
+        }
+
+        out.println();
+        out.println("Opcode classes");
+        long[] classCounts = new long[16];
+        for(int opcode = 0; opcode < opcodeCounts.length; opcode++){
+            classCounts[opcode >>> 12] += opcodeCounts[opcode];
+        }
+        for(int nibble = 0; nibble < 16; nibble++){
+            out.println(String.format("  %Xnnn   %12d %6.2f%%", nibble, classCounts[nibble], percent(classCounts[nibble])));
+        }
+        out.flush();
+    }
+
+
+    private void printInstruction(PrintWriter out, Memory memory, int address, long count){
+        short instruction = fetch(memory, address);
+        out.println(String.format("  0x%03X  %12d %6.2f%%  %04X  %s", address, count, percent(count),
+                instruction & 0xFFFF, Disassembler.disassemble(instruction)));
+    }
+
+    //Addresses of the CALLs to "subroutine" that have been executed
+    private String callSites(Memory memory, int subroutine){
+        StringBuilder sb = new StringBuilder();
+        for(int address = 0; address < ADDRESSES - 1; address++){
+            if(callSiteCounts[address] > 0 && (fetch(memory, address) & 0xFFFF) == (0x2000 | subroutine)){
+                if(sb.length() > 0){
+                    sb.append(' ');
+                }
+                sb.append(String.format("0x%03X", address));
+            }
+        }
+        return sb.toString();
+    }
+
+    private long rangeCount(int from, int to){
+        long count = 0;
+        for(int address = from; address <= to; address++){
+            count += addressCounts[address];
+        }
+        return count;
+    }
+
+    private double percent(long count){
+        return instructions == 0 ? 0 : 100.0 * count / instructions;
+    }
+
+    private static short fetch(Memory memory, int address){
+        if(address + 1 >= ADDRESSES){
+            return 0;
+        }
+        byte mostSignificantByte = memory.get((short)address);
+        byte lessSignificantByte = memory.get((short)(address + 1));
+        return (short)((mostSignificantByte << 8) | (lessSignificantByte & 0x00FF));
+    }
+
+    //Indexes of the "top" highest non-zero counts, highest first
+    private static List<Integer> hottest(final long[] counts, int top){
+        List<Integer> indexes = new ArrayList<Integer>();
+        for(int i = 0; i < counts.length; i++){
+            if(counts[i] > 0){
+                indexes.add(i);
+            }
+        }
+        Collections.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(counts[b], counts[a]);
+            }
+        });
+        return indexes.subList(0, Math.min(top, indexes.size()));
+    }
+}
@@ -0,0 +1,198 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Quirk profiles: the behaviours of the instructions that differ between interpreters, so each rom runs as in the
+ * interpreter it was written for. Set the one of a rom with Chip8.setQuirks before loading it.
+ *
+ * Each quirk is an enum of handlers (Shift, Load, Jump and Clip) that do the part of the instruction that differs.
+ * ProcessingUnit installs the handlers of the profile when it is set, and calls them without checking the quirk, so
+ * the instructions never test quirk flags. A JVM that only runs one profile calls one handler of each quirk; one that
+ * runs several (tests, DifferentialHarness, several systems) makes the calls bimorphic or megamorphic.
+ */
+public enum Quirks {
+
+    /**
+     * The behaviour of this emulator: 8xy6 and 8xyE shift Vx, Fx55 and Fx65 leave I unchanged, Bnnn adds V0 and
+     * sprites wrap around the screen. All the roms of the roms folder run with it.
+     */
+    DEFAULT(Shift.VX, Load.KEEP_I, Jump.V0, Clip.WRAP),
+
+    /**
+     * The original COSMAC VIP interpreter: 8xy6 and 8xyE shift Vy into Vx, Fx55 and Fx65 leave I after the last
+     * register, Bnnn adds V0 and sprites are clipped at the edges of the screen.
+     */
+    VIP(Shift.VY, Load.INCREMENT_I, Jump.V0, Clip.CLIP),
+
+    /**
+     * SUPER-CHIP 1.1: 8xy6 and 8xyE shift Vx, Fx55 and Fx65 leave I unchanged, Bxnn adds Vx and sprites are clipped.
+     */
+    SCHIP(Shift.VX, Load.KEEP_I, Jump.VX, Clip.CLIP),
+
+    /**
+     * XO-CHIP (Octo): 8xy6 and 8xyE shift Vy into Vx, Fx55 and Fx65 leave I after the last register, Bnnn adds V0 and
+     * sprites wrap around the screen.
+     */
+    XOCHIP(Shift.VY, Load.INCREMENT_I, Jump.V0, Clip.WRAP);
+
+
+    public final Shift shift;
+    public final Load load;
+    public final Jump jump;
+    public final Clip clip;
+
+    Quirks(Shift shift, Load load, Jump jump, Clip clip){
+        this.shift = shift;
+        this.load = load;
+        this.jump = jump;
+        this.clip = clip;
+    }
+
+
+    /**
+     * Returns the profile named "name" (case insensitive, i.e. "vip").
+     * @throws IllegalArgumentException if there is none.
+     */
+    public static Quirks parse(String name){
+        for(Quirks quirks: values()){
+            if(quirks.name().equalsIgnoreCase(name)){
+                return quirks;
+            }
+        }
+        throw new IllegalArgumentException("Unknown quirks: " + name + " (known: default, vip, schip, xochip)");
+    }
+
+
+    /**
+     * Register shifted by 8xy6 and 8xyE, and the order of the writes when x or y is F.
+     */
+    public enum Shift {
+        VX {
+            //VF is set first and Vx is read after it, as this emulator always did: 8FF6 leaves VF >> 1
+            @Override
+            void right(byte[] V, byte x, byte y){
+                V[0xF] = (byte)(V[x] & 0x01);
+                V[x] = (byte)((V[x] & 0xFF) >>> 1); //Unsigned, so the sign is not shifted in
+            }
+
+            @Override
+            void left(byte[] V, byte x, byte y){
+                V[0xF] = (byte)((V[x] & 0x80) >>> 7);
+                V[x] = (byte)((V[x] & 0xFF) << 1);
+            }
+        },
+        VY {
+            //Vy is read once and VF written last, like the original interpreter: VF is the shifted out bit also when
+            //x or y is F
+            @Override
+            void right(byte[] V, byte x, byte y){
+                int vy = V[y] & 0xFF;
+                V[x] = (byte)(vy >>> 1);
+                V[0xF] = (byte)(vy & 0x01);
+            }
+
+            @Override
+            void left(byte[] V, byte x, byte y){
+                int vy = V[y] & 0xFF;
+                V[x] = (byte)(vy << 1);
+                V[0xF] = (byte)(vy >>> 7);
+            }
+        };
+
+        /**
+         * 8xy6: shifts the register right by one into Vx, and sets VF to the bit shifted out.
+         */
+        abstract void right(byte[] V, byte x, byte y);
+
+        /**
+         * 8xyE: shifts the register left by one into Vx, and sets VF to the bit shifted out.
+         */
+        abstract void left(byte[] V, byte x, byte y);
+    }
+
+    /**
+     * Value of I after Fx55 and Fx65.
+     */
+    public enum Load {
+        KEEP_I {
+            @Override
+            short after(short I, byte x){
+                return I;
+            }
+        },
+        INCREMENT_I {
+            @Override
+            short after(short I, byte x){
+                return (short)(I + x + 1);
+            }
+        };
+
+        /**
+         * Returns I after storing or reading registers V0 through Vx at I.
+         */
+        abstract short after(short I, byte x);
+    }
+
+    /**
+     * Register added to the address of Bnnn.
+     */
+    public enum Jump {
+        V0 {
+            @Override
+            int offset(byte[] V, short nnn){
+                return V[0] & 0xFF;
+            }
+        },
+        VX {
+            @Override
+            int offset(byte[] V, short nnn){
+                return V[(nnn >>> 8) & 0xF] & 0xFF; //Bxnn
+            }
+        };
+
+        /**
+         * Returns the unsigned value added to nnn.
+         */
+        abstract int offset(byte[] V, short nnn);
+    }
+
+    /**
+     * What happens to the pixels of a sprite beyond the edges of the screen. The position where a sprite starts
+     * wraps in both.
+     */
+    public enum Clip {
+        WRAP {
+            @Override
+            boolean isVisible(int y, int row, int height){
+                return true;
+            }
+
+            @Override
+            long visible(long sprite, int x, int width){
+                return sprite;
+            }
+        },
+        CLIP {
+            @Override
+            boolean isVisible(int y, int row, int height){
+                return (y & (height - 1)) + row < height;
+            }
+
+            @Override
+            long visible(long sprite, int x, int width){
+                int hidden = (x & (width - 1)) + 64 - width; //Pixels of the sprite word beyond the right edge
+                return hidden <= 0 ? sprite : sprite & -1L << hidden;
+            }
+        };
+
+        /**
+         * Returns true if row "row" of a sprite drawn at row "y" is drawn, in a screen of "height" rows.
+         */
+        abstract boolean isVisible(int y, int row, int height);
+
+        /**
+         * Returns the pixels of "sprite" (from bit 63) drawn at column "x", in a screen of "width" columns.
+         */
+        abstract long visible(long sprite, int x, int width);
+    }
+}
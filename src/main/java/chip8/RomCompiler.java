@@ -0,0 +1,400 @@
+package chip8;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Compiles roms ahead of time to Java classes (CompiledEngine subclasses in package chip8.aot).
+ *
+ * The rom is disassembled statically, following its control flow from 0x200: jumps, calls (and their return
+ * addresses) and both paths of the skips. Bnnn jumps are computed, so their targets are left to the interpreter.
+ * The reachable instructions are split in basic blocks, and every instruction and block gets its Java code, with the
+ * operands as constants. Classes are registered in META-INF/services/chip8.CompiledRom.
+ *
+ * Arguments (all optional):
+ *   --out DIR          Where the sources are written (default build/generated/aot/java).
+ *   --resources DIR    Where the service registration is written (default build/generated/aot/resources).
+ *   ROM...             Roms to compile (default all the roms of the roms folder).
+ */
+public class RomCompiler {
+
+    public static final String PACKAGE = "chip8.aot";
+    private static final int MAX_BLOCK = 64;  //Instructions
+    private static final int PAGE_BITS = 6;   //Instructions are split in methods of 64 addresses, small enough for the JIT
+
+    private String name;
+    private byte[] rom;
+    private TreeMap<Integer,Integer> instructions = new TreeMap<Integer,Integer>(); //Reachable address -> instruction
+    private TreeSet<Integer> leaders = new TreeSet<Integer>();                     //First addresses of blocks
+    private TreeMap<Integer,Integer> blocks = new TreeMap<Integer,Integer>();      //First address -> instructions
+
+
+    public RomCompiler(String name, byte[] rom){
+        this.name = name;
+        this.rom = rom;
+        findInstructions();
+        findBlocks();
+    }
+
+    /**
+     * Returns the name of the class compiled for rom "name".
+     */
+    public static String className(String name){
+        return "Rom_" + name.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    public int getInstructionCount(){
+        return instructions.size();
+    }
+
+    public int getBlockCount(){
+        return blocks.size();
+    }
+
+
+    //Follows the control flow from 0x200
+    private void findInstructions(){
+        Deque<Integer> pending = new ArrayDeque<Integer>();
+        pending.push(0x200);
+        leaders.add(0x200);
+        while(!pending.isEmpty()){
+            int address = pending.pop();
+            if(instructions.containsKey(address) || address < 0x200 || address + 1 >= 0x200 + rom.length){
+                continue;
+            }
+            int inst = ((rom[address - 0x200] & 0xFF) << 8) | (rom[address + 1 - 0x200] & 0xFF);
+            if(!Disassembler.isKnown((short) inst) || Disassembler.isXoChip((short) inst)){
+                continue; //Data. XO-CHIP instructions are not compiled: CompiledEngine interprets them
+            }
+            instructions.put(address, inst);
+
+            int next = address + 2;
+            int nnn = inst & 0xFFF;
+            switch(inst >>> 12){
+                case 0x0:
+                    if(!endsBlock(inst)){
+                        pending.push(next);
+                    }
+                    break; //00EE: the return address is followed from the call. 00FD: stops
+                case 0x1:
+                    branch(pending, nnn);
+                    break;
+                case 0x2:
+                    branch(pending, nnn);
+                    branch(pending, next);
+                    break;
+                case 0x3: case 0x4: case 0x5: case 0x9: case 0xE:
+                    branch(pending, next);
+                    branch(pending, next + 2);
+                    break;
+                case 0xB:
+                    break; //Computed jump
+                default:
+                    if(endsBlock(inst)){
+                        branch(pending, next);
+                    }
+                    else{
+                        pending.push(next);
+                    }
+            }
+        }
+    }
+
+    private void branch(Deque<Integer> pending, int target){
+        leaders.add(target);
+        pending.push(target);
+    }
+
+    //Instructions after which a block ends
+    private static boolean endsBlock(int inst){
+        switch(inst >>> 12){
+            case 0x0: return inst == 0x00EE || inst == 0x00FD;
+            case 0x1: case 0x2: case 0x3: case 0x4: case 0x5: case 0x9: case 0xB: case 0xE: return true;
+            case 0xF: //Fx0A suspends the unit, Fx33 and Fx55 may write code
+                int kk = inst & 0xFF;
+                return kk == 0x0A || kk == 0x33 || kk == 0x55;
+            default: return false;
+        }
+    }
+
+    private void findBlocks(){
+        for(int leader: leaders){
+            if(!instructions.containsKey(leader)){
+                continue;
+            }
+            int address = leader;
+            int length = 1;
+            while(!endsBlock(instructions.get(address)) && length < MAX_BLOCK
+                    && instructions.containsKey(address + 2) && !leaders.contains(address + 2)){
+                address += 2;
+                length++;
+            }
+            blocks.put(leader, length);
+        }
+    }
+
+
+    /**
+     * Returns the Java source of the compiled class.
+     */
+    public String generate(){
+        String className = className(name);
+        StringBuilder out = new StringBuilder();
+        out.append("package ").append(PACKAGE).append(";\n\n");
+        out.append("import chip8.CompiledEngine;\nimport chip8.CompiledRom;\nimport chip8.Memory;\n");
+        out.append("import chip8.ProcessingUnit;\nimport chip8.RegisterBank;\n\n");
+        out.append("/**\n * Rom \"").append(name).append("\" (").append(rom.length).append(" bytes, ")
+                .append(instructions.size()).append(" instructions, ").append(blocks.size())
+                .append(" blocks) compiled by RomCompiler. Do not edit.\n */\n");
+        out.append("public final class ").append(className).append(" extends CompiledEngine {\n\n");
+
+        out.append("    private static final int[] INSTRUCTIONS = {");
+        appendList(out, new ArrayList<Integer>(instructions.keySet()));
+        out.append("};\n\n    private static final int[] BLOCKS = {");
+        List<Integer> blockList = new ArrayList<Integer>();
+        for(Map.Entry<Integer,Integer> block: blocks.entrySet()){
+            blockList.add(block.getKey());
+            blockList.add(block.getValue());
+        }
+        appendList(out, blockList);
+        out.append("};\n\n");
+
+        out.append("    public ").append(className)
+                .append("(Memory memory, RegisterBank registerBank, ProcessingUnit pu){\n")
+                .append("        super(memory, registerBank, pu, INSTRUCTIONS, BLOCKS);\n    }\n\n");
+
+        //Single instructions
+        TreeMap<Integer,List<Integer>> pages = pages(instructions.keySet());
+        out.append("    @Override\n    protected boolean execute(int pc){\n        switch(pc >>> ").append(PAGE_BITS).append("){\n");
+        for(int page: pages.keySet()){
+            out.append("            case ").append(page).append(": return execute").append(page).append("(pc);\n");
+        }
+        out.append("        }\n        return false;\n    }\n\n");
+        for(Map.Entry<Integer,List<Integer>> page: pages.entrySet()){
+            out.append("    private boolean execute").append(page.getKey()).append("(int pc){\n        switch(pc){\n");
+            for(int address: page.getValue()){
+                int inst = instructions.get(address);
+                out.append(String.format("            case 0x%03X: //%04X %s%n", address, inst,
+                        Disassembler.disassemble((short) inst)));
+                appendInstruction(out, address, inst, true, "                ");
+                out.append("                return true;\n");
+            }
+            out.append("        }\n        return false;\n    }\n\n");
+        }
+
+        //Blocks
+        pages = pages(blocks.keySet());
+        out.append("    @Override\n    protected void executeBlock(int pc){\n        switch(pc >>> ").append(PAGE_BITS).append("){\n");
+        for(int page: pages.keySet()){
+            out.append("            case ").append(page).append(": executeBlock").append(page).append("(pc); return;\n");
+        }
+        out.append("        }\n        throw new IllegalStateException(\"No block at \" + pc);\n    }\n\n");
+        for(Map.Entry<Integer,List<Integer>> page: pages.entrySet()){
+            out.append("    private void executeBlock").append(page.getKey()).append("(int pc){\n        switch(pc){\n");
+            for(int start: page.getValue()){
+                int length = blocks.get(start);
+                out.append(String.format("            case 0x%03X:%n", start));
+                for(int i = 0; i < length; i++){
+                    int address = start + 2 * i;
+                    int inst = instructions.get(address);
+                    out.append(String.format("                //0x%03X %04X %s%n", address, inst,
+                            Disassembler.disassemble((short) inst)));
+                    appendInstruction(out, address, inst, i == length - 1, "                ");
+                }
+                out.append("                return;\n");
+            }
+            out.append("        }\n        throw new IllegalStateException(\"No block at \" + pc);\n    }\n\n");
+        }
+
+        //Service. It creates the engine through a static method that returns a CompiledEngine, so verifying the
+        //service does not load the compiled class: CompiledEngine.create loads the services of every compiled rom
+        out.append("    static CompiledEngine newEngine(Memory memory, RegisterBank registerBank, ProcessingUnit pu){\n");
+        out.append("        return new ").append(className).append("(memory, registerBank, pu);\n    }\n\n");
+        out.append("    public static class Rom implements CompiledRom {\n");
+        out.append("        public String getName(){ return \"").append(name).append("\"; }\n");
+        out.append(String.format("        public long getHash(){ return 0x%016XL; }%n", CompiledEngine.hash(rom, 0, rom.length)));
+        out.append("        public int getLength(){ return ").append(rom.length).append("; }\n");
+        out.append("        public CompiledEngine create(Memory memory, RegisterBank registerBank, ProcessingUnit pu){\n");
+        out.append("            return ").append(className).append(".newEngine(memory, registerBank, pu);\n        }\n    }\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private static TreeMap<Integer,List<Integer>> pages(Iterable<Integer> addresses){
+        TreeMap<Integer,List<Integer>> pages = new TreeMap<Integer,List<Integer>>();
+        for(int address: addresses){
+            int page = address >>> PAGE_BITS;
+            if(!pages.containsKey(page)){
+                pages.put(page, new ArrayList<Integer>());
+            }
+            pages.get(page).add(address);
+        }
+        return pages;
+    }
+
+    private static void appendList(StringBuilder out, List<Integer> values){
+        for(int i = 0; i < values.size(); i++){
+            out.append(i % 16 == 0 ? "\n            " : " ");
+            out.append(String.format("0x%X", values.get(i))).append(i < values.size() - 1 ? "," : "");
+        }
+        out.append("\n    ");
+    }
+
+
+    /**
+     * Appends the code of the instruction at "address". PC is only updated by control flow instructions and, if
+     * "last", by the rest (inside a block it is updated by its last instruction).
+     * Simple instructions are inlined; the rest call ProcessingUnit, so their behaviour is the one of the reference.
+     */
+    private static void appendInstruction(StringBuilder out, int address, int inst, boolean last, String indent){
+        int x = (inst >>> 8) & 0xF;
+        int y = (inst >>> 4) & 0xF;
+        int n = inst & 0xF;
+        int kk = inst & 0xFF;
+        int nnn = inst & 0xFFF;
+        String next = String.format("registerBank.PC = (short)0x%03X;", address + 2);
+        String code;
+        boolean setsPC = true;
+
+        switch(inst >>> 12){
+            case 0x0:
+                if(inst == 0x00EE){
+                    code = "pu.ret();";
+                }
+                else if(inst == 0x00FD){
+                    code = String.format("registerBank.PC = (short)0x%03X;", address); //EXIT: stays here
+                }
+                else{
+                    code = operation(inst, x, y, n, kk, nnn);
+                    setsPC = false;
+                }
+                break;
+            case 0x1: code = String.format("registerBank.PC = (short)0x%03X;", nnn); break;
+            case 0x2: code = next + String.format(" pu.call((short)0x%03X);", nnn); break;
+            case 0x3: code = skip(address, String.format("V[%d] == (byte)0x%02X", x, kk)); break;
+            case 0x4: code = skip(address, String.format("V[%d] != (byte)0x%02X", x, kk)); break;
+            case 0x5: code = skip(address, String.format("V[%d] == V[%d]", x, y)); break;
+            case 0x9: code = skip(address, String.format("V[%d] != V[%d]", x, y)); break;
+            case 0xB: code = String.format("pu.jpSum((short)0x%03X);", nnn); break;
+            case 0xE:
+                code = next + (kk == 0x9E ? " pu.skipIfPressed((byte)" : " pu.skipIfNotPressed((byte)") + x + ");";
+                break;
+            default:
+                setsPC = false;
+                code = operation(inst, x, y, n, kk, nnn);
+                if(endsBlock(inst)){ //Fx0A, Fx33, Fx55
+                    code = next + " " + code;
+                    setsPC = true;
+                }
+        }
+        out.append(indent).append(code).append('\n');
+        if(!setsPC && last){
+            out.append(indent).append(next).append('\n');
+        }
+    }
+
+    private static String skip(int address, String condition){
+        return String.format("registerBank.PC = (short)(%s ? 0x%03X : 0x%03X);", condition, address + 4, address + 2);
+    }
+
+    //Instructions that don't change the control flow
+    private static String operation(int inst, int x, int y, int n, int kk, int nnn){
+        switch(inst >>> 12){
+            case 0x0:
+                switch(inst){
+                    case 0x00E0: return "pu.cls();";
+                    case 0x00FB: return "pu.scrollRight();";
+                    case 0x00FC: return "pu.scrollLeft();";
+                    case 0x00FE: return "pu.lowResolution();";
+                    case 0x00FF: return "pu.highResolution();";
+                    default:     return String.format("pu.scrollDown((byte)%d);", n); //00Cn
+                }
+            case 0x6: return String.format("V[%d] = (byte)0x%02X;", x, kk);
+            case 0x7: return String.format("V[%d] = (byte)(V[%d] + 0x%02X);", x, x, kk);
+            case 0x8:
+                switch(n){
+                    case 0x0: return String.format("V[%d] = V[%d];", x, y);
+                    case 0x1: return String.format("V[%d] = (byte)(V[%d] | V[%d]);", x, x, y);
+                    case 0x2: return String.format("V[%d] = (byte)(V[%d] & V[%d]);", x, x, y);
+                    case 0x3: return String.format("V[%d] = (byte)(V[%d] ^ V[%d]);", x, x, y);
+                    case 0x4: return String.format("pu.addRegisterCarry((byte)%d, (byte)%d);", x, y);
+                    case 0x5: return String.format("pu.sub((byte)%d, (byte)%d);", x, y);
+                    case 0x6: return String.format("pu.shr((byte)%d, (byte)%d);", x, y);
+                    case 0x7: return String.format("pu.subn((byte)%d, (byte)%d);", x, y);
+                    default:  return String.format("pu.shl((byte)%d, (byte)%d);", x, y);
+                }
+            case 0xA: return String.format("registerBank.I = (short)0x%03X;", nnn);
+            case 0xC: return String.format("pu.rnd((byte)%d, (byte)0x%02X);", x, kk);
+            case 0xD: return String.format("pu.draw((byte)%d, (byte)%d, (byte)%d);", x, y, n);
+            default: //0xF
+                switch(kk){
+                    case 0x07: return String.format("pu.loadDTOnRegister((byte)%d);", x);
+                    case 0x0A: return String.format("pu.waitKey((byte)%d);", x);
+                    case 0x15: return String.format("pu.loadRegisterOnDT((byte)%d);", x);
+                    case 0x18: return String.format("pu.loadRegisterOnST((byte)%d);", x);
+                    case 0x1E: return String.format("pu.addToI((byte)%d);", x);
+                    case 0x29: return String.format("pu.loadHexadecimalSpriteOnI((byte)%d);", x);
+                    case 0x30: return String.format("pu.loadLargeHexadecimalSpriteOnI((byte)%d);", x);
+                    case 0x33: return String.format("pu.loadBCDtoMemory((byte)%d);", x);
+                    case 0x55: return String.format("pu.loadRegisterSequenceToMemory((byte)%d);", x);
+                    case 0x75: return String.format("pu.saveFlags((byte)%d);", x);
+                    case 0x85: return String.format("pu.loadFlags((byte)%d);", x);
+                    default:   return String.format("pu.loadMemorySequenceToRegister((byte)%d);", x);
+                }
+        }
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        File outDir = new File("build/generated/aot/java");
+        File resourcesDir = new File("build/generated/aot/resources");
+        String[] roms = null;
+
+        for(int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if(!arg.startsWith("--")){
+                roms = Arrays.copyOfRange(args, i, args.length);
+                break;
+            }
+            if(i + 1 >= args.length){
+                throw new IllegalArgumentException("Missing value of argument: " + arg);
+            }
+            String value = args[++i];
+            if(arg.equals("--out")) outDir = new File(value);
+            else if(arg.equals("--resources")) resourcesDir = new File(value);
+            else throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+        if(roms == null){
+            roms = new File("roms").list();
+            Arrays.sort(roms);
+        }
+
+        File packageDir = new File(outDir, PACKAGE.replace('.', '/'));
+        packageDir.mkdirs();
+        StringBuilder services = new StringBuilder();
+        for(String rom: roms){
+            RomCompiler compiler = new RomCompiler(rom, Files.toByteArray(new File("roms/" + rom)));
+            String className = className(rom);
+            Files.write(compiler.generate(), new File(packageDir, className + ".java"), Charsets.UTF_8);
+            services.append(PACKAGE).append('.').append(className).append("$Rom\n");
+            System.out.println("[INFO] ROM \"" + rom + "\" compiled: " + compiler.getInstructionCount()
+                    + " instructions, " + compiler.getBlockCount() + " blocks.");
+        }
+
+        File servicesDir = new File(resourcesDir, "META-INF/services");
+        servicesDir.mkdirs();
+        Files.write(services.toString(), new File(servicesDir, CompiledRom.class.getName()), Charsets.UTF_8);
+    }
+}
@@ -10,12 +10,15 @@ import java.awt.*;
 class Screen extends JPanel {
 
     private Graphics g;
-    private int scale = 10; //10 pixels for each emulated-system pixel.
-    private int width = 64 * scale;
-    private int height = 32 * scale;
+    private int width = 640;
+    private int height = 320;
+    private int scale = 10; //10 pixels for each emulated-system pixel (5 in high resolution).
 
     private Memory memory;
 
+    //Colors of the pixels: bit p set if the pixel is set in plane p (XO-CHIP). CHIP-8 and SUPER-CHIP only use plane 0
+    private static final Color[] PALETTE = {Color.BLACK, Color.WHITE, new Color(0xAAAAAA), new Color(0x555555)};
+
 
     public Screen(Memory memory) {
         this.memory = memory;
@@ -31,25 +34,29 @@ class Screen extends JPanel {
      * Paints a emulated-system pixel.
      */
     public void paintPixel(boolean white, int x, int y) {
-        if (white) {
-            g.setColor(Color.WHITE);
-        } else {
-            g.setColor(Color.BLACK);
-        }
+        paintPixel(white ? 1 : 0, x, y);
+    }
 
+    /**
+     * Paints a emulated-system pixel of color "color" (0 to 3, see Memory.getColor).
+     */
+    public void paintPixel(int color, int x, int y) {
+        g.setColor(PALETTE[color]);
         g.fillRect(x * scale, y * scale, scale, scale);
-
     }
 
     /**
-     * Paints full screen from screen memory.
+     * Paints full screen from screen memory. Only set pixels are painted, over the black background.
      */
     private void paintFullScreen() {
 
-        for (int y = 0; y < 32; y++) {
-            for (int x = 0; x < 64; x++) {
-                boolean value = memory.pixels[x][y];
-                paintPixel(value, x, y);
+        scale = width / memory.getWidth();
+        for (int y = 0; y < memory.getHeight(); y++) {
+            for (int x = 0; x < memory.getWidth(); x++) {
+                int color = memory.getColor(x, y);
+                if (color != 0) {
+                    paintPixel(color, x, y);
+                }
             }
         }
     }
@@ -0,0 +1,32 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Input that replays an InputScript, in emulated time: the events of each frame are applied at its beginning,
+ * so a run gets the same input no matter how fast it is emulated.
+ * Bots can do the same implementing InputSource and calling Keyboard.setKeys in poll.
+ */
+public class ScriptedInput implements InputSource {
+
+    private InputScript script;
+    private Keyboard keyboard;
+
+    public ScriptedInput(InputScript script){
+        this.script = script;
+    }
+
+    @Override
+    public void attach(Keyboard keyboard) {
+        this.keyboard = keyboard;
+    }
+
+    @Override
+    public void poll(long frame) {
+        script.apply((int) frame, keyboard);
+    }
+
+    @Override
+    public void detach() {
+        keyboard = null;
+    }
+}
@@ -0,0 +1,204 @@
+package chip8;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Publishes the screen, registers and frame number of a system on every frame into a memory-mapped file, so other
+ * processes read them straight from shared memory, without copies through sockets or pipes nor syscalls per frame.
+ *
+ * Layout of the file (little endian):
+ *   Header, HEADER_SIZE bytes:
+ *     0   int   MAGIC
+ *     4   int   LAYOUT
+ *     8   int   number of slots
+ *     12  int   SLOT_SIZE
+ *     16  long  head: number of frames published. Frame n is in slot n % slots.
+ *   Slots, SLOT_SIZE bytes each, from HEADER_SIZE:
+ *     0   long  sequence: odd while the slot is being written
+ *     8   long  index of the frame in the file (n)
+ *     16  long  emulated frame (Chip8.getFrame)
+ *     24  byte  V0 .. VF
+ *     40  short I
+ *     42  short PC
+ *     44  byte  SP, DT, ST
+ *     47  byte  flags of the screen (see Memory.getScreenFlags: resolution)
+ *     48  long  the whole screen, Memory.SCREEN_WORDS words: every XO-CHIP plane in full SUPER-CHIP resolution
+ *               (see Memory.copyScreen: bit 63 of a word is its first pixel)
+ *
+ * Each slot is a seqlock: the writer makes the sequence odd, writes, and makes it even (release). A reader reads the
+ * sequence (acquire), copies the slot and reads the sequence again: the copy is valid if both are equal and even.
+ * The writer never waits for readers; a reader that falls more than "slots" frames behind finds them overwritten.
+ */
+public class SharedFramebuffer implements VideoOutput, Closeable {
+
+    public static final int MAGIC = 0xC8FB0000;
+    public static final int LAYOUT = 2;
+    public static final int HEADER_SIZE = 64;
+    public static final int SLOT_SIZE = 2112; //2096 bytes used, rounded to cache lines
+    public static final int STATE_BYTES = 24; //Registers and flags of a frame (see read)
+
+    private static final int HEAD = 16;
+    private static final int SEQUENCE = 0;
+    private static final int INDEX = 8;
+    private static final int FRAME = 16;
+    private static final int REGISTERS = 24;
+    private static final int FLAGS = 47;
+    private static final int SCREEN = 48;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final RegisterBank registerBank; //Null for readers
+
+    private long head;
+    private long lastScreenHash = -1;
+    private final long[] screenWords = new long[Memory.SCREEN_WORDS];
+    private int screenFlags;
+
+
+    /**
+     * Creates (or truncates) "file" with "slots" slots and publishes into it the frames of the system of
+     * "registerBank" (set it with Chip8.setVideoOutput).
+     */
+    public SharedFramebuffer(File file, int slots, RegisterBank registerBank) throws IOException {
+        if(slots < 1){
+            throw new IllegalArgumentException("At least one slot is needed");
+        }
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * SLOT_SIZE);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.slots = slots;
+        this.registerBank = registerBank;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, LAYOUT);
+        buffer.putInt(8, slots);
+        buffer.putInt(12, SLOT_SIZE);
+        LONGS.setRelease(buffer, HEAD, 0L);
+    }
+
+    /**
+     * Opens "file", written by another process (or system), to read its frames.
+     * @throws IOException if it can't be read or it is not a framebuffer of this layout.
+     */
+    public static SharedFramebuffer open(File file) throws IOException {
+        return new SharedFramebuffer(file);
+    }
+
+    private SharedFramebuffer(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.file.length());
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(this.file.length() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != LAYOUT
+                || buffer.getInt(12) != SLOT_SIZE){
+            this.file.close();
+            throw new IOException("Not a framebuffer of layout " + LAYOUT + ": " + file);
+        }
+        this.slots = buffer.getInt(8);
+        this.registerBank = null;
+    }
+
+
+    /**
+     * Writes the state at the end of frame "frame" into the next slot. Called by the emulation thread.
+     */
+    @Override
+    public void frame(long frame, Memory memory) {
+        long screenHash = memory.getScreenHash();
+        if(screenHash != lastScreenHash){
+            lastScreenHash = screenHash;
+            memory.copyScreen(screenWords, 0);
+            screenFlags = memory.getScreenFlags();
+        }
+
+        int slot = HEADER_SIZE + (int)(head % slots) * SLOT_SIZE;
+        long sequence = (long) LONGS.get(buffer, slot + SEQUENCE);
+        LONGS.set(buffer, slot + SEQUENCE, sequence + 1);
+        VarHandle.storeStoreFence(); //The odd sequence is visible before any data
+
+        buffer.putLong(slot + INDEX, head);
+        buffer.putLong(slot + FRAME, frame);
+        for(int i = 0; i < 16; i++){
+            buffer.put(slot + REGISTERS + i, registerBank.V[i]);
+        }
+        buffer.putShort(slot + REGISTERS + 16, registerBank.I);
+        buffer.putShort(slot + REGISTERS + 18, registerBank.PC);
+        buffer.put(slot + REGISTERS + 20, registerBank.SP);
+        buffer.put(slot + REGISTERS + 21, registerBank.DT);
+        buffer.put(slot + REGISTERS + 22, registerBank.ST);
+        buffer.put(slot + FLAGS, (byte) screenFlags);
+        for(int i = 0; i < screenWords.length; i++){
+            buffer.putLong(slot + SCREEN + i * 8, screenWords[i]);
+        }
+
+        LONGS.setRelease(buffer, slot + SEQUENCE, sequence + 2);
+        head++;
+        LONGS.setRelease(buffer, HEAD, head);
+    }
+
+
+    /**
+     * Returns the number of frames published. The last one is getHead() - 1.
+     */
+    public long getHead(){
+        return (long) LONGS.getAcquire(buffer, HEAD);
+    }
+
+    /**
+     * Copies published frame "index" (0 to getHead() - 1): its screen into "screen" (Memory.SCREEN_WORDS words, see
+     * Memory.copyScreen and Memory.getColor) and its registers and flags into "state" (V0..VF, I and PC as 2 bytes
+     * each, SP, DT, ST and the screen flags: STATE_BYTES bytes), or null to skip them.
+     * Returns its emulated frame number, or -1 if it has been overwritten (or not published yet).
+     */
+    public long read(long index, long[] screen, byte[] state){
+        if(index < 0){
+            return -1;
+        }
+        int slot = HEADER_SIZE + (int)(index % slots) * SLOT_SIZE;
+        while(true){
+            long head = getHead();
+            if(index >= head || index < head - slots){
+                return -1;
+            }
+            long sequence = (long) LONGS.getAcquire(buffer, slot + SEQUENCE);
+            if((sequence & 1) != 0){
+                Thread.onSpinWait(); //Being written
+                continue;
+            }
+            long slotIndex = buffer.getLong(slot + INDEX);
+            long frame = buffer.getLong(slot + FRAME);
+            for(int i = 0; i < Memory.SCREEN_WORDS; i++){
+                screen[i] = buffer.getLong(slot + SCREEN + i * 8);
+            }
+            if(state != null){
+                for(int i = 0; i < STATE_BYTES; i++){
+                    state[i] = buffer.get(slot + REGISTERS + i);
+                }
+            }
+            VarHandle.loadLoadFence(); //The copy is read before the sequence is checked again
+            if((long) LONGS.get(buffer, slot + SEQUENCE) == sequence){
+                return slotIndex == index ? frame : -1; //Overwritten by a later frame
+            }
+        }
+    }
+
+
+    /**
+     * Closes the file. The mapping is released by the garbage collector.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,140 @@
+package chip8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Snapshot of the state of a system: memory, screen, stack, registers, Fx0A state, SUPER-CHIP flags, XO-CHIP
+ * planes and audio, and frame number, serialized to a byte array so it can be stored and restored into another system of the same machine.
+ *
+ * The state of the random generator is not included: a restored system keeps its own one.
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0xC8DA7A00;
+
+    //Format of the snapshot. Increment it on any change of capture/restore.
+    public static final int FORMAT = 3;
+
+    private Snapshot(){
+    }
+
+
+    /**
+     * Returns the state of "chip8".
+     */
+    public static byte[] capture(Chip8 chip8){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096 + 512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try{
+            Memory memory = chip8.getMemory();
+            RegisterBank rb = chip8.getRegisterBank();
+            ProcessingUnit pu = chip8.getProcessingUnit();
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(chip8.getFrame());
+
+            out.writeInt(memory.getSize());
+            for(int address = 0; address < memory.getSize(); address++){
+                out.writeByte(memory.get((short)address));
+            }
+
+            //Screen: resolution and the packed words of each plane, row by row (see Memory.getWord)
+            out.writeBoolean(memory.isHighResolution());
+            for(int plane = 0; plane < Memory.PLANES; plane++){
+                for(int y = 0; y < Memory.MAX_HEIGHT; y++){
+                    for(int word = 0; word < Memory.ROW_WORDS; word++){
+                        out.writeLong(memory.getWord(plane, y, word));
+                    }
+                }
+            }
+
+            for(short value: memory.stack){
+                out.writeShort(value);
+            }
+            out.write(rb.V);
+            out.writeShort(rb.I);
+            out.writeShort(rb.PC);
+            out.writeByte(rb.SP);
+            out.writeByte(rb.DT);
+            out.writeByte(rb.ST);
+            out.writeBoolean(pu.isWaitingForKey());
+            out.writeByte(pu.getWaitRegister());
+            out.write(pu.getFlags());
+            out.writeByte(pu.getPlanes());
+            out.write(pu.getAudioPattern());
+            out.writeByte(pu.getPitch());
+        }
+        catch(IOException e){
+            throw new IllegalStateException(e); //Not thrown by a ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * Restores a state returned by capture into "chip8".
+     * Only the memory addresses that change are written, so code compiled for the rom stays valid (see CompiledEngine).
+     * @throws IllegalArgumentException if "snapshot" is not a valid snapshot of this format.
+     */
+    public static void restore(Chip8 chip8, byte[] snapshot){
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        try{
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT){
+                throw new IllegalArgumentException("Not a snapshot of format " + FORMAT);
+            }
+            Memory memory = chip8.getMemory();
+            RegisterBank rb = chip8.getRegisterBank();
+            ProcessingUnit pu = chip8.getProcessingUnit();
+
+            long frame = in.readLong();
+
+            int size = in.readInt();
+            if(size != memory.getSize()){
+                throw new IllegalArgumentException("Snapshot of a memory of " + size + " bytes, not " + memory.getSize()
+                        + " (see Chip8.setMachine)");
+            }
+            for(int address = 0; address < size; address++){
+                byte value = in.readByte();
+                if(memory.get((short)address) != value){
+                    memory.set((short)address, value);
+                }
+            }
+
+            boolean highResolution = in.readBoolean();
+            if(memory.isHighResolution() != highResolution){
+                memory.setHighResolution(highResolution);
+            }
+            for(int index = 0; index < Memory.PLANES * Memory.PLANE_WORDS; index++){
+                memory.setWord(index, in.readLong());
+            }
+            memory.drawFlag = true;
+
+            for(int i = 0; i < memory.stack.length; i++){
+                memory.stack[i] = in.readShort();
+            }
+            in.readFully(rb.V);
+            rb.I = in.readShort();
+            rb.PC = in.readShort();
+            rb.SP = in.readByte();
+            rb.DT = in.readByte();
+            rb.ST = in.readByte();
+            boolean waiting = in.readBoolean();
+            pu.restoreWait(waiting, in.readByte());
+            in.readFully(pu.getFlags());
+            pu.setPlanes(in.readByte());
+            byte[] pattern = new byte[pu.getAudioPattern().length];
+            in.readFully(pattern);
+            pu.setAudio(pattern, in.readUnsignedByte());
+            chip8.setFrame(frame);
+        }
+        catch(IOException e){
+            throw new IllegalArgumentException("Truncated snapshot", e);
+        }
+    }
+}
@@ -4,56 +4,106 @@ import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- *Based on michaelarnauts Sound.java class from its chip8-java project.
+ *Originally based on michaelarnauts Sound.java class from its chip8-java project.
  *https://github.com/michaelarnauts/chip8-java/blob/master/Source/src/be/khleuven/arnautsmichael/chip8/Sound.java
  *
  * Class that manages the sound.
+ *
+ * One long-lived audio thread plays the beeper (see Beeper) through a SourceDataLine. The emulation thread sends it
+ * one on/off command per frame (see frame) through a lock-free single-producer single-consumer ring buffer, and the
+ * audio thread renders each command as 1/60 seconds of samples. The line buffer is small (bufferFrames frames), and
+ * queued commands beyond MAX_QUEUED_FRAMES are skipped, so a beep starts and stops within a few frames.
+ * When there is nothing to play the audio thread sleeps.
+ *
+ * The audio thread is started with the first beep, and opens the line itself, so systems that never beep (and the
+ * first frames of the others) do not wait for the audio system.
  */
-public class Sound  {
+public class Sound implements AudioOutput {
+
+    //Line buffer, in frames (1/60 seconds). Can be changed with -Dchip8.sound.bufferFrames=N
+    public static final int DEFAULT_BUFFER_FRAMES = Integer.getInteger("chip8.sound.bufferFrames", 2);
+
+    private static final int QUEUE_SIZE = 64; //Power of two
+    private static final int MAX_QUEUED_FRAMES = 3;
+
+    private volatile boolean isEnabled;
+    private final int bufferFrames;
+    private SourceDataLine sdl; //Opened by the audio thread
+
+    //Ring buffer of per-frame commands (1 = on, 0 = off). The emulation thread writes tail, the audio thread head.
+    private final byte[] commands = new byte[QUEUE_SIZE];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private int offFrames;         //Consecutive off commands sent (emulation thread)
 
-    private boolean isEnabled;
-    private boolean isPlaying;
-    private AudioFormat af;
-    private SourceDataLine sdl;
-    
     private Thread playThread;
-    
-    private byte[] buf = new byte[256];
-    
+    private volatile boolean idle; //True while the audio thread sleeps waiting for commands
+    private volatile boolean closed;
+
+    private Beeper beeper = new Beeper();
+    //XO-CHIP pattern not yet set in the beeper, handed to the audio thread. Null if none
+    private final AtomicReference<Pattern> pattern = new AtomicReference<>();
+    private byte[] buf = new byte[Beeper.SAMPLES_PER_FRAME * 2];
+
     /** Creates a new instance of Sound */
     public Sound(boolean isEnabled) {
-        try {
-            af = new AudioFormat(44100f, 8, 1, true, false);
-            sdl = AudioSystem.getSourceDataLine(af);
-            sdl.open(af);
-            this.isEnabled = isEnabled;
-            isPlaying = false;
-            
-            // generate the sound to play
-            for (int i=0; i<buf.length; i++)
-                buf[i] = 121;
-
-            for (int i=buf.length/3; i<2*buf.length/3; i++)
-                buf[i] = (byte)255-121;
-        
-        } catch (LineUnavailableException ex) {
-            ex.printStackTrace();
-            isEnabled = false;
-        }
+        this(isEnabled, DEFAULT_BUFFER_FRAMES);
     }
-        
-    public void startSound() {
-        if (isPlaying || !isEnabled) return;
-        isPlaying = true;
-        playThread = new PlayThread();
-        playThread.setPriority(Thread.MAX_PRIORITY);
-        playThread.start();
+
+    /**
+     * Creates a new instance of Sound with a line buffer of "bufferFrames" frames (1/60 seconds each).
+     */
+    public Sound(boolean isEnabled, int bufferFrames) {
+        this.isEnabled = isEnabled;
+        this.bufferFrames = bufferFrames;
     }
-    
-    public void stopSound() {
-        isPlaying = false;
+
+    /**
+     * Sends the state of the beeper during the current frame. Called by the emulation thread once per frame.
+     */
+    @Override
+    public void frame(boolean on) {
+        on &= isEnabled;
+        if(on){
+            offFrames = 0;
+        }
+        else if(++offFrames > MAX_QUEUED_FRAMES){
+            return; //Already silent, nothing to send
+        }
+        if(playThread == null){
+            if(!on || closed){
+                return; //Nothing played yet
+            }
+            playThread = new PlayThread();
+            playThread.setDaemon(true);
+            playThread.setPriority(Thread.MAX_PRIORITY);
+            playThread.start();
+        }
+
+        long t = tail.get();
+        if(t - head.get() >= QUEUE_SIZE){
+            return; //Audio thread is not consuming
+        }
+        commands[(int) t & (QUEUE_SIZE - 1)] = on ? (byte)1 : (byte)0;
+        tail.set(t + 1); //Full fence, so the read of idle below is not reordered before it
+
+        if(idle){
+            LockSupport.unpark(playThread);
+        }
+    }
+
+    /**
+     * Sends the XO-CHIP audio pattern. The audio thread plays it from its next frame.
+     */
+    @Override
+    public void pattern(byte[] pattern, double rateHz) {
+        this.pattern.set(new Pattern(pattern.clone(), rateHz));
     }
 
     public void setEnabled(boolean isEnabled) {
@@ -63,17 +113,85 @@ public class Sound  {
     public boolean isEnabled() {
         return isEnabled;
     }
+
+    /**
+     * Stops the audio thread and releases the line.
+     */
+    public void close() {
+        isEnabled = false;
+        if(playThread == null){
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(playThread);
+        try {
+            playThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(sdl != null){
+            sdl.close();
+        }
+    }
     
+    private static class Pattern {
+        final byte[] samples;
+        final double rateHz;
+
+        Pattern(byte[] samples, double rateHz){
+            this.samples = samples;
+            this.rateHz = rateHz;
+        }
+    }
+
     class PlayThread extends Thread {
-        
+
+        PlayThread(){
+            super("chip8-sound");
+        }
+
         public void run(){
             try {
+                AudioFormat af = new AudioFormat(Beeper.SAMPLE_RATE, 16, 1, true, false);
+                sdl = AudioSystem.getSourceDataLine(af);
+                sdl.open(af, bufferFrames * buf.length);
                 sdl.start();
-                do {
-                    sdl.write(buf, 0, buf.length);
-                } while (isPlaying);
-                sdl.stop();
-                sdl.flush();
+            } catch (LineUnavailableException | IllegalArgumentException ex) {
+                ex.printStackTrace();
+                isEnabled = false;
+                return;
+            }
+            try {
+                while(!closed){
+                    long h = head.get();
+                    long t = tail.get();
+                    boolean on;
+                    if(h == t){
+                        if(beeper.isSilent()){
+                            //Nothing to play: sleep until the next command
+                            idle = true;
+                            if(tail.get() == h){
+                                LockSupport.park(this);
+                            }
+                            idle = false;
+                            continue;
+                        }
+                        on = false; //Emulation is late: fade out
+                    }
+                    else{
+                        if(t - h > MAX_QUEUED_FRAMES){
+                            h = t - MAX_QUEUED_FRAMES; //Skip old commands to bound the latency
+                        }
+                        on = commands[(int) h & (QUEUE_SIZE - 1)] == 1;
+                        head.lazySet(h + 1);
+                    }
+                    Pattern newPattern = pattern.getAndSet(null);
+                    if(newPattern != null){
+                        beeper.setPattern(newPattern.samples, newPattern.rateHz);
+                    }
+                    beeper.render(buf, 0, Beeper.SAMPLES_PER_FRAME, on);
+                    sdl.write(buf, 0, buf.length); //Blocks while the line buffer is full
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -81,4 +199,4 @@ public class Sound  {
 
     }
     
-}
\ No newline at end of file
+}
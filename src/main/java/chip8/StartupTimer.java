@@ -0,0 +1,88 @@
+package chip8;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Measures the time to the first emulated frame: from the start of the JVM until the first frame of the first rom has
+ * been emulated (system created, rom loaded and one frame run), and reports it against TARGET_MILLIS in headless
+ * mode. The rest of the roms are loaded and run after it, so this is also the training run of the AppCDS archive
+ * (gradle cdsArchive), which stores every class a run needs.
+ *
+ * Arguments (all optional):
+ *   --frames N         Emulated frames per rom, unthrottled (default 1).
+ *   --freq HZ          Emulated CPU frequency (default 500).
+ *   --gui              Creates the window, sound and AWT input of a normal run (default headless).
+ *   ROM...             Roms to run (default all the roms of the roms folder).
+ */
+public class StartupTimer {
+
+    //Target time to the first frame in headless mode, JVM start included
+    public static final long TARGET_MILLIS = 200;
+
+    public static void main(String[] args) throws Exception {
+        long mainStart = System.nanoTime();
+        int frames = 1;
+        int cpuFreqHz = 500;
+        boolean headless = true;
+        String[] roms = null;
+
+        for(int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if(arg.equals("--gui")){
+                headless = false;
+                continue;
+            }
+            if(!arg.startsWith("--")){
+                roms = Arrays.copyOfRange(args, i, args.length);
+                break;
+            }
+            if(i + 1 >= args.length){
+                throw new IllegalArgumentException("Missing value of argument: " + arg);
+            }
+            String value = args[++i];
+            if(arg.equals("--frames")) frames = Integer.parseInt(value);
+            else if(arg.equals("--freq")) cpuFreqHz = Integer.parseInt(value);
+            else throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+        if(roms == null){
+            roms = new File("roms").list();
+            if(roms == null){
+                throw new IllegalArgumentException("No roms folder in " + new File("").getAbsolutePath()
+                        + ", give the roms to run");
+            }
+            Arrays.sort(roms);
+        }
+
+        long firstFrameMillis = -1; //Wall clock time at the end of the first frame
+        long firstFrameNanos = 0;
+        for(String rom: roms){
+            Chip8 chip8 = new Chip8(cpuFreqHz, headless);
+            chip8.loadGame(rom);
+            chip8.runFrame();
+            if(firstFrameMillis < 0){
+                firstFrameMillis = System.currentTimeMillis();
+                firstFrameNanos = System.nanoTime() - mainStart;
+            }
+            for(int frame = 1; frame < frames; frame++){
+                chip8.runFrame();
+            }
+            if(!headless){
+                chip8.setAudioOutput(null); //Closes the sound line
+            }
+        }
+
+        //The start time is read after the frame, so loading the management classes is not measured
+        long sinceStart = firstFrameMillis - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println(String.format("[INFO] First frame of %s: %d ms after the JVM started (%.1f ms in main).",
+                roms[0], sinceStart, firstFrameNanos / 1e6));
+        if(headless && sinceStart > TARGET_MILLIS){
+            System.err.println("[WARN] Time to first frame above the target of " + TARGET_MILLIS + " ms.");
+        }
+        if(!headless){
+            System.exit(0); //The window keeps the JVM running
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Zobrist hash of the state of a system: the XOR of a random key for every (address, value) of memory, for every
+ * (word, value) of the packed screen (see Memory.screen) and for every (register, value). Registers include the stack,
+ * the Fx0A wait, the XO-CHIP planes and the SUPER-CHIP flag registers (Fx75/Fx85). The XO-CHIP audio pattern and pitch
+ * are left out on purpose: they only change the sound, never what the program does.
+ *
+ * Memory keeps the hashes of its content and of the screen, updating them in O(1) on every write (Memory.set and
+ * the words of the screen written by ProcessingUnit). Registers change on almost every instruction, so they are folded in when
+ * the hash is requested (a fixed number of keys). Equal states have equal hashes, so comparing two systems, or two
+ * frames of the same one, is a comparison of two longs (different states collide with probability 2^-64).
+ */
+public final class StateHash {
+
+    //Domains of the keys, so keys of memory, screen and registers never share an input
+    private static final long SCREEN = 1L << 24;  //Memory keys use 24 bits: 16-bit address and value
+    private static final long REGISTERS = 1L << 40;
+
+    private static final long[] WORD_KEYS = new long[Memory.PLANES * Memory.PLANE_WORDS];
+    static {
+        for(int i = 0; i < WORD_KEYS.length; i++){
+            WORD_KEYS[i] = mix(SCREEN + i);
+        }
+    }
+
+    //Key of the high resolution mode, so an empty screen of each resolution has its own hash
+    static final long HIGH_RESOLUTION = mix(SCREEN + WORD_KEYS.length);
+
+    //Hash of a memory full of zeros
+    static final long ZERO_MEMORY;
+    static {
+        long hash = 0;
+        for(int address = 0; address < 4096; address++){
+            hash ^= memory(address, (byte)0);
+        }
+        ZERO_MEMORY = hash;
+    }
+
+    private StateHash(){
+    }
+
+    /**
+     * Key of "value" at memory address "address".
+     */
+    static long memory(int address, byte value){
+        return mix(address << 8 | (value & 0xFF));
+    }
+
+    /**
+     * Key of "word" at index "index" of the screen. 0 for an empty word, so a clear screen hashes to 0.
+     */
+    static long screen(int index, long word){
+        return word == 0 ? 0 : mix(WORD_KEYS[index] ^ word);
+    }
+
+    /**
+     * Returns the hash of the whole state: memory, screen, registers, stack, the Fx0A wait, the planes and the flag
+     * registers. O(1).
+     */
+    public static long of(Memory memory, RegisterBank registerBank, ProcessingUnit pu){
+        return memory.getMemoryHash() ^ memory.getScreenHash() ^ registers(memory, registerBank, pu);
+    }
+
+    /**
+     * Returns the same hash as "of", computed from scratch (to check the incremental one).
+     */
+    public static long compute(Memory memory, RegisterBank registerBank, ProcessingUnit pu){
+        long hash = 0;
+        for(int address = 0; address < memory.getSize(); address++){
+            hash ^= memory(address, memory.get((short) address));
+        }
+        if(memory.isHighResolution()){
+            hash ^= HIGH_RESOLUTION;
+        }
+        for(int plane = 0; plane < Memory.PLANES; plane++){
+            for(int y = 0; y < Memory.MAX_HEIGHT; y++){
+                for(int word = 0; word < Memory.ROW_WORDS; word++){
+                    hash ^= screen(plane * Memory.PLANE_WORDS + y * Memory.ROW_WORDS + word,
+                            memory.getWord(plane, y, word));
+                }
+            }
+        }
+        return hash ^ registers(memory, registerBank, pu);
+    }
+
+    private static long registers(Memory memory, RegisterBank registerBank, ProcessingUnit pu){
+        long hash = 0;
+        for(int i = 0; i < 16; i++){
+            hash ^= register(i, registerBank.V[i] & 0xFF);
+        }
+        hash ^= register(16, registerBank.I & 0xFFFF);
+        hash ^= register(17, registerBank.PC & 0xFFFF);
+        hash ^= register(18, registerBank.SP & 0xFF);
+        hash ^= register(19, registerBank.DT & 0xFF);
+        hash ^= register(20, registerBank.ST & 0xFF);
+        for(int i = 0; i < memory.stack.length; i++){
+            hash ^= register(21 + i, memory.stack[i] & 0xFFFF);
+        }
+        if(pu.isWaitingForKey()){
+            hash ^= register(37, pu.getWaitRegister());
+        }
+        if(pu.getPlanes() != 1){
+            hash ^= register(38, pu.getPlanes()); //XO-CHIP planes selected
+        }
+        byte[] flags = pu.getFlags();
+        for(int i = 0; i < flags.length; i++){
+            if(flags[i] != 0){
+                hash ^= register(39 + i, flags[i] & 0xFF); //SUPER-CHIP flags, only if set, as the planes
+            }
+        }
+        return hash;
+    }
+
+    private static long register(int register, int value){
+        return mix(REGISTERS | (long) register << 16 | value);
+    }
+
+    //SplitMix64
+    private static long mix(long z){
+        z = (z + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
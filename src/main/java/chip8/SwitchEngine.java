@@ -0,0 +1,109 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Engine that decodes with switches over the nibbles of the instruction, instead of matching it against every
+ * opcode pattern like ControlUnit does. The operations are the ones of ProcessingUnit, so only decoding changes.
+ * It doesn't update execution stats nor the profiler.
+ */
+public class SwitchEngine implements Engine {
+
+    private Memory memory;
+    private RegisterBank registerBank;
+    private ProcessingUnit pu;
+
+    public SwitchEngine(Memory memory, RegisterBank registerBank, ProcessingUnit pu){
+        this.memory = memory;
+        this.registerBank = registerBank;
+        this.pu = pu;
+    }
+
+    @Override
+    public void step(){
+
+        //1.- Fetch and increment PC
+        short pc = registerBank.PC;
+        int inst = ((memory.get(pc) & 0xFF) << 8) | (memory.get((short)(pc + 1)) & 0xFF);
+        registerBank.PC = (short)(pc + 2);
+
+        //2.- Decode and execute
+        byte x = (byte)((inst >>> 8) & 0xF);
+        byte y = (byte)((inst >>> 4) & 0xF);
+        byte kk = (byte) inst;
+        short nnn = (short)(inst & 0xFFF);
+
+        switch(inst >>> 12){
+            case 0x0:
+                if(inst == 0x00E0){ pu.cls(); return; }
+                if(inst == 0x00EE){ pu.ret(); return; }
+                if((inst & 0xFFF0) == 0x00C0){ pu.scrollDown((byte)(inst & 0xF)); return; }
+                if((inst & 0xFFF0) == 0x00D0){ pu.scrollUp((byte)(inst & 0xF)); return; }
+                switch(inst){
+                    case 0x00FB: pu.scrollRight(); return;
+                    case 0x00FC: pu.scrollLeft(); return;
+                    case 0x00FD: pu.exit(); return;
+                    case 0x00FE: pu.lowResolution(); return;
+                    case 0x00FF: pu.highResolution(); return;
+                }
+                break;
+            case 0x1: pu.jp(nnn); return;
+            case 0x2: pu.call(nnn); return;
+            case 0x3: pu.seByte(x,kk); return;
+            case 0x4: pu.sneByte(x,kk); return;
+            case 0x5:
+                if((inst & 0xF) == 0){ pu.seRegister(x,y); return; }
+                if((inst & 0xF) == 2){ pu.saveRegisterRange(x,y); return; }
+                if((inst & 0xF) == 3){ pu.loadRegisterRange(x,y); return; }
+                break;
+            case 0x6: pu.ldByteOnRegister(x,kk); return;
+            case 0x7: pu.addByte(x,kk); return;
+            case 0x8:
+                switch(inst & 0xF){
+                    case 0x0: pu.ldRegisterOnRegister(x,y); return;
+                    case 0x1: pu.or(x,y); return;
+                    case 0x2: pu.and(x,y); return;
+                    case 0x3: pu.xor(x,y); return;
+                    case 0x4: pu.addRegisterCarry(x,y); return;
+                    case 0x5: pu.sub(x,y); return;
+                    case 0x6: pu.shr(x,y); return;
+                    case 0x7: pu.subn(x,y); return;
+                    case 0xE: pu.shl(x,y); return;
+                }
+                break;
+            case 0x9:
+                if((inst & 0xF) == 0){ pu.sneRegister(x,y); return; }
+                break;
+            case 0xA: pu.loadAddressOnI(nnn); return;
+            case 0xB: pu.jpSum(nnn); return;
+            case 0xC: pu.rnd(x,kk); return;
+            case 0xD: pu.draw(x,y,(byte)(inst & 0xF)); return;
+            case 0xE:
+                if((inst & 0xFF) == 0x9E){ pu.skipIfPressed(x); return; }
+                if((inst & 0xFF) == 0xA1){ pu.skipIfNotPressed(x); return; }
+                break;
+            case 0xF:
+                if(inst == 0xF000){ pu.loadLongAddressOnI(); return; }
+                if(inst == 0xF002){ pu.loadAudioPattern(); return; }
+                switch(inst & 0xFF){
+                    case 0x01: pu.selectPlanes(x); return;
+                    case 0x07: pu.loadDTOnRegister(x); return;
+                    case 0x0A: pu.waitKey(x); return;
+                    case 0x15: pu.loadRegisterOnDT(x); return;
+                    case 0x18: pu.loadRegisterOnST(x); return;
+                    case 0x1E: pu.addToI(x); return;
+                    case 0x29: pu.loadHexadecimalSpriteOnI(x); return;
+                    case 0x30: pu.loadLargeHexadecimalSpriteOnI(x); return;
+                    case 0x33: pu.loadBCDtoMemory(x); return;
+                    case 0x3A: pu.loadRegisterOnPitch(x); return;
+                    case 0x55: pu.loadRegisterSequenceToMemory(x); return;
+                    case 0x65: pu.loadMemorySequenceToRegister(x); return;
+                    case 0x75: pu.saveFlags(x); return;
+                    case 0x85: pu.loadFlags(x); return;
+                }
+                break;
+        }
+
+        //Incorrect operation
+        System.out.printf("[ERROR] Unknown instruction: %04X\n",(short) inst);
+    }
+}
@@ -0,0 +1,15 @@
+package chip8;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Destination of the screen of a Chip8 system, besides its window (see Chip8.setVideoOutput).
+ * The emulation thread calls frame once per emulated frame, so outputs work in emulated time.
+ */
+public interface VideoOutput {
+
+    /**
+     * Sends the screen of "memory" (see Memory.getRow, Memory.getWord and Memory.getScreenHash) at the end of frame "frame".
+     * Called by the emulation thread: implementations must copy what they need and return quickly.
+     */
+    void frame(long frame, Memory memory);
+}
@@ -0,0 +1,116 @@
+package chip8;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Ismael Rodríguez, ismaro3
+ * Renders the sound to a WAV file (16-bit mono PCM, 44100 Hz) in emulated time: every frame adds exactly 1/60
+ * seconds of samples, no matter how fast the system is emulated, so headless and fast-forward runs get the same
+ * audio as a real-time run. Samples are streamed through a buffered FileChannel.
+ *
+ * Usage: chip8.setAudioOutput(renderer), run, and then close the renderer (it completes the WAV header).
+ */
+public class WavAudioRenderer implements AudioOutput, Closeable {
+
+    private static final int HEADER_SIZE = 44;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private Beeper beeper = new Beeper();
+    private long samples;
+
+
+    /**
+     * Creates (or truncates) "wav" and writes its header.
+     * @throws IOException if the file can't be written.
+     */
+    public WavAudioRenderer(File wav) throws IOException {
+        file = new RandomAccessFile(wav, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        writeHeader(0);
+        channel.position(HEADER_SIZE);
+    }
+
+    /**
+     * Renders 1/60 seconds of samples. An I/O error is thrown as an unchecked exception, as the emulation
+     * loop can't handle it.
+     */
+    @Override
+    public void frame(boolean on) {
+        try{
+            if(buffer.remaining() < Beeper.SAMPLES_PER_FRAME * 2){
+                flush();
+            }
+            for(int i = 0; i < Beeper.SAMPLES_PER_FRAME; i++){
+                buffer.putShort((short) beeper.next(on));
+            }
+            samples += Beeper.SAMPLES_PER_FRAME;
+        }
+        catch(IOException e){
+            throw new IllegalStateException("Can't write WAV audio", e);
+        }
+    }
+
+    @Override
+    public void pattern(byte[] pattern, double rateHz) {
+        beeper.setPattern(pattern, rateHz);
+    }
+
+    /**
+     * Returns the number of rendered samples.
+     */
+    public long getSamples(){
+        return samples;
+    }
+
+    /**
+     * Writes the pending samples, completes the header and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try{
+            flush();
+            writeHeader(samples * 2);
+        }
+        finally{
+            file.close();
+        }
+    }
+
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    //RIFF/WAVE header of "dataBytes" bytes of samples
+    private void writeHeader(long dataBytes) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R','I','F','F'});
+        header.putInt((int)(36 + dataBytes));
+        header.put(new byte[]{'W','A','V','E','f','m','t',' '});
+        header.putInt(16);                          //fmt chunk size
+        header.putShort((short) 1);                 //PCM
+        header.putShort((short) 1);                 //Mono
+        header.putInt(Beeper.SAMPLE_RATE);
+        header.putInt(Beeper.SAMPLE_RATE * 2);      //Bytes per second
+        header.putShort((short) 2);                 //Bytes per sample
+        header.putShort((short) 16);                //Bits per sample
+        header.put(new byte[]{'d','a','t','a'});
+        header.putInt((int) dataBytes);
+        header.flip();
+        channel.write(header, 0);
+    }
+}
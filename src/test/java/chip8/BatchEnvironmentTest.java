@@ -0,0 +1,86 @@
+package chip8;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchEnvironmentTest {
+
+
+    /**
+     * Every environment runs as a system stepped alone, whatever the number of threads.
+     */
+    @Test
+    public void environmentsRunAsSingleSystems() throws Exception {
+        byte[] rom = Files.toByteArray(new File("roms/BRIX"));
+        BatchEnvironment single = new BatchEnvironment(rom, 500, 6, 1, 10);
+        BatchEnvironment parallel = new BatchEnvironment(rom, 500, 6, 3, 10);
+        Chip8 alone = new Chip8(500,true);
+        alone.loadGame(rom);
+        alone.setRandomSeed(10 + 4);
+
+        int[] actions = new int[6];
+        long[] singleScreens = new long[6 * 32];
+        long[] parallelScreens = new long[6 * 32];
+        float[] rewards = new float[6];
+        boolean[] dones = new boolean[6];
+        Random random = new Random(3);
+        for(int step = 0; step < 200; step++){
+            for(int i = 0; i < actions.length; i++){
+                actions[i] = 1 << random.nextInt(16);
+            }
+            single.step(actions, 4, singleScreens, rewards, dones);
+            parallel.step(actions, 4, parallelScreens, rewards, dones);
+            alone.getKeyboard().setKeys(actions[4]);
+            for(int frame = 0; frame < 4; frame++){
+                alone.runFrame();
+            }
+            assertArrayEquals(singleScreens, parallelScreens);
+        }
+        for(int y = 0; y < 32; y++){
+            assertEquals(alone.getMemory().getRow(y), parallelScreens[4 * 32 + y]);
+        }
+        single.close();
+        parallel.close();
+    }
+
+    /**
+     * Rewards are the increase of the score, and episodes restart when they end.
+     */
+    @Test
+    public void rewardsAndResets(){
+        byte[] program = new byte[]{
+                (byte)0x70, (byte)0x01,  //0x200 ADD V0, 1
+                (byte)0xA3, (byte)0x00,  //0x202 LD I, 0x300
+                (byte)0xF0, (byte)0x55,  //0x204 LD [I], V0
+                (byte)0x12, (byte)0x00   //0x206 JP 0x200
+        };
+        BatchEnvironment environments = new BatchEnvironment(program, 480, 2, 2, 0); //8 cycles, 2 loops per frame
+        environments.setScore(0x300, 1);
+        environments.setDoneWhen(0x300, 64);
+
+        int[] actions = new int[2];
+        long[] screens = new long[2 * 32];
+        float[] rewards = new float[2];
+        boolean[] dones = new boolean[2];
+        for(int step = 0; step < 8; step++){
+            environments.step(actions, 4, screens, rewards, dones);
+            assertEquals(8f, rewards[0], 0);
+            assertEquals(8f, rewards[1], 0);
+            assertEquals(step == 7, dones[0]);
+        }
+        assertEquals(0, environments.getSystem(0).getMemory().get((short)0x300)); //Reset
+        environments.step(actions, 4, screens, rewards, dones);
+        assertEquals(8f, rewards[0], 0);
+        assertFalse(dones[0]);
+        assertTrue(environments.getSystem(1).getFrame() == 4);
+        environments.close();
+    }
+}
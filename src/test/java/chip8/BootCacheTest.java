@@ -0,0 +1,118 @@
+package chip8;
+
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BootCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    /**
+     * A system restored from the cache is the same as one that has booted normally, and keeps being the same.
+     */
+    @Test
+    public void restoredBootEqualsNormalBoot() throws Exception {
+        byte[] rom = Files.toByteArray(new File("roms/TANK"));
+        BootCache cache = new BootCache(folder.getRoot());
+
+        Chip8 restored = new Chip8(500,true);
+        restored.setBootCache(cache);
+        restored.loadGame(rom);
+        restored.setRandomSeed(7);
+        assertTrue(restored.getFrame() > 0);
+
+        Chip8 booted = new Chip8(500,true);
+        booted.setBootCache(null);
+        booted.loadGame(rom);
+        booted.setRandomSeed(7);
+        while(booted.getFrame() < restored.getFrame()){
+            booted.runFrame();
+        }
+        assertEquals(booted.getStateHash(), restored.getStateHash());
+
+        for(int frame = 0; frame < 300; frame++){
+            booted.runFrame();
+            restored.runFrame();
+        }
+        assertEquals(booted.getStateHash(), restored.getStateHash());
+    }
+
+    /**
+     * Entries are read back from disk, and entries of other versions are deleted, but not other files of the root.
+     */
+    @Test
+    public void entriesAreVersioned() throws Exception {
+        File old = folder.newFolder("v0-1");
+        File oldEntry = new File(old, "0000000000000000-500.boot");
+        Files.write(new byte[]{1, 2, 3}, oldEntry);
+        File oldTemporary = new File(old, "0000000000000000-500-chip8-default.boot123.tmp");
+        Files.write(new byte[]{1, 2, 3}, oldTemporary);
+        File userVersion = folder.newFolder("v0-1", "notes");
+        File userFile = new File(old, "notes.boot");
+        Files.write(new byte[]{1, 2, 3}, userFile);
+        File userDirectory = folder.newFolder("videos");
+        File userVideo = new File(userDirectory, "clip.tmp");
+        Files.write(new byte[]{1, 2, 3}, userVideo);
+
+        byte[] rom = Files.toByteArray(new File("roms/TANK"));
+        Chip8 first = new Chip8(500,true);
+        first.setBootCache(new BootCache(folder.getRoot()));
+        first.loadGame(rom);
+        assertFalse(oldEntry.exists());
+        assertFalse(oldTemporary.exists());
+        assertTrue(userVersion.isDirectory());
+        assertTrue(userFile.exists());
+        assertTrue(userVideo.exists());
+
+        File[] entries = new File(folder.getRoot(), "v" + BootCache.VERSION + "-" + Snapshot.FORMAT).listFiles();
+        assertEquals(1, entries.length);
+
+        Chip8 second = new Chip8(500,true);
+        second.setBootCache(new BootCache(folder.getRoot()));
+        second.loadGame(rom);
+        assertEquals(first.getStateHash(), second.getStateHash());
+        assertEquals(first.getFrame(), second.getFrame());
+    }
+
+    /**
+     * A script set after a restored boot gets the keys it presses during the boot, like without cache.
+     */
+    @Test
+    public void scriptsReplayTheKeysOfTheBoot() throws Exception {
+        byte[] rom = Files.toByteArray(new File("roms/TANK"));
+        InputScript script = InputScript.parse(Arrays.asList("0 5 down", "400 5 up"));
+
+        Chip8 restored = new Chip8(500,true);
+        restored.setBootCache(new BootCache(folder.getRoot()));
+        restored.loadGame(rom);
+        restored.setRandomSeed(7);
+        restored.setInput(new ScriptedInput(script));
+        assertTrue(restored.getFrame() > 0);
+        assertTrue(restored.getKeyboard().isPressed(5));
+
+        Chip8 booted = new Chip8(500,true);
+        booted.setBootCache(null);
+        booted.loadGame(rom);
+        booted.setRandomSeed(7);
+        booted.setInput(new ScriptedInput(script));
+        while(booted.getFrame() < restored.getFrame()){
+            booted.runFrame();
+        }
+        for(int frame = 0; frame < 600; frame++){
+            booted.runFrame();
+            restored.runFrame();
+        }
+        assertEquals(booted.getStateHash(), restored.getStateHash());
+    }
+}
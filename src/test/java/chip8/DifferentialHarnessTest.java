@@ -0,0 +1,78 @@
+package chip8;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DifferentialHarnessTest {
+
+
+    /**
+     * The switch engine behaves like the reference on random programs and on a rom.
+     */
+    @Test
+    public void switchEngineMatchesReference() throws IOException {
+        DifferentialHarness harness = new DifferentialHarness(Engine.SWITCH, 256);
+
+        DifferentialHarness.Divergence divergence = harness.fuzz(42, 500, 64, 2000);
+        assertNull(divergence == null ? null : divergence.report(), divergence);
+
+        byte[] pong = Files.toByteArray(new File("roms/PONG"));
+        divergence = harness.check(new DifferentialHarness.Input("PONG", pong, 42, 200000, -1));
+        assertNull(divergence == null ? null : divergence.report(), divergence);
+    }
+
+    /**
+     * The compiled roms in the classpath (see RomCompiler) behave like the reference, running whole blocks.
+     */
+    @Test
+    public void compiledRomsMatchReference() throws IOException {
+        DifferentialHarness harness = new DifferentialHarness(Engine.AOT, 256);
+        for(CompiledRom compiled: CompiledEngine.compiledRoms()){
+            byte[] rom = Files.toByteArray(new File("roms/" + compiled.getName()));
+            DifferentialHarness.Divergence divergence =
+                    harness.check(new DifferentialHarness.Input(compiled.getName(), rom, 42, 200000, -1));
+            assertNull(divergence == null ? null : divergence.report(), divergence);
+        }
+    }
+
+    /**
+     * A bug in "ADD V3, byte" is found, in random programs and in a rom, and reduced to that single instruction.
+     */
+    @Test
+    public void minimizesDivergence() throws IOException {
+        DifferentialHarness harness = new DifferentialHarness(new Engine.Factory() {
+            public Engine create(Memory memory, final RegisterBank registerBank, ProcessingUnit pu) {
+                final Engine engine = new SwitchEngine(memory, registerBank, pu);
+                final Memory m = memory;
+                return new Engine() {
+                    public void step() {
+                        int high = m.get(registerBank.PC) & 0xFF;
+                        engine.step();
+                        if(high == 0x73){
+                            registerBank.V[3]++;
+                        }
+                    }
+                };
+            }
+        }, 256);
+
+        DifferentialHarness.Divergence divergence = harness.fuzz(7, 500, 64, 2000);
+        assertNotNull(divergence);
+        assertEquals(2, divergence.input.program.length);
+        assertEquals(0x73, divergence.input.program[0] & 0xFF);
+        assertEquals("V3", divergence.difference.substring(0, 2));
+
+        byte[] rom = Files.toByteArray(new File("roms/BRIX"));
+        divergence = harness.check(new DifferentialHarness.Input("BRIX", rom, 7, 200000, -1));
+        assertNotNull(divergence);
+        assertEquals(2, divergence.input.program.length);
+        assertEquals(0x73, divergence.input.program[0] & 0xFF);
+    }
+}
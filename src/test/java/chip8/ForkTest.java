@@ -0,0 +1,89 @@
+package chip8;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ForkTest {
+
+
+    /**
+     * A fork runs as its parent would, and neither changes the other.
+     */
+    @Test
+    public void forksAreIndependentCopies() throws Exception {
+        Chip8 parent = newSystem("BRIX");
+        Chip8 reference = newSystem("BRIX");
+        for(int frame = 0; frame < 300; frame++){
+            runFrame(parent, frame);
+            runFrame(reference, frame);
+        }
+
+        Chip8 fork = parent.fork();
+        assertEquals(parent.getStateHash(), fork.getStateHash());
+
+        fork.getMemory().set((short)0xE00, (byte)0x42);
+        fork.getRegisterBank().V[2]++;
+        assertEquals(0, parent.getMemory().get((short)0xE00));
+        assertEquals(reference.getStateHash(), parent.getStateHash());
+
+        //The fork explores other keys, while the parent goes on as the reference
+        Chip8 sameKeys = parent.fork();
+        for(int frame = 300; frame < 600; frame++){
+            runFrame(parent, frame);
+            runFrame(reference, frame);
+            runFrame(sameKeys, frame);
+            fork.getKeyboard().setKeys(1 << (frame % 16));
+            fork.runFrame();
+        }
+        assertEquals(reference.getStateHash(), parent.getStateHash());
+        assertEquals(reference.getStateHash(), sameKeys.getStateHash());
+        assertTrue(fork.getStateHash() != parent.getStateHash());
+    }
+
+    /**
+     * Released forks are recycled as forks of other systems, even of other roms.
+     */
+    @Test
+    public void poolRecyclesForks() throws Exception {
+        ForkPool pool = new ForkPool(4);
+        Chip8 brix = newSystem("BRIX");
+        Chip8 pong = newSystem("PONG");
+        for(int frame = 0; frame < 120; frame++){
+            runFrame(brix, frame);
+            runFrame(pong, frame);
+        }
+
+        Chip8 fork = pool.fork(brix);
+        for(int frame = 0; frame < 60; frame++){
+            fork.runFrame();
+        }
+        pool.release(fork);
+        assertEquals(1, pool.size());
+
+        Chip8 recycled = pool.fork(pong);
+        assertSame(fork, recycled);
+        assertEquals(pong.getStateHash(), recycled.getStateHash());
+        for(int frame = 120; frame < 300; frame++){
+            runFrame(pong, frame);
+            runFrame(recycled, frame);
+        }
+        assertEquals(pong.getStateHash(), recycled.getStateHash());
+        assertEquals(pong.getFrame(), recycled.getFrame());
+    }
+
+
+    private static Chip8 newSystem(String rom) throws Exception {
+        Chip8 chip8 = new Chip8(500,true);
+        chip8.loadGame(rom);
+        chip8.setRandomSeed(5);
+        return chip8;
+    }
+
+    private static void runFrame(Chip8 chip8, int frame){
+        chip8.getKeyboard().setKeys((frame / 30) % 2 == 0 ? 1 << 4 : 1 << 6);
+        chip8.runFrame();
+    }
+}
@@ -0,0 +1,189 @@
+package chip8;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameServerTest {
+
+
+    /**
+     * A viewer over loopback sees the same screens as the system, and its key events reach the system.
+     */
+    @Test
+    public void streamsFramesAndReceivesKeys() throws Exception {
+        final Chip8 chip8 = new Chip8(500,true);
+        chip8.loadGame("BRIX");
+        chip8.setRandomSeed(1);
+
+        FrameServer server = new FrameServer(new InetSocketAddress("127.0.0.1", 0));
+        server.publish("BRIX", chip8);
+
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        final DataInputStream in = new DataInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        out.write("BRIX\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        //The viewer decodes frames while the system runs
+        final List<Long> frames = new ArrayList<Long>();
+        final List<long[]> screens = new ArrayList<long[]>();
+        Thread viewer = new Thread(){
+            public void run(){
+                FrameServer.Frame frame = new FrameServer.Frame();
+                try{
+                    while(true){
+                        frames.add(FrameServer.readFrame(in, frame));
+                        screens.add(frame.words.clone());
+                    }
+                }
+                catch(EOFException e){
+                    //Closed
+                }
+                catch(IOException e){
+                    e.printStackTrace();
+                }
+            }
+        };
+        viewer.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while(server.getViewers("BRIX") == 0 && System.currentTimeMillis() < deadline){
+            Thread.sleep(1);
+        }
+        assertEquals(1, server.getViewers("BRIX"));
+
+        Map<Long, long[]> sentScreens = new ConcurrentHashMap<Long, long[]>();
+        for(int frame = 0; frame < 300; frame++){
+            chip8.runFrame();
+            long[] words = new long[Memory.SCREEN_WORDS];
+            chip8.getMemory().copyScreen(words, 0);
+            sentScreens.put(chip8.getFrame() - 1, words);
+            if(frame == 150){
+                out.write(NetworkInput.PRESSED | 0x4);
+                out.flush();
+            }
+            Thread.sleep(1);
+        }
+        while(!chip8.getKeyboard().isPressed(4) && System.currentTimeMillis() < deadline){
+            Thread.sleep(1);
+        }
+        assertTrue(chip8.getKeyboard().isPressed(4));
+
+        Thread.sleep(100);
+        server.close();
+        viewer.join();
+        socket.close();
+
+        assertTrue(frames.size() > 10);
+        for(int i = 0; i < frames.size(); i++){
+            assertArrayEquals("Frame " + frames.get(i), sentScreens.get(frames.get(i)), screens.get(i));
+        }
+    }
+
+    /**
+     * A viewer that reads too slowly misses frames, and gets the screen again once it catches up, also when the screen
+     * no longer changes.
+     */
+    @Test
+    public void slowViewerCatchesUpWithStaticScreen() throws Exception {
+        int[] instructions = {
+                0x00FF,  //0x200 HIGH
+                0xF301,  //0x202 PLANE 3: 2KB per message
+                0x6101,  //0x204 LD V1, 1
+                0xC07F,  //0x206 RND V0, 0x7F
+                0xC23F,  //0x208 RND V2, 0x3F
+                0xD020,  //0x20A DRW V0, V2, 0 (16x16)
+                0xE19E,  //0x20C SKP V1
+                0x1206,  //0x20E JP 0x206
+                0x00FD}; //0x210 EXIT: the screen stays as it is
+        byte[] program = new byte[instructions.length * 2];
+        for(int i = 0; i < instructions.length; i++){
+            program[2 * i] = (byte)(instructions[i] >>> 8);
+            program[2 * i + 1] = (byte) instructions[i];
+        }
+        Chip8 chip8 = new Chip8(30000, true); //500 instructions per frame: ~100 sprites
+        chip8.setBootCache(null);
+        chip8.setMachine(Machine.XOCHIP);
+        chip8.loadGame(program);
+        chip8.setRandomSeed(1);
+
+        FrameServer server = new FrameServer(new InetSocketAddress("127.0.0.1", 0));
+        server.publish("SPRITES", chip8);
+
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(1024);
+        socket.connect(new InetSocketAddress("127.0.0.1", server.getPort()));
+        final DataInputStream in = new DataInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        out.write("SPRITES\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        long deadline = System.currentTimeMillis() + 5000;
+        while(server.getViewers("SPRITES") == 0 && System.currentTimeMillis() < deadline){
+            Thread.sleep(1);
+        }
+        assertEquals(1, server.getViewers("SPRITES"));
+
+        //Every frame changes the screen while the viewer doesn't read, until the socket buffers are full
+        for(int frame = 0; frame < 1000; frame++){
+            chip8.runFrame();
+            LockSupport.parkNanos(200000); //Lets the server send most frames
+        }
+        chip8.getKeyboard().setKeys(1 << 1);
+        for(int frame = 0; frame < 10; frame++){
+            chip8.runFrame();
+        }
+        long[] last = new long[Memory.SCREEN_WORDS];
+        chip8.getMemory().copyScreen(last, 0);
+
+        final long[][] read = new long[1][];
+        Thread viewer = new Thread(){
+            public void run(){
+                FrameServer.Frame frame = new FrameServer.Frame();
+                try{
+                    while(true){
+                        FrameServer.readFrame(in, frame);
+                        synchronized(read){
+                            read[0] = frame.words.clone();
+                        }
+                    }
+                }
+                catch(IOException e){
+                    //Closed
+                }
+            }
+        };
+        viewer.start();
+
+        //The screen is static from now on: only the keyframe asked when the viewer catches up brings it
+        boolean same = false;
+        deadline = System.currentTimeMillis() + 5000;
+        while(!same && System.currentTimeMillis() < deadline){
+            chip8.runFrame();
+            Thread.sleep(1);
+            synchronized(read){
+                same = read[0] != null && Arrays.equals(last, read[0]);
+            }
+        }
+        server.close();
+        socket.close();
+        viewer.join();
+        assertTrue(same);
+    }
+}
@@ -0,0 +1,50 @@
+package chip8;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LockstepEngineTest {
+
+    private static final String[] ROMS = {"BRIX", "PONG", "TETRIS", "MISSILE", "UFO", "BLINKY"};
+    private static final int LANES = 6;
+
+
+    /**
+     * Every lane runs as a Chip8 system with the same seed and keys, while the lanes diverge.
+     */
+    @Test
+    public void lanesRunAsSystems() throws Exception {
+        for(String name: ROMS){
+            byte[] rom = Files.toByteArray(new File("roms/" + name));
+            LockstepEngine engine = new LockstepEngine(rom, LANES, 500, 20);
+            Chip8[] systems = new Chip8[LANES];
+            for(int lane = 0; lane < LANES; lane++){
+                systems[lane] = new Chip8(500,true);
+                systems[lane].loadGame(rom);
+                systems[lane].setRandomSeed(20 + lane);
+            }
+            Chip8 exported = new Chip8(500,true);
+
+            for(int frame = 0; frame < 900; frame++){
+                for(int lane = 0; lane < LANES; lane++){
+                    int keys = (frame / (7 + lane)) % 3 == 0 ? 1 << ((frame / 20 + lane) % 16) : 0;
+                    engine.setKeys(lane, keys);
+                    systems[lane].getKeyboard().setKeys(keys);
+                    systems[lane].runFrame();
+                }
+                engine.runFrame();
+            }
+
+            for(int lane = 0; lane < LANES; lane++){
+                assertFalse(engine.isCrashed(lane));
+                engine.exportLane(lane, exported);
+                assertEquals(name + " lane " + lane, systems[lane].getStateHash(), exported.getStateHash());
+            }
+        }
+    }
+}
@@ -35,7 +35,7 @@ public class ProcessingUnitTest {
         //First, fill the screen
         for(int x = 0; x < 64; x++){
             for(int y = 0; y < 32; y++){
-                memory.pixels[x][y] = true;
+                memory.setPixel(x, y, true);
             }
         }
 
@@ -44,7 +44,7 @@ public class ProcessingUnitTest {
         boolean orOfPixels = false;
         for(int x = 0; x < 64; x++){
             for(int y = 0; y < 32; y++){
-                orOfPixels = orOfPixels |  memory.pixels[x][y];
+                orOfPixels = orOfPixels |  memory.getPixel(x, y);
             }
         }
 
@@ -897,7 +897,7 @@ public class ProcessingUnitTest {
         //Check for A, and it's pressed
         registerBank.PC = 0x200;
         registerBank.V[0] = 0xA;
-        keyboard.pressed[0xA] = true; //Simulate that it's pressed
+        keyboard.press((byte)0xA); //Simulate that it's pressed
 
         instructions.skipIfPressed((byte)0x0);
 
@@ -906,7 +906,7 @@ public class ProcessingUnitTest {
         //Chec, for B, and it's not pressed
         registerBank.PC = 0x200;
         registerBank.V[0] = 0xB;
-        keyboard.pressed[0xB] = false; //Simulate that it's not pressed
+        keyboard.release((byte)0xB); //Simulate that it's not pressed
 
         instructions.skipIfPressed((byte)0x0);
 
@@ -932,7 +932,7 @@ public class ProcessingUnitTest {
         //Check for A, and it's pressed
         registerBank.PC = 0x200;
         registerBank.V[0] = 0xA;
-        keyboard.pressed[0xA] = true; //Simulate that it's pressed
+        keyboard.press((byte)0xA); //Simulate that it's pressed
 
         instructions.skipIfNotPressed((byte)0x0);
 
@@ -941,7 +941,7 @@ public class ProcessingUnitTest {
         //Chec, for B, and it's not pressed
         registerBank.PC = 0x200;
         registerBank.V[0] = 0xB;
-        keyboard.pressed[0xB] = false; //Simulate that it's not pressed
+        keyboard.release((byte)0xB); //Simulate that it's not pressed
 
         instructions.skipIfNotPressed((byte)0x0);
 
@@ -963,8 +963,7 @@ public class ProcessingUnitTest {
 
         byte x = 0x0; //Store result in Vx
 
-        keyboard.lastPressed = 0xA; //Simulate last pressed = A
-        keyboard.numberOfPressedKeys = 1; //Simulate 1 pressed key
+        keyboard.press((byte)0xA); //Simulate that A is pressed
 
         instructions.waitKey(x);
 
@@ -972,6 +971,26 @@ public class ProcessingUnitTest {
 
     }
 
+    /**
+     * Fx0A - LD Vx, K
+     * If no key is pressed, the unit is suspended (without blocking) until the next key press.
+     */
+    @Test
+    public void waitKeySuspendsUntilPress(){
+
+        byte x = 0x3; //Store result in Vx
+
+        instructions.waitKey(x);
+        assertTrue(instructions.isWaitingForKey());
+        assertEquals(false,instructions.resumeIfKeyPressed()); //No key yet
+
+        keyboard.press((byte)0xB);
+        assertTrue(instructions.resumeIfKeyPressed());
+        assertEquals(false,instructions.isWaitingForKey());
+        assertEquals(0xB,registerBank.V[x]);
+
+    }
+
 
 
 
@@ -984,7 +1003,7 @@ public class ProcessingUnitTest {
         boolean theSame = true;
         for(int i = 0; i <=7; i++){
 
-            theSame = theSame && (isBitSet(b,7-i) == memory.pixels[(x+i)%64][y]);
+            theSame = theSame && (isBitSet(b,7-i) == memory.getPixel((x+i)%64, y));
         }
         return theSame;
     }
@@ -0,0 +1,137 @@
+package chip8;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static chip8.TestSystems.hashFromScratch;
+import static chip8.TestSystems.newSystem;
+import static chip8.TestSystems.step;
+
+public class QuirksTest {
+
+
+    /**
+     * Each profile shifts its register, leaves I where it says and adds its register to Bnnn.
+     */
+    @Test
+    public void profilesChangeShiftsLoadsAndJumps(){
+        int[] program = {
+                0x6003,  //0x200 LD V0, 3
+                0x6181,  //0x202 LD V1, 0x81
+                0x6202,  //0x204 LD V2, 2
+                0x8216,  //0x206 SHR V2, V1
+                0xA300,  //0x208 LD I, 0x300
+                0xF255,  //0x20A LD [I], V2
+                0xB210,  //0x20C JP V0, 0x210
+                0x1210}; //0x20E JP 0x20E
+        Chip8 original = newSystem(Machine.CHIP8, Quirks.DEFAULT, program);
+        step(original, 7);
+        assertEquals(1, original.getRegisterBank().V[2]);
+        assertEquals(0, original.getRegisterBank().V[0xF]);
+        assertEquals(0x300, original.getRegisterBank().I);
+        assertEquals(0x213, original.getRegisterBank().PC);
+
+        Chip8 vip = newSystem(Machine.CHIP8, Quirks.VIP, program);
+        step(vip, 7);
+        assertEquals(0x40, vip.getRegisterBank().V[2]);
+        assertEquals(1, vip.getRegisterBank().V[0xF]);
+        assertEquals(0x303, vip.getRegisterBank().I);
+        assertEquals(0x213, vip.getRegisterBank().PC);
+
+        Chip8 schip = newSystem(Machine.CHIP8, Quirks.SCHIP, program);
+        step(schip, 7);
+        assertEquals(0x300, schip.getRegisterBank().I);
+        assertEquals(0x211, schip.getRegisterBank().PC); //B210 adds V2
+
+        //VF as operand: Vy is read before VF is written, and VF ends with the bit shifted out
+        int[] flags = {
+                0x6F03,  //0x200 LD VF, 3
+                0x6181,  //0x202 LD V1, 0x81
+                0x8AF6,  //0x204 SHR VA, VF
+                0x8F16,  //0x206 SHR VF, V1
+                0x6F83,  //0x208 LD VF, 0x83
+                0x8AFE,  //0x20A SHL VA, VF
+                0x8F1E}; //0x20C SHL VF, V1
+        vip = newSystem(Machine.CHIP8, Quirks.VIP, flags);
+        step(vip, 3);
+        assertEquals(1, vip.getRegisterBank().V[0xA]);
+        assertEquals(1, vip.getRegisterBank().V[0xF]);
+        step(vip, 1);
+        assertEquals(1, vip.getRegisterBank().V[0xF]); //Not 0x40, the shifted V1
+        step(vip, 2);
+        assertEquals(0x06, vip.getRegisterBank().V[0xA]);
+        assertEquals(1, vip.getRegisterBank().V[0xF]);
+        step(vip, 1);
+        assertEquals(1, vip.getRegisterBank().V[0xF]); //Not 0x02
+
+        //Shifting Vx, VF is set before Vx is read, as the emulator always did
+        original = newSystem(Machine.CHIP8, Quirks.DEFAULT, flags);
+        step(original, 3);
+        assertEquals(0, original.getRegisterBank().V[0xA]);
+        assertEquals(0, original.getRegisterBank().V[0xF]);
+        step(original, 1);
+        assertEquals(0, original.getRegisterBank().V[0xF]);
+    }
+
+    /**
+     * Sprites beyond the edges wrap around the screen, or are clipped.
+     */
+    @Test
+    public void spritesWrapOrClip(){
+        int[] program = {
+                0x603C,  //0x200 LD V0, 60
+                0x611F,  //0x202 LD V1, 31
+                0xA220,  //0x204 LD I, 0x220
+                0xD012,  //0x206 DRW V0, V1, 2
+                0x1208}; //0x208 JP 0x208
+        Chip8 wrap = newSystem(Machine.CHIP8, Quirks.DEFAULT, program);
+        Chip8 clip = newSystem(Machine.CHIP8, Quirks.VIP, program);
+        for(Chip8 chip8: new Chip8[]{wrap, clip}){
+            chip8.getMemory().set((short)0x220, (byte)0xFF);
+            chip8.getMemory().set((short)0x221, (byte)0xFF);
+            step(chip8, 4);
+            assertTrue(chip8.getMemory().getPixel(60, 31));
+            assertTrue(chip8.getMemory().getPixel(63, 31));
+            assertEquals(hashFromScratch(chip8), chip8.getStateHash());
+        }
+        assertTrue(wrap.getMemory().getPixel(0, 31));
+        assertTrue(wrap.getMemory().getPixel(60, 0));
+        assertTrue(wrap.getMemory().getPixel(3, 0));
+        assertFalse(clip.getMemory().getPixel(0, 31));
+        assertFalse(clip.getMemory().getPixel(60, 0));
+        assertEquals(0, clip.getMemory().getRow(0));
+    }
+
+    /**
+     * Compiled roms run the handlers of the profile too.
+     */
+    @Test
+    public void compiledRomsFollowTheProfile() throws Exception {
+        for(Quirks quirks: Quirks.values()){
+            Chip8 reference = newRomSystem(quirks, "BLINKY");
+            reference.setEngine(null);
+            Chip8 candidate = newRomSystem(quirks, "BLINKY");
+            assertTrue(candidate.getEngine() instanceof CompiledEngine);
+            for(int frame = 0; frame < 600; frame++){
+                int keys = (frame / 40) % 2 == 0 ? 1 << 7 : 1 << 8;
+                reference.getKeyboard().setKeys(keys);
+                candidate.getKeyboard().setKeys(keys);
+                reference.runFrame();
+                candidate.runFrame();
+                assertEquals(quirks + " frame " + frame, reference.getStateHash(), candidate.getStateHash());
+            }
+        }
+    }
+
+
+    private static Chip8 newRomSystem(Quirks quirks, String rom) throws Exception {
+        Chip8 chip8 = new Chip8(600, true);
+        chip8.setBootCache(null);
+        chip8.setQuirks(quirks);
+        chip8.loadGame(rom);
+        chip8.setRandomSeed(3);
+        return chip8;
+    }
+}
@@ -0,0 +1,184 @@
+package chip8;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.model.RunnerScheduler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Runs every rom of the roms folder headless, with a scripted input and a fixed random seed, and compares the hashes
+ * of the screen and the memory at some checkpoints against the golden hashes of src/test/resources/chip8/golden.properties.
+ * Roms run in parallel, one per core.
+ *
+ * After an intended change of behaviour, regenerate the goldens with -Dchip8.golden.update=true (i.e.
+ * gradle test -Dchip8.golden.update=true) and review the diff.
+ */
+@RunWith(RomConformanceTest.ParallelParameterized.class)
+public class RomConformanceTest {
+
+    private static final int FREQUENCY_HZ = 500;
+    private static final long SEED = 0xC8;
+    private static final int[] CHECKPOINTS = {60, 600, 1800, 3600}; //Frames
+
+    private static final String GOLDEN_RESOURCE = "chip8/golden.properties";
+    private static final File GOLDEN_SOURCE = new File("src/test/resources/" + GOLDEN_RESOURCE);
+    private static final boolean UPDATE = Boolean.getBoolean("chip8.golden.update");
+
+    private static final Properties golden = loadGolden();
+    private static final ConcurrentHashMap<String,String> actual = new ConcurrentHashMap<String,String>();
+
+    private String rom;
+
+    public RomConformanceTest(String rom){
+        this.rom = rom;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> roms(){
+        String[] names = new File("roms").list();
+        Arrays.sort(names);
+        List<Object[]> roms = new ArrayList<Object[]>();
+        for(String name: names){
+            roms.add(new Object[]{name});
+        }
+        return roms;
+    }
+
+    @Test
+    public void matchesGoldenHashes() throws IOException {
+        Chip8 chip8 = new Chip8(FREQUENCY_HZ,true);
+        chip8.loadGame(rom);
+        chip8.setRandomSeed(SEED);
+        chip8.setInput(new ScriptedInput(InputScript.parse(
+                Resources.readLines(Resources.getResource("chip8/conformance.txt"), Charsets.UTF_8))));
+
+        int frame = 0;
+        for(int checkpoint: CHECKPOINTS){
+            while(frame < checkpoint){
+                chip8.runFrame();
+                frame++;
+            }
+            String key = rom + "." + checkpoint;
+            String hashes = hashes(chip8.getMemory());
+            actual.put(key, hashes);
+            if(!UPDATE){
+                String expected = golden.getProperty(key);
+                assertNotNull("No golden hashes for " + key + ", run with -Dchip8.golden.update=true", expected);
+                assertEquals("Screen/memory hashes of " + rom + " at frame " + checkpoint, expected, hashes);
+            }
+        }
+    }
+
+    @AfterClass
+    public static void writeGolden() throws IOException {
+        if(!UPDATE){
+            return;
+        }
+        StringBuilder out = new StringBuilder("# Golden hashes of RomConformanceTest: rom.frame=screen memory (FNV-1a 64)\n");
+        for(java.util.Map.Entry<String,String> entry: new TreeMap<String,String>(actual).entrySet()){
+            out.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        GOLDEN_SOURCE.getParentFile().mkdirs();
+        OutputStream stream = new FileOutputStream(GOLDEN_SOURCE);
+        try{
+            stream.write(out.toString().getBytes(Charsets.UTF_8));
+        }
+        finally{
+            stream.close();
+        }
+        System.out.println("[INFO] Golden hashes written to " + GOLDEN_SOURCE);
+    }
+
+
+    /**
+     * Hashes the logical pixels (not their storage, so the layout of the screen can change) and the 4KB of memory.
+     */
+    private static String hashes(Memory memory){
+        long screen = 0xcbf29ce484222325L;
+        for(int y = 0; y < 32; y++){
+            for(int x = 0; x < 64; x++){
+                screen = fnv(screen, memory.getPixel(x, y) ? 1 : 0);
+            }
+        }
+        long ram = 0xcbf29ce484222325L;
+        for(int address = 0; address < 4096; address++){
+            ram = fnv(ram, memory.get((short) address));
+        }
+        return String.format("%016x %016x", screen, ram);
+    }
+
+    private static long fnv(long hash, int b){
+        return (hash ^ (b & 0xFF)) * 0x100000001b3L;
+    }
+
+    private static Properties loadGolden(){
+        Properties properties = new Properties();
+        URL url = RomConformanceTest.class.getClassLoader().getResource(GOLDEN_RESOURCE);
+        if(url != null){
+            try{
+                InputStream stream = url.openStream();
+                try{
+                    properties.load(stream);
+                }
+                finally{
+                    stream.close();
+                }
+            }
+            catch(IOException ex){
+                throw new IllegalStateException(ex);
+            }
+        }
+        return properties;
+    }
+
+
+    /**
+     * Parameterized runner that runs the parameter sets (roms) in parallel, one thread per core.
+     */
+    public static class ParallelParameterized extends Parameterized {
+
+        public ParallelParameterized(Class<?> klass) throws Throwable {
+            super(klass);
+            setScheduler(new RunnerScheduler() {
+                private ExecutorService executor =
+                        Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+                public void schedule(Runnable child) {
+                    executor.submit(child);
+                }
+
+                public void finished() {
+                    executor.shutdown();
+                    try {
+                        executor.awaitTermination(1, TimeUnit.HOURS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+    }
+}
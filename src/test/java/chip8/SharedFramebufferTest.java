@@ -0,0 +1,125 @@
+package chip8;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharedFramebufferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    /**
+     * A reader sees the last frames published, and the older ones as overwritten.
+     */
+    @Test
+    public void readsPublishedFrames() throws Exception {
+        File file = folder.newFile("BRIX.fb");
+        Chip8 chip8 = new Chip8(500,true);
+        chip8.loadGame("BRIX");
+        SharedFramebuffer writer = new SharedFramebuffer(file, 16, chip8.getRegisterBank());
+        chip8.setVideoOutput(writer);
+        for(int frame = 0; frame < 100; frame++){
+            chip8.runFrame();
+        }
+
+        SharedFramebuffer reader = SharedFramebuffer.open(file);
+        assertEquals(100, reader.getHead());
+
+        long[] screen = new long[Memory.SCREEN_WORDS];
+        byte[] registers = new byte[SharedFramebuffer.STATE_BYTES];
+        assertEquals(99, reader.read(99, screen, registers));
+        long[] expected = new long[Memory.SCREEN_WORDS];
+        chip8.getMemory().copyScreen(expected, 0);
+        assertArrayEquals(expected, screen);
+        assertEquals(0, registers[23]); //Low resolution
+        byte[] v = new byte[16];
+        System.arraycopy(registers, 0, v, 0, 16);
+        assertArrayEquals(chip8.getRegisterBank().V, v);
+        assertEquals(chip8.getRegisterBank().PC, (short)((registers[18] & 0xFF) | registers[19] << 8));
+
+        assertEquals(-1, reader.read(50, screen, null)); //Overwritten
+        assertEquals(-1, reader.read(100, screen, null)); //Not published yet
+        reader.close();
+        writer.close();
+    }
+
+    /**
+     * SUPER-CHIP high resolution and XO-CHIP planes are published whole, with the resolution flag.
+     */
+    @Test
+    public void publishesHighResolutionColorScreens() throws Exception {
+        File file = folder.newFile("XO.fb");
+        Chip8 chip8 = new Chip8(500,true);
+        chip8.setMachine(Machine.XOCHIP);
+        chip8.loadGame(new byte[]{
+                (byte)0x00, (byte)0xFF,  //0x200 HIGH
+                (byte)0xF3, (byte)0x01,  //0x202 PLANE 3
+                (byte)0x60, (byte)0x7C,  //0x204 LD V0, 124
+                (byte)0x61, (byte)0x3E,  //0x206 LD V1, 62
+                (byte)0xA2, (byte)0x10,  //0x208 LD I, 0x210
+                (byte)0xD0, (byte)0x11,  //0x20A DRW V0, V1, 1
+                (byte)0x12, (byte)0x0C,  //0x20C JP 0x20C
+                (byte)0x00, (byte)0x00,
+                (byte)0xC0, (byte)0x60   //0x210 Plane 0: pixels 0 and 1. Plane 1: pixels 1 and 2
+        });
+        SharedFramebuffer writer = new SharedFramebuffer(file, 2, chip8.getRegisterBank());
+        chip8.setVideoOutput(writer);
+        chip8.runFrame();
+
+        SharedFramebuffer reader = SharedFramebuffer.open(file);
+        long[] screen = new long[Memory.SCREEN_WORDS];
+        byte[] state = new byte[SharedFramebuffer.STATE_BYTES];
+        assertEquals(0, reader.read(0, screen, state));
+        assertEquals(Memory.HIGH_RESOLUTION, state[23]);
+        assertEquals(1, Memory.getColor(screen, 0, 124, 62));
+        assertEquals(3, Memory.getColor(screen, 0, 125, 62));
+        assertEquals(2, Memory.getColor(screen, 0, 126, 62));
+        assertEquals(0, Memory.getColor(screen, 0, 127, 62));
+        reader.close();
+        writer.close();
+    }
+
+    /**
+     * A reader never sees a slot while it is being written.
+     */
+    @Test
+    public void readsAreConsistentWhileWriting() throws Exception {
+        File file = folder.newFile("PONG.fb");
+        final Chip8 chip8 = new Chip8(500,true);
+        chip8.loadGame("PONG");
+        SharedFramebuffer writer = new SharedFramebuffer(file, 4, chip8.getRegisterBank());
+        chip8.setVideoOutput(writer);
+        Thread emulation = new Thread(){
+            public void run(){
+                for(int frame = 0; frame < 20000; frame++){
+                    chip8.runFrame();
+                }
+            }
+        };
+
+        SharedFramebuffer reader = SharedFramebuffer.open(file);
+        long[] screen = new long[Memory.SCREEN_WORDS];
+        int reads = 0;
+        emulation.start();
+        while(emulation.isAlive()){
+            long index = reader.getHead() - 1;
+            long frame = reader.read(index, screen, null);
+            if(frame >= 0){
+                assertEquals(index, frame); //Index and frame are written in the same slot
+                reads++;
+            }
+        }
+        emulation.join();
+        assertTrue(reads > 0);
+        reader.close();
+        writer.close();
+    }
+}
@@ -0,0 +1,109 @@
+package chip8;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StateHashTest {
+
+
+    /**
+     * The incremental hash equals the one computed from scratch, and equal systems have equal hashes.
+     */
+    @Test
+    public void incrementalHashMatchesFullHash() throws Exception {
+        Chip8 a = new Chip8(500,true);
+        Chip8 b = new Chip8(500,true);
+        a.loadGame("BRIX");
+        b.loadGame("BRIX");
+        a.setRandomSeed(1);
+        b.setRandomSeed(1);
+        assertEquals(a.getStateHash(), b.getStateHash());
+
+        for(int frame = 0; frame < 600; frame++){
+            a.runFrame();
+            b.runFrame();
+            assertEquals(StateHash.compute(a.getMemory(), a.getRegisterBank(), a.getProcessingUnit()), a.getStateHash());
+            assertEquals(a.getStateHash(), b.getStateHash());
+        }
+
+        b.getRegisterBank().V[3]++;
+        assertTrue(a.getStateHash() != b.getStateHash());
+    }
+
+    /**
+     * States that only differ in the SUPER-CHIP flag registers have different hashes.
+     */
+    @Test
+    public void hashesFlagRegisters(){
+        int[] program = {
+                0x6007,  //0x200 LD V0, 7
+                0xF075,  //0x202 LD R, V0
+                0x1204}; //0x204 JP 0x204
+        Chip8 a = TestSystems.newSystem(Machine.SCHIP, Quirks.DEFAULT, program);
+        Chip8 b = TestSystems.newSystem(Machine.SCHIP, Quirks.DEFAULT, program);
+        TestSystems.step(a, 3);
+        TestSystems.step(b, 3);
+        assertEquals(a.getStateHash(), b.getStateHash());
+
+        b.getProcessingUnit().getFlags()[0] = 8; //The next Fx85 would load 8 instead of 7
+        assertTrue(a.getStateHash() != b.getStateHash());
+        assertEquals(TestSystems.hashFromScratch(b), b.getStateHash());
+    }
+
+    /**
+     * A program that ends in an infinite loop stalls, parks, and resumes when a key is pressed.
+     */
+    @Test
+    public void detectsStalls(){
+        Chip8 chip8 = new Chip8(500,true);
+        chip8.loadGame(new byte[]{
+                (byte)0x60, (byte)0x05,  //0x200 LD V0, 5
+                (byte)0xF0, (byte)0x15,  //0x202 LD DT, V0
+                (byte)0xE1, (byte)0x9E,  //0x204 SKP V1
+                (byte)0x12, (byte)0x04,  //0x206 JP 0x204
+                (byte)0x70, (byte)0x01,  //0x208 ADD V0, 1
+                (byte)0x12, (byte)0x08   //0x20A JP 0x208
+        });
+        chip8.setStallDetection(8);
+
+        for(int frame = 0; frame < 5; frame++){
+            chip8.runFrame();
+            assertFalse(chip8.isStalled()); //DT is counting down
+        }
+        chip8.runFrame();
+        chip8.runFrame();
+        assertTrue(chip8.isStalled());
+        assertEquals(1, chip8.getStallPeriod());
+
+        short pc = chip8.getRegisterBank().PC;
+        chip8.runFrame(); //Parked
+        assertEquals(pc, chip8.getRegisterBank().PC);
+
+        chip8.getKeyboard().press((byte)0); //V1 is 0
+        chip8.runFrame();
+        assertFalse(chip8.isStalled());
+        chip8.runFrame();
+        assertFalse(chip8.isStalled()); //V0 counts up
+
+        //Parked frames leave DT and ST as the skipped frames would, also when the rom reloads them every frame
+        chip8 = new Chip8(500,true);
+        chip8.loadGame(new byte[]{
+                (byte)0x60, (byte)0x05,  //0x200 LD V0, 5
+                (byte)0xF0, (byte)0x15,  //0x202 LD DT, V0
+                (byte)0xF0, (byte)0x18,  //0x204 LD ST, V0
+                (byte)0xF0, (byte)0x15,  //0x206 LD DT, V0
+                (byte)0x12, (byte)0x02   //0x208 JP 0x202
+        });
+        chip8.setStallDetection(8);
+        for(int frame = 0; frame < 8; frame++){
+            chip8.runFrame();
+            assertEquals(4, chip8.getRegisterBank().DT);
+            assertEquals(4, chip8.getRegisterBank().ST);
+        }
+        assertTrue(chip8.isStalled());
+        assertEquals(1, chip8.getStallPeriod());
+    }
+}
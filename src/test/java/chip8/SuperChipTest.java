@@ -0,0 +1,130 @@
+package chip8;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static chip8.TestSystems.hashFromScratch;
+import static chip8.TestSystems.newSystem;
+import static chip8.TestSystems.step;
+
+public class SuperChipTest {
+
+
+    /**
+     * Dxy0 draws 16x16 sprites that wrap around the 128x64 screen, and erasing them sets VF.
+     */
+    @Test
+    public void largeSpritesWrapInHighResolution(){
+        Chip8 chip8 = newSystem(Machine.SCHIP, Quirks.DEFAULT,
+                0x00FF,  //0x200 HIGH
+                0x6078,  //0x202 LD V0, 120
+                0x613C,  //0x204 LD V1, 60
+                0xA220,  //0x206 LD I, 0x220
+                0xD010,  //0x208 DRW V0, V1, 0
+                0xD010,  //0x20A DRW V0, V1, 0
+                0x120C); //0x20C JP 0x20C
+        Memory memory = chip8.getMemory();
+        for(int i = 0; i < 32; i++){
+            memory.set((short)(0x220 + i), (byte)0xFF);
+        }
+
+        step(chip8, 5);
+        assertTrue(memory.isHighResolution());
+        assertEquals(128, memory.getWidth());
+        assertTrue(memory.getPixel(120, 60));
+        assertTrue(memory.getPixel(127, 63));
+        assertTrue(memory.getPixel(0, 0));
+        assertTrue(memory.getPixel(7, 11));
+        assertFalse(memory.getPixel(8, 0));
+        assertFalse(memory.getPixel(119, 60));
+        assertFalse(memory.getPixel(120, 12));
+        assertEquals(0, chip8.getRegisterBank().V[0xF]);
+        assertEquals(hashFromScratch(chip8), chip8.getStateHash());
+
+        step(chip8, 1);
+        assertEquals(1, chip8.getRegisterBank().V[0xF]);
+        assertFalse(memory.getPixel(0, 0));
+        assertEquals(StateHash.HIGH_RESOLUTION, memory.getScreenHash());
+    }
+
+    /**
+     * Scrolls move whole rows and words, also across the two words of a high resolution row.
+     */
+    @Test
+    public void scrollsMoveThePixels(){
+        Chip8 chip8 = newSystem(Machine.SCHIP, Quirks.DEFAULT,
+                0x00FF,  //0x200 HIGH
+                0x603E,  //0x202 LD V0, 62
+                0x6105,  //0x204 LD V1, 5
+                0xA220,  //0x206 LD I, 0x220
+                0xD011,  //0x208 DRW V0, V1, 1
+                0x00C3,  //0x20A SCD 3
+                0x00FB,  //0x20C SCR
+                0x00FC,  //0x20E SCL
+                0x00FC,  //0x210 SCL
+                0x00FE,  //0x212 LOW
+                0x1214); //0x214 JP 0x214
+        Memory memory = chip8.getMemory();
+        memory.set((short)0x220, (byte)0x80);
+
+        step(chip8, 5);
+        assertTrue(memory.getPixel(62, 5));
+        assertEquals(1L << (63 - 31), memory.getRow(2)); //Scaled down to 64x32
+        step(chip8, 1);
+        assertTrue(memory.getPixel(62, 8));
+        assertFalse(memory.getPixel(62, 5));
+        step(chip8, 1);
+        assertTrue(memory.getPixel(66, 8));
+        assertEquals(1L << (63 - 2), memory.getWord(8, 1));
+        assertEquals(0, memory.getWord(8, 0));
+        step(chip8, 2);
+        assertTrue(memory.getPixel(58, 8));
+        assertEquals(hashFromScratch(chip8), chip8.getStateHash());
+
+        step(chip8, 1);
+        assertFalse(memory.isHighResolution());
+        assertEquals(0, memory.getScreenHash());
+    }
+
+    /**
+     * SUPER-CHIP instructions run the same in every engine, and snapshots keep the high resolution screen.
+     */
+    @Test
+    public void enginesAndSnapshotsAgree(){
+        int[] program = {
+                0x00FF,  //0x200 HIGH
+                0x6707,  //0x202 LD V7, 7
+                0xF730,  //0x204 LD HF, V7
+                0xD010,  //0x206 DRW V0, V1, 0
+                0xD7B5,  //0x208 DRW V7, VB, 5
+                0x00C1,  //0x20A SCD 1
+                0x00FB,  //0x20C SCR
+                0x7009,  //0x20E ADD V0, 9
+                0x7103,  //0x210 ADD V1, 3
+                0x7B05,  //0x212 ADD VB, 5
+                0xF775,  //0x214 LD R, V7
+                0x6700,  //0x216 LD V7, 0
+                0xF785,  //0x218 LD V7, R
+                0x1204}; //0x21A JP 0x204
+        Chip8 reference = newSystem(Machine.SCHIP, Quirks.DEFAULT, program);
+        Chip8 candidate = newSystem(Machine.SCHIP, Quirks.DEFAULT, program);
+        candidate.setEngine(new SwitchEngine(candidate.getMemory(), candidate.getRegisterBank(),
+                candidate.getProcessingUnit()));
+        for(int frame = 0; frame < 30; frame++){
+            reference.runFrame();
+            candidate.runFrame();
+            assertEquals(reference.getStateHash(), candidate.getStateHash());
+        }
+        assertEquals(7, reference.getProcessingUnit().getFlags()[7]);
+        assertEquals(hashFromScratch(reference), reference.getStateHash());
+
+        Chip8 restored = newSystem(Machine.SCHIP, Quirks.DEFAULT, program);
+        Snapshot.restore(restored, Snapshot.capture(reference));
+        assertEquals(reference.getStateHash(), restored.getStateHash());
+        restored.runFrame();
+        reference.runFrame();
+        assertEquals(reference.getStateHash(), restored.getStateHash());
+    }
+}
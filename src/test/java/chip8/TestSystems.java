@@ -0,0 +1,40 @@
+package chip8;
+
+/**
+ * Headless systems running small programs, shared by the tests of the machines and quirks.
+ */
+class TestSystems {
+
+    /**
+     * Returns a headless system of "machine" and "quirks", without boot cache, with "instructions" loaded at 0x200.
+     */
+    static Chip8 newSystem(Machine machine, Quirks quirks, int... instructions){
+        byte[] program = new byte[instructions.length * 2];
+        for(int i = 0; i < instructions.length; i++){
+            program[2 * i] = (byte)(instructions[i] >>> 8);
+            program[2 * i + 1] = (byte) instructions[i];
+        }
+        Chip8 chip8 = new Chip8(600, true);
+        chip8.setBootCache(null);
+        chip8.setMachine(machine);
+        chip8.setQuirks(quirks);
+        chip8.loadGame(program);
+        return chip8;
+    }
+
+    /**
+     * Executes "instructions" instructions with the control unit.
+     */
+    static void step(Chip8 chip8, int instructions){
+        for(int i = 0; i < instructions; i++){
+            chip8.getControlUnit().step();
+        }
+    }
+
+    /**
+     * Hash of the state computed from scratch, to compare with the incremental one.
+     */
+    static long hashFromScratch(Chip8 chip8){
+        return StateHash.compute(chip8.getMemory(), chip8.getRegisterBank(), chip8.getProcessingUnit());
+    }
+}
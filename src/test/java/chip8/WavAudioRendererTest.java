@@ -0,0 +1,79 @@
+package chip8;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WavAudioRendererTest {
+
+
+    private File wav;
+
+    @Before
+    public void initialize() throws IOException {
+        wav = File.createTempFile("chip8",".wav");
+    }
+
+    @After
+    public void cleanUp(){
+        wav.delete();
+    }
+
+    /**
+     * Every frame adds 1/60 seconds of samples, and the header describes them.
+     */
+    @Test
+    public void rendersFramesInEmulatedTime() throws IOException {
+
+        WavAudioRenderer renderer = new WavAudioRenderer(wav);
+        for(int frame = 0; frame < 120; frame++){
+            renderer.frame(frame >= 60 && frame < 90); //Beep during half a second
+        }
+        renderer.close();
+
+        long dataBytes = 120 * Beeper.SAMPLES_PER_FRAME * 2;
+        assertEquals(44 + dataBytes, wav.length());
+
+        ByteBuffer data = read(wav);
+        assertEquals(36 + dataBytes, data.getInt(4));    //RIFF size
+        assertEquals(Beeper.SAMPLE_RATE, data.getInt(24));
+        assertEquals(16, data.getShort(34));             //Bits per sample
+        assertEquals(dataBytes, data.getInt(40));        //data size
+
+        //Silent before the beep, sound during it
+        assertEquals(0, maxAmplitude(data, 0, 60));
+        assertTrue(maxAmplitude(data, 60, 90) > 0);
+        assertEquals(0, maxAmplitude(data, 91, 120));
+    }
+
+
+    private static ByteBuffer read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try{
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        finally{
+            in.close();
+        }
+    }
+
+    //Highest absolute sample from frame "from" to frame "to" (excluded)
+    private static int maxAmplitude(ByteBuffer data, int from, int to){
+        int max = 0;
+        for(int sample = from * Beeper.SAMPLES_PER_FRAME; sample < to * Beeper.SAMPLES_PER_FRAME; sample++){
+            max = Math.max(max, Math.abs(data.getShort(44 + sample * 2)));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,147 @@
+package chip8;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static chip8.TestSystems.hashFromScratch;
+import static chip8.TestSystems.step;
+
+public class XoChipTest {
+
+
+    /**
+     * F000 loads 16-bit addresses, skips jump over its second word, and 5xy2/5xy3 reach the whole 64KB.
+     */
+    @Test
+    public void longAddressesReachTheWholeMemory(){
+        Chip8 chip8 = newSystem(
+                0x6001,  //0x200 LD V0, 1
+                0x6102,  //0x202 LD V1, 2
+                0x6203,  //0x204 LD V2, 3
+                0xF000,  //0x206 LD I, LONG
+                0xFFF0,  //0x208 0xFFF0
+                0x5022,  //0x20A LD [I], V0-V2
+                0x5203,  //0x20C LD V2-V0, [I]
+                0x4301,  //0x20E SNE V3, 1
+                0xF000,  //0x210 LD I, LONG (skipped, both words)
+                0x1234,  //0x212 0x1234
+                0x1214); //0x214 JP 0x214
+        assertEquals(Memory.XO_CHIP_SIZE, chip8.getMemory().getSize());
+
+        step(chip8, 6);
+        assertEquals((short)0xFFF0, chip8.getRegisterBank().I);
+        assertEquals(3, chip8.getMemory().get((short)0xFFF2));
+        assertArrayEquals(new byte[]{3, 2, 1}, new byte[]{chip8.getRegisterBank().V[0], chip8.getRegisterBank().V[1],
+                chip8.getRegisterBank().V[2]});
+
+        step(chip8, 1);
+        assertEquals(0x214, chip8.getRegisterBank().PC);
+        assertEquals((short)0xFFF0, chip8.getRegisterBank().I);
+        assertEquals(hashFromScratch(chip8), chip8.getStateHash());
+    }
+
+    /**
+     * Sprites are drawn on the selected planes, each with its own data, and the planes make the colors.
+     */
+    @Test
+    public void planesMakeColors(){
+        Chip8 chip8 = newSystem(
+                0xF301,  //0x200 PLANE 3
+                0xA220,  //0x202 LD I, 0x220
+                0xD001,  //0x204 DRW V0, V0, 1
+                0xF201,  //0x206 PLANE 2
+                0x00D1,  //0x208 SCU 1
+                0x00E0,  //0x20A CLS
+                0x120C); //0x20C JP 0x20C
+        Memory memory = chip8.getMemory();
+        memory.set((short)0x220, (byte)0xC0); //Plane 0: pixels 0 and 1
+        memory.set((short)0x221, (byte)0x60); //Plane 1: pixels 1 and 2
+
+        step(chip8, 3);
+        assertEquals(1, memory.getColor(0, 0));
+        assertEquals(3, memory.getColor(1, 0));
+        assertEquals(2, memory.getColor(2, 0));
+        assertEquals(0, memory.getColor(3, 0));
+        assertEquals(0xE0L << 56, memory.getRow(0));
+
+        step(chip8, 2); //Scrolls plane 1 up, out of the screen
+        assertEquals(1, memory.getColor(1, 0));
+        assertEquals(0, memory.getColor(2, 0));
+        assertEquals(0, memory.getWord(1, 31, 0));
+        step(chip8, 1);
+        assertEquals(1, memory.getColor(0, 0));
+        assertEquals(hashFromScratch(chip8), chip8.getStateHash());
+    }
+
+    /**
+     * XO-CHIP programs run the same in every engine, snapshots and forks keep planes and audio, and the audio
+     * pattern is sent to the audio output.
+     */
+    @Test
+    public void enginesSnapshotsAndAudioAgree(){
+        int[] program = {
+                0xF301,  //0x200 PLANE 3
+                0xA300,  //0x202 LD I, 0x300
+                0xF002,  //0x204 AUDIO
+                0x6550,  //0x206 LD V5, 80
+                0xF53A,  //0x208 PITCH V5
+                0xD017,  //0x20A DRW V0, V1, 7
+                0x00D1,  //0x20C SCU 1
+                0x7005,  //0x20E ADD V0, 5
+                0x7103,  //0x210 ADD V1, 3
+                0xF201,  //0x212 PLANE 2
+                0x00FB,  //0x214 SCR
+                0xF301,  //0x216 PLANE 3
+                0x120A}; //0x218 JP 0x20A
+        Chip8 reference = newSystem(program);
+        Chip8 candidate = newSystem(program);
+        candidate.setEngine(new SwitchEngine(candidate.getMemory(), candidate.getRegisterBank(),
+                candidate.getProcessingUnit()));
+        final byte[][] sent = new byte[1][];
+        final double[] rate = new double[1];
+        reference.setAudioOutput(new AudioOutput() {
+            @Override
+            public void frame(boolean on) {
+            }
+
+            @Override
+            public void pattern(byte[] pattern, double rateHz) {
+                sent[0] = pattern.clone();
+                rate[0] = rateHz;
+            }
+        });
+        for(int frame = 0; frame < 30; frame++){
+            reference.runFrame();
+            candidate.runFrame();
+            assertEquals(reference.getStateHash(), candidate.getStateHash());
+        }
+        assertEquals(hashFromScratch(reference), reference.getStateHash());
+        assertArrayEquals(reference.getProcessingUnit().getAudioPattern(), sent[0]);
+        assertEquals(4000 * Math.pow(2, 16 / 48.0), rate[0], 1e-9);
+
+        Chip8 restored = newSystem(program);
+        Snapshot.restore(restored, Snapshot.capture(reference));
+        Chip8 fork = reference.fork();
+        assertEquals(reference.getStateHash(), restored.getStateHash());
+        assertEquals(reference.getStateHash(), fork.getStateHash());
+        assertEquals(80, restored.getProcessingUnit().getPitch());
+        restored.runFrame();
+        fork.runFrame();
+        reference.runFrame();
+        assertEquals(reference.getStateHash(), restored.getStateHash());
+        assertEquals(reference.getStateHash(), fork.getStateHash());
+        assertTrue(reference.getMemory().getScreenHash() != 0);
+    }
+
+
+    //Program of "instructions", with bytes 0x00, 0x11, ..., 0xFF at 0x300
+    private static Chip8 newSystem(int... instructions){
+        Chip8 chip8 = TestSystems.newSystem(Machine.XOCHIP, Quirks.DEFAULT, instructions);
+        for(int i = 0; i < 16; i++){
+            chip8.getMemory().set((short)(0x300 + i), (byte)(0x11 * i));
+        }
+        return chip8;
+    }
+}